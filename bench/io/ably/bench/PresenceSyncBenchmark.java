@@ -0,0 +1,94 @@
+package io.ably.bench;
+
+import io.ably.types.AblyException;
+import io.ably.types.PresenceMessage;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+import io.ably.types.ProtocolSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the encode/decode of presence SYNC ProtocolMessages
+ * containing large numbers of members.
+ * Run via "ant bench"; allocation per operation is reported by the gc profiler
+ * as gc.alloc.rate.norm (bytes/op).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenceSyncBenchmark {
+
+	/**
+	 * The number of members in each SYNC ProtocolMessage
+	 */
+	@Param({"1000", "5000"})
+	public int memberCount;
+
+	private ProtocolMessage message;
+	private byte[] msgpackFrame;
+	private String jsonFrame;
+
+	@Setup(Level.Trial)
+	public void setup() throws AblyException {
+		message = createSync(memberCount);
+		msgpackFrame = ProtocolSerializer.toMsgpack(message);
+		jsonFrame = ProtocolSerializer.toJSON(message);
+	}
+
+	@Benchmark
+	public byte[] toMsgpack() throws AblyException {
+		return ProtocolSerializer.toMsgpack(message);
+	}
+
+	@Benchmark
+	public ProtocolMessage readMsgpack() throws AblyException {
+		return ProtocolSerializer.readMsgpack(msgpackFrame);
+	}
+
+	@Benchmark
+	public String toJSON() throws AblyException {
+		return ProtocolSerializer.toJSON(message);
+	}
+
+	@Benchmark
+	public ProtocolMessage readJSON() throws AblyException {
+		return ProtocolSerializer.readJSON(jsonFrame);
+	}
+
+	/**
+	 * Construct a SYNC ProtocolMessage resembling one received
+	 * from the service, with each member on a distinct connection.
+	 */
+	static ProtocolMessage createSync(int count) {
+		ProtocolMessage result = new ProtocolMessage(Action.SYNC, "benchmark:presence");
+		result.channelSerial = "sync-serial:cursor";
+		result.connectionId = "Gbqsb9mXnQ";
+		result.timestamp = System.currentTimeMillis();
+		PresenceMessage[] presence = result.presence = new PresenceMessage[count];
+		for(int i = 0; i < count; i++) {
+			PresenceMessage member = new PresenceMessage(PresenceMessage.Action.PRESENT, "client" + i, "{\"status\":\"online\",\"index\":" + i + '}');
+			member.connectionId = "conn" + (i % 64);
+			member.timestamp = result.timestamp - i;
+			member.encoding = "json";
+			presence[i] = member;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,140 @@
+package io.ably.bench;
+
+import io.ably.types.AblyException;
+import io.ably.types.ChannelOptions;
+import io.ably.types.Message;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+import io.ably.types.ProtocolSerializer;
+import io.ably.util.Crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the encode/decode of MESSAGE ProtocolMessages in both
+ * the msgpack and JSON wire formats.
+ * Run via "ant bench"; allocation per operation is reported by the gc profiler
+ * as gc.alloc.rate.norm (bytes/op).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolSerializerBenchmark {
+
+	/**
+	 * The number of Messages in each ProtocolMessage
+	 */
+	@Param({"1", "10", "100"})
+	public int messageCount;
+
+	/**
+	 * The type of the message payload; "string" or "binary"
+	 */
+	@Param({"string", "binary"})
+	public String dataType;
+
+	/**
+	 * Whether or not the payload is encrypted
+	 */
+	@Param({"false", "true"})
+	public boolean encrypted;
+
+	/**
+	 * The size of each message payload, in bytes (before encryption)
+	 */
+	@Param({"128"})
+	public int dataSize;
+
+	private ProtocolMessage message;
+	private byte[] msgpackFrame;
+	private ByteBuffer msgpackBuffer;
+	private String jsonFrame;
+
+	@Setup(Level.Trial)
+	public void setup() throws AblyException {
+		ChannelOptions options = null;
+		if(encrypted) {
+			options = new ChannelOptions();
+			options.encrypted = true;
+			options.cipherParams = Crypto.getDefaultParams();
+		}
+		message = createMessage(messageCount, dataType, dataSize, options);
+		msgpackFrame = ProtocolSerializer.toMsgpack(message);
+		msgpackBuffer = ByteBuffer.wrap(msgpackFrame);
+		jsonFrame = ProtocolSerializer.toJSON(message);
+	}
+
+	@Benchmark
+	public byte[] toMsgpack() throws AblyException {
+		return ProtocolSerializer.toMsgpack(message);
+	}
+
+	@Benchmark
+	public ProtocolMessage readMsgpack() throws AblyException {
+		return ProtocolSerializer.readMsgpack(msgpackFrame);
+	}
+
+	@Benchmark
+	public ProtocolMessage readMsgpackBuffer() throws AblyException {
+		return ProtocolSerializer.readMsgpack(msgpackBuffer);
+	}
+
+	@Benchmark
+	public String toJSON() throws AblyException {
+		return ProtocolSerializer.toJSON(message);
+	}
+
+	@Benchmark
+	public ProtocolMessage readJSON() throws AblyException {
+		return ProtocolSerializer.readJSON(jsonFrame);
+	}
+
+	/**
+	 * Construct a MESSAGE ProtocolMessage resembling one received
+	 * from the service, with its Messages encoded for the given options.
+	 */
+	static ProtocolMessage createMessage(int count, String dataType, int dataSize, ChannelOptions options) throws AblyException {
+		Random random = new Random(count);
+		ProtocolMessage result = new ProtocolMessage(Action.MESSAGE, "benchmark:channel");
+		result.id = "Gbqsb9mXnQ:0:0";
+		result.connectionId = "Gbqsb9mXnQ";
+		result.timestamp = System.currentTimeMillis();
+		result.msgSerial = Long.valueOf(0);
+		Message[] messages = result.messages = new Message[count];
+		for(int i = 0; i < count; i++) {
+			Object data;
+			if("binary".equals(dataType)) {
+				byte[] bytes = new byte[dataSize];
+				random.nextBytes(bytes);
+				data = bytes;
+			} else {
+				StringBuilder builder = new StringBuilder(dataSize);
+				for(int j = 0; j < dataSize; j++)
+					builder.append((char)('a' + random.nextInt(26)));
+				data = builder.toString();
+			}
+			Message message = new Message("event" + (i % 8), "client" + (i % 16), data);
+			message.encode(options);
+			messages[i] = message;
+		}
+		return result;
+	}
+}
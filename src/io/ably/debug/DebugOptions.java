@@ -1,9 +1,11 @@
 package io.ably.debug;
 
+import io.ably.transport.ITransport;
 import io.ably.types.AblyException;
 import io.ably.types.ClientOptions;
 
 public class DebugOptions extends ClientOptions {
 	public RawProtocolListener protocolListener;
+	public ITransport.Factory transportFactory;
 	public DebugOptions(String key) throws AblyException { super(key); }
 }
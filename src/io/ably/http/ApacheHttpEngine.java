@@ -0,0 +1,199 @@
+package io.ably.http;
+
+import io.ably.rest.Auth;
+import io.ably.rest.Auth.AuthMethod;
+import io.ably.transport.Defaults;
+import io.ably.types.AblyException;
+import io.ably.types.ClientOptions;
+import io.ably.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * ApacheHttpEngine
+ * The default HttpEngine, using Apache HttpClient over HTTP/1.1
+ * with a pool of persistent connections.
+ * Internal
+ */
+public class ApacheHttpEngine implements HttpEngine {
+
+	public static class Factory implements HttpEngine.Factory {
+		@Override
+		public HttpEngine getEngine(ClientOptions options) throws AblyException {
+			return new ApacheHttpEngine(options);
+		}
+	}
+
+	/**
+	 * Create an engine
+	 * @param options: the client options
+	 */
+	public ApacheHttpEngine(ClientOptions options) {
+		BasicHttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, options.httpOpenTimeout);
+		HttpConnectionParams.setSoTimeout(params, options.httpRequestTimeout);
+
+		/* the client holds the per-instance auth state; the connection
+		 * pool may be shared with other instances via the runtime */
+		ClientConnectionManager cm;
+		if(options.runtime != null) {
+			cm = options.runtime.getHttpConnectionManager();
+			ownsConnectionManager = false;
+		} else {
+			cm = newConnectionManager(options.httpMaxConnections, options.httpMaxConnectionsPerHost);
+			ownsConnectionManager = true;
+			if(options.httpIdleTimeout > 0)
+				idleEviction = scheduleIdleEviction(cm, options.httpIdleTimeout, Defaults.getScheduler(options));
+		}
+		httpClient = new DefaultHttpClient(cm, params);
+		httpClient.setKeepAliveStrategy(new KeepAliveStrategy(options.httpKeepAliveTime));
+	}
+
+	@Override
+	public void setAuth(Auth auth, CredentialsProvider credentialsProvider) {
+		String prefScheme;
+		if(auth.getAuthMethod() == AuthMethod.basic) {
+			prefScheme = "basic";
+		} else {
+			prefScheme = TokenAuth.SCHEME_NAME;
+			httpClient.getAuthSchemes().register(TokenAuth.SCHEME_NAME, auth.getTokenAuth());
+		}
+		httpClient.getParams().setParameter("http.auth.target-scheme-pref", Arrays.asList(new String[] { prefScheme }));
+		httpClient.setCredentialsProvider(credentialsProvider);
+	}
+
+	@Override
+	public HttpResponse execute(HttpHost host, HttpUriRequest request, HttpContext context) throws IOException {
+		return httpClient.execute(host, request, context);
+	}
+
+	@Override
+	public PoolStats getPoolStats() {
+		return getPoolStats(httpClient.getConnectionManager());
+	}
+
+	@Override
+	public synchronized void close() {
+		if(!isClosed) {
+			if(idleEviction != null)
+				idleEviction.cancel(false);
+			if(ownsConnectionManager)
+				httpClient.getConnectionManager().shutdown();
+			isClosed = true;
+		}
+	}
+
+	/**
+	 * Create a pool of HTTP connections
+	 * @param maxConnections: the maximum number of connections
+	 * @param maxConnectionsPerHost: the maximum number of connections to any one host
+	 * @return
+	 */
+	public static PoolingClientConnectionManager newConnectionManager(int maxConnections, int maxConnectionsPerHost) {
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+		schemeRegistry.register(new Scheme("https", 443, SSLSocketFactory.getSocketFactory()));
+		PoolingClientConnectionManager cm = new PoolingClientConnectionManager(schemeRegistry);
+		cm.setMaxTotal(maxConnections);
+		cm.setDefaultMaxPerRoute(maxConnectionsPerHost);
+		return cm;
+	}
+
+	/**
+	 * Periodically close the connections of a pool that have been idle
+	 * for longer than a given time, or whose keep-alive time has expired
+	 * @param cm: the pool
+	 * @param idleTimeout: the idle time in milliseconds
+	 * @param scheduler: the scheduler on which to check the pool
+	 * @return a future that may be cancelled to end the checks
+	 */
+	public static ScheduledFuture<?> scheduleIdleEviction(ClientConnectionManager cm, long idleTimeout, ScheduledExecutorService scheduler) {
+		long interval = Math.max(MIN_EVICTION_INTERVAL, idleTimeout / 2);
+		return scheduler.scheduleWithFixedDelay(new IdleConnectionEvictor(cm, idleTimeout), interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get statistics of a pool of HTTP connections
+	 * @param cm: the pool
+	 * @return the numbers of leased, available and pending connections
+	 * and the maximum number of connections, or null if the pool does
+	 * not provide statistics
+	 */
+	public static PoolStats getPoolStats(ClientConnectionManager cm) {
+		return (cm instanceof PoolingClientConnectionManager) ? ((PoolingClientConnectionManager)cm).getTotalStats() : null;
+	}
+
+	/**
+	 * Closes idle and expired connections; this holds no reference
+	 * to the engine, so does not prevent its finalization
+	 */
+	private static class IdleConnectionEvictor implements Runnable {
+		IdleConnectionEvictor(ClientConnectionManager cm, long idleTimeout) {
+			this.cm = cm;
+			this.idleTimeout = idleTimeout;
+		}
+		@Override
+		public void run() {
+			try {
+				cm.closeExpiredConnections();
+				cm.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+			} catch(Throwable t) {
+				Log.e(TAG, "Unexpected exception evicting idle connections", t);
+			}
+		}
+		private final ClientConnectionManager cm;
+		private final long idleTimeout;
+	}
+
+	/**
+	 * Keeps a connection alive for the time indicated by the server,
+	 * subject to a maximum
+	 * Internal; public for testing
+	 */
+	public static class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+		/**
+		 * @param maxKeepAlive: the maximum time in milliseconds, or 0 for no maximum
+		 */
+		public KeepAliveStrategy(long maxKeepAlive) {
+			this.maxKeepAlive = maxKeepAlive;
+		}
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = super.getKeepAliveDuration(response, context);
+			if(maxKeepAlive <= 0)
+				return duration;
+			return (duration < 0 || duration > maxKeepAlive) ? maxKeepAlive : duration;
+		}
+		private final long maxKeepAlive;
+	}
+
+	private static final long MIN_EVICTION_INTERVAL = 1000;
+	private static final String TAG = ApacheHttpEngine.class.getName();
+
+	private final AbstractHttpClient httpClient;
+	private final boolean ownsConnectionManager;
+	private ScheduledFuture<?> idleEviction;
+	private boolean isClosed;
+}
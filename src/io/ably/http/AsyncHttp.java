@@ -0,0 +1,166 @@
+package io.ably.http;
+
+import io.ably.types.AblyException;
+import io.ably.types.Callback;
+import io.ably.types.ErrorInfo;
+import io.ably.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncHttp
+ * Runs REST requests asynchronously, so that the calling thread is not
+ * blocked for the duration of the request. At most a given number of requests
+ * are in progress at any time; further requests are held, without blocking
+ * the caller, until an earlier request completes.
+ */
+public class AsyncHttp {
+
+	private static final String TAG = AsyncHttp.class.getName();
+
+	/**
+	 * Create an AsyncHttp
+	 * @param executor: the executor on which requests are made, or null to use
+	 * the library's default executor, which is shared by all clients
+	 * @param maxInFlight: the maximum number of requests in progress at any time
+	 */
+	public AsyncHttp(Executor executor, int maxInFlight) {
+		this.executor = (executor != null) ? executor : getDefaultExecutor();
+		this.permits = new Semaphore(Math.max(1, maxInFlight));
+	}
+
+	/**
+	 * Submit a request
+	 * @param request: the request, which may block for the duration of the HTTP exchange
+	 * @param callback: a callback to be notified of the result; may be null
+	 * @return a Future for the result of the request
+	 */
+	public <T> Future<T> submit(Callable<T> request, Callback<T> callback) {
+		Request<T> task = new Request<T>(request, callback);
+		pending.add(task);
+		dispatch();
+		return task;
+	}
+
+	/**
+	 * The number of requests in progress
+	 */
+	public int getInFlightCount() { return inFlight.get(); }
+
+	/**
+	 * The number of requests awaiting dispatch
+	 */
+	public int getPendingCount() { return pending.size(); }
+
+	/**
+	 * Start as many pending requests as the in-flight limit allows
+	 */
+	private void dispatch() {
+		while(!pending.isEmpty() && permits.tryAcquire()) {
+			final Request<?> task = pending.poll();
+			if(task == null) {
+				permits.release();
+				continue;
+			}
+			inFlight.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							inFlight.decrementAndGet();
+							permits.release();
+							dispatch();
+						}
+					}
+				});
+			} catch(RejectedExecutionException ree) {
+				inFlight.decrementAndGet();
+				permits.release();
+				task.reject(ree);
+			}
+		}
+	}
+
+	private static class Request<T> extends FutureTask<T> {
+		Request(Callable<T> request, Callback<T> callback) {
+			super(request);
+			this.callback = callback;
+		}
+
+		void reject(Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		protected void done() {
+			if(callback == null)
+				return;
+			T result;
+			try {
+				result = get();
+			} catch(CancellationException ce) {
+				return;
+			} catch(InterruptedException ie) {
+				return;
+			} catch(ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				ErrorInfo reason = AblyException.fromThrowable(cause).errorInfo;
+				try {
+					callback.onError(reason);
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected exception calling callback", t);
+				}
+				return;
+			}
+			try {
+				callback.onSuccess(result);
+			} catch(Throwable t) {
+				Log.e(TAG, "Unexpected exception calling callback", t);
+			}
+		}
+
+		private final Callback<T> callback;
+	}
+
+	/**
+	 * Get the library's default executor for asynchronous requests; a pool of
+	 * daemon threads, shared by all clients, that grows with the number of
+	 * requests in progress and shrinks when idle
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if(defaultExecutor == null) {
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ably-http-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+
+	private final Executor executor;
+	private final Semaphore permits;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final ConcurrentLinkedQueue<Request<?>> pending = new ConcurrentLinkedQueue<Request<?>>();
+
+	private static ExecutorService defaultExecutor;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+}
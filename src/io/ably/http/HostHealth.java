@@ -0,0 +1,342 @@
+package io.ably.http;
+
+import io.ably.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HostHealth
+ * Tracks the health of the hosts to which REST requests are made,
+ * so that a host that is failing is not tried first by every request,
+ * each waiting for a connection timeout before falling back.
+ *
+ * For each host, a moving average of request latency is kept, together
+ * with a circuit breaker: after a number of consecutive connection
+ * failures the circuit opens, and the host is tried only as a last
+ * resort until a retry timeout has elapsed. The host of the most
+ * recent successful request is remembered as the last known good host.
+ * Latencies of recent requests to all hosts are also sampled, to give
+ * the delay after which an idempotent request is hedged.
+ *
+ * A fallback host that has succeeded where the default host failed may
+ * be made the preferred host for a period; until that period expires, or
+ * the host fails, it is tried first by REST requests and realtime connection
+ * attempts, so the cost of the default host's failure is not paid again
+ * by each request. A tracker may be shared by any number of clients.
+ */
+public class HostHealth {
+
+	private static final String TAG = HostHealth.class.getName();
+
+	/**
+	 * Create a tracker with the default failure threshold and timeouts
+	 */
+	public HostHealth() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_RETRY_TIMEOUT, DEFAULT_PREFERENCE_TIMEOUT);
+	}
+
+	/**
+	 * Create a tracker
+	 * @param failureThreshold: the number of consecutive failures after which a host's circuit opens
+	 * @param retryTimeout: the time in milliseconds after which a host whose circuit is open is tried again
+	 * @param preferenceTimeout: the time in milliseconds for which a fallback host remains preferred
+	 */
+	public HostHealth(int failureThreshold, long retryTimeout, long preferenceTimeout) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.retryTimeout = retryTimeout;
+		this.preferenceTimeout = preferenceTimeout;
+	}
+
+	/**
+	 * Get the order in which hosts should be tried for a request.
+	 * A fallback host that is currently preferred is first. The default host
+	 * follows, unless its circuit is open, in which case the last known good
+	 * host follows. Other hosts follow, those with known latencies in order
+	 * of latency; hosts whose circuits are open are last.
+	 * @param prefHost: the default host
+	 * @param fallbackHosts: the fallback hosts, or null
+	 * @return the hosts, each appearing once
+	 */
+	public String[] order(String prefHost, String[] fallbackHosts) {
+		long now = now();
+		String goodHost = lastGoodHost;
+		String stickyHost = getPreferredHost(fallbackHosts);
+		List<String> available = new ArrayList<String>();
+		List<String> unavailable = new ArrayList<String>();
+		if(stickyHost != null && !stickyHost.equals(prefHost))
+			available.add(stickyHost);
+		boolean prefAvailable = isAvailable(prefHost, now);
+		if(prefAvailable)
+			available.add(prefHost);
+		else
+			unavailable.add(prefHost);
+		if(fallbackHosts != null) {
+			List<String> measured = new ArrayList<String>();
+			List<String> unmeasured = new ArrayList<String>();
+			for(String host : fallbackHosts) {
+				if(host.equals(prefHost) || host.equals(stickyHost))
+					continue;
+				if(!isAvailable(host, now))
+					unavailable.add(host);
+				else if(!prefAvailable && host.equals(goodHost))
+					available.add(host);
+				else if(getLatency(host) >= 0)
+					measured.add(host);
+				else
+					unmeasured.add(host);
+			}
+			Collections.sort(measured, latencyOrder);
+			available.addAll(measured);
+			available.addAll(unmeasured);
+		}
+		available.addAll(unavailable);
+		return available.toArray(new String[available.size()]);
+	}
+
+	/**
+	 * Record a request to a host that received a response
+	 * @param host: the host
+	 * @param latencyNanos: the time taken for the request
+	 */
+	public void onSuccess(String host, long latencyNanos) {
+		getState(host).onSuccess(latencyNanos);
+		lastGoodHost = host;
+		synchronized(samples) {
+			samples[sampleIndex] = latencyNanos;
+			sampleIndex = (sampleIndex + 1) % samples.length;
+			if(sampleCount < samples.length)
+				++sampleCount;
+			if(--samplesToRecalc <= 0) {
+				long[] sorted = Arrays.copyOf(samples, sampleCount);
+				Arrays.sort(sorted);
+				p95Nanos = sorted[(int)Math.ceil(sorted.length * 0.95) - 1];
+				samplesToRecalc = RECALC_INTERVAL;
+			}
+		}
+	}
+
+	/**
+	 * Record a request to a host that failed to connect. If the
+	 * host is the preferred host, it is no longer preferred.
+	 * @param host: the host
+	 */
+	public void onFailure(String host) {
+		if(getState(host).onFailure(now()))
+			Log.i(TAG, "onFailure(): circuit open for host = " + host);
+		synchronized(this) {
+			if(host.equals(preferredHost))
+				preferredHost = null;
+		}
+	}
+
+	/**
+	 * Make a fallback host the preferred host, if it is not already.
+	 * The host remains preferred until the preference timeout expires,
+	 * or the host fails; the preference is not extended by subsequent
+	 * successful requests, so the default host is periodically retried.
+	 * @param host: the host
+	 */
+	public synchronized void setPreferredHost(String host) {
+		long now = now();
+		if(host.equals(preferredHost) && now < preferredUntil)
+			return;
+		Log.i(TAG, "setPreferredHost(): host = " + host);
+		preferredHost = host;
+		preferredUntil = now + preferenceTimeout;
+	}
+
+	/**
+	 * Get the preferred host, if any
+	 * @param hosts: the hosts from which the preferred host may be chosen
+	 * @return the preferred host, if it is one of the given hosts, the
+	 * preference has not expired, and its circuit is not open; otherwise null
+	 */
+	public String getPreferredHost(String[] hosts) {
+		String host;
+		synchronized(this) {
+			if(preferredHost == null || hosts == null)
+				return null;
+			long now = now();
+			if(now >= preferredUntil) {
+				preferredHost = null;
+				return null;
+			}
+			host = preferredHost;
+		}
+		for(String candidate : hosts)
+			if(candidate.equals(host))
+				return isAvailable(host) ? host : null;
+		return null;
+	}
+
+	/**
+	 * Choose one of the given hosts: the preferred host, if it is one of
+	 * them; otherwise a host chosen at random from those whose circuits are
+	 * not open, if any, or from all of them
+	 * @param hosts: the hosts
+	 * @return the chosen host
+	 */
+	public String choose(String[] hosts) {
+		String host = getPreferredHost(hosts);
+		if(host != null)
+			return host;
+		long now = now();
+		List<String> available = new ArrayList<String>();
+		for(String candidate : hosts)
+			if(isAvailable(candidate, now))
+				available.add(candidate);
+		if(available.isEmpty())
+			return hosts[random.nextInt(hosts.length)];
+		return available.get(random.nextInt(available.size()));
+	}
+
+	/**
+	 * Get the moving average latency of requests to a host
+	 * @param host: the host
+	 * @return the latency in nanoseconds, or -1 if unknown
+	 */
+	public long getLatency(String host) {
+		State state = states.get(host);
+		return (state == null) ? -1 : state.latencyNanos;
+	}
+
+	/**
+	 * Determine whether or not a host is available; that is,
+	 * whether or not its circuit is closed or may be retried
+	 * @param host: the host
+	 */
+	public boolean isAvailable(String host) {
+		return isAvailable(host, now());
+	}
+
+	/**
+	 * Get the host of the most recent successful request
+	 * @return the host, or null if no request has succeeded
+	 */
+	public String getLastGoodHost() {
+		return lastGoodHost;
+	}
+
+	/**
+	 * Get the delay after which an idempotent request still awaiting
+	 * a response is hedged with a request to another host: the 95th
+	 * percentile of recent request latencies, subject to a minimum
+	 * @return the delay in milliseconds
+	 */
+	public long getHedgeDelay() {
+		synchronized(samples) {
+			if(sampleCount < MIN_HEDGE_SAMPLES)
+				return DEFAULT_HEDGE_DELAY;
+			return Math.max(MIN_HEDGE_DELAY, p95Nanos / 1000000L);
+		}
+	}
+
+	/**
+	 * Forget all host state
+	 */
+	public void reset() {
+		states.clear();
+		lastGoodHost = null;
+		synchronized(this) {
+			preferredHost = null;
+		}
+		synchronized(samples) {
+			sampleIndex = sampleCount = 0;
+			samplesToRecalc = 0;
+			p95Nanos = 0;
+		}
+	}
+
+	/**************************
+	 *     Internal
+	 **************************/
+
+	/**
+	 * Get the current time in milliseconds; may be overridden for testing
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	private boolean isAvailable(String host, long now) {
+		State state = states.get(host);
+		return state == null || state.isAvailable(now);
+	}
+
+	private State getState(String host) {
+		State state = states.get(host);
+		if(state == null) {
+			State newState = new State();
+			state = states.putIfAbsent(host, newState);
+			if(state == null)
+				state = newState;
+		}
+		return state;
+	}
+
+	private class State {
+		synchronized void onSuccess(long latency) {
+			latencyNanos = (latencyNanos < 0) ? latency : latencyNanos + (latency - latencyNanos) / EWMA_WEIGHT;
+			consecutiveFailures = 0;
+			openUntil = 0;
+		}
+
+		/**
+		 * @return true if this failure opened the circuit
+		 */
+		synchronized boolean onFailure(long now) {
+			if(++consecutiveFailures < failureThreshold)
+				return false;
+			boolean wasOpen = openUntil != 0;
+			openUntil = now + retryTimeout;
+			return !wasOpen;
+		}
+
+		synchronized boolean isAvailable(long now) {
+			return openUntil == 0 || now >= openUntil;
+		}
+
+		private volatile long latencyNanos = -1;
+		private int consecutiveFailures;
+		private long openUntil;
+	}
+
+	private final Comparator<String> latencyOrder = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			long la = getLatency(a), lb = getLatency(b);
+			return (la < lb) ? -1 : ((la == lb) ? 0 : 1);
+		}
+	};
+
+	private static final int EWMA_WEIGHT = 8;
+	private static final int RECALC_INTERVAL = 16;
+	private static final int MIN_HEDGE_SAMPLES = 20;
+	private static final long MIN_HEDGE_DELAY = 50;
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 2;
+	public static final long DEFAULT_RETRY_TIMEOUT = 30000;
+	public static final long DEFAULT_HEDGE_DELAY = 2000;
+	public static final long DEFAULT_PREFERENCE_TIMEOUT = 600000;
+
+	private final int failureThreshold;
+	private final long retryTimeout;
+	private final long preferenceTimeout;
+	private final Random random = new Random();
+	private String preferredHost;
+	private long preferredUntil;
+	private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
+	private volatile String lastGoodHost;
+
+	private final long[] samples = new long[128];
+	private int sampleIndex;
+	private int sampleCount;
+	private int samplesToRecalc;
+	private long p95Nanos;
+}
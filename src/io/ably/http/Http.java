@@ -17,9 +17,18 @@ import java.net.ConnectException;
 import java.net.NoRouteToHostException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -32,20 +41,14 @@ import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
@@ -101,40 +104,56 @@ public class Http {
 	 *************************/
 
 	public void setAuth(Auth auth) {
-		String prefScheme;
 		if(auth.getAuthMethod() == AuthMethod.basic) {
 			credentialsProvider = new BasicCredentialsProvider();
 			credentialsProvider.setCredentials(authScope, new UsernamePasswordCredentials(auth.getBasicCredentials()));
-			prefScheme = "basic";
 		} else {
-			prefScheme = TokenAuth.SCHEME_NAME;
-			TokenAuth tokenAuth = auth.getTokenAuth();
-			httpClient.getAuthSchemes().register(TokenAuth.SCHEME_NAME, tokenAuth);
-			credentialsProvider = tokenAuth;
+			credentialsProvider = auth.getTokenAuth();
 		}
-		httpClient.getParams().setParameter("http.auth.target-scheme-pref", Arrays.asList(new String[] { prefScheme }));
-		httpClient.setCredentialsProvider(credentialsProvider);
+		engine.setAuth(auth, credentialsProvider);
 	}
 
 	public CredentialsProvider getCredentialsProvider() {
 		return credentialsProvider;
 	}
 
-	@SuppressWarnings("deprecation")
-	public Http(AblyRest ably, ClientOptions options) {
+	public Http(AblyRest ably, ClientOptions options) throws AblyException {
 		this.ably = ably;
 		this.scheme = options.tls ? "https" : "http";
 		this.port = Defaults.getPort(options);
-		BasicHttpParams params = new BasicHttpParams();
-		SchemeRegistry schemeRegistry = new SchemeRegistry();  
-		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-		schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
 
-		HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);  
-		HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);  
+		/* the engine that makes the requests is pluggable */
+		HttpEngine.Factory engineFactory = options.httpEngineFactory;
+		if(engineFactory == null) {
+			try {
+				engineFactory = (HttpEngine.Factory)Class.forName(Defaults.httpEngine).getDeclaredConstructor().newInstance();
+			} catch(Exception e) {
+				Log.e(TAG, "Unable to instance http engine class", e);
+				throw AblyException.fromThrowable(e);
+			}
+		}
+		engine = engineFactory.getEngine(options);
+
+		/* host health, and the preferred fallback host, may also be shared */
+		if(options.runtime != null)
+			hostHealth = options.runtime.getHostHealth();
+		else
+			hostHealth = new HostHealth(HostHealth.DEFAULT_FAILURE_THRESHOLD, HostHealth.DEFAULT_RETRY_TIMEOUT, options.fallbackRetryTimeout);
+	}
+
+	/**
+	 * Get the engine used to make requests
+	 */
+	public HttpEngine getEngine() {
+		return engine;
+	}
 
-		ClientConnectionManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-		httpClient = new DefaultHttpClient(cm, params);
+	/**
+	 * Get statistics of the connections used by this client
+	 * @return see {@link HttpEngine#getPoolStats()}
+	 */
+	public PoolStats getPoolStats() {
+		return engine.getPoolStats();
 	}
 
 	private String getPrefHost() {
@@ -153,7 +172,7 @@ public class Http {
 	public byte[] getUrl(String url) throws AblyException {
 		HttpGet httpGet = new HttpGet(url);
 		try {
-			return EntityUtils.toByteArray(httpClient.execute(httpGet).getEntity());
+			return EntityUtils.toByteArray(engine.execute(URIUtils.extractHost(httpGet.getURI()), httpGet, localContext).getEntity());
 		} catch(IOException ioe) {
 			throw new AblyException(ioe);
 		}
@@ -164,28 +183,10 @@ public class Http {
 		if(headers != null)
 			for(Param header : headers)
 				httpGet.addHeader(new BasicHeader(header.key, header.value));
-		try {
-			return getForHost(getPrefHost(), httpGet, handler);
-		} catch(HostFailedException bhe) {
-			/* one of the exceptions occurred that signifies a problem reaching the host */
-			String[] fallbackHosts = Defaults.getFallbackHosts(ably.options);
-			if(fallbackHosts != null) {
-				for(String host : fallbackHosts) {
-					try {
-						return getForHost(host, httpGet, handler);
-					} catch(HostFailedException bhe2) {}
-				}
-			}
-			throw new AblyException("Connection failed; no host available", 404, 80000);
-		}
-	}
-
-	private Object getForHost(String host, HttpGet httpGet, ResponseHandler handler) throws HostFailedException, AblyException {
-		try {
-			return handleResponse(httpClient.execute(getHttpHost(host), httpGet, localContext), handler);
-		} catch(Throwable t) {
-			throw HostFailedException.checkFor(t);
-		}
+		String[] hosts = getHosts();
+		if(ably.options.hedgeIdempotentRequests && hosts.length > 1)
+			return executeHedged(hosts, httpGet, handler);
+		return execute(hosts, httpGet, handler);
 	}
 
 	public Object getUri(String uri, Param[] headers, Param[] params, ResponseHandler handler) throws AblyException {
@@ -195,7 +196,7 @@ public class Http {
 			if(headers != null)
 				for(Param header : headers)
 					httpGet.addHeader(new BasicHeader(header.key, header.value));
-			return handleResponse(httpClient.execute(new HttpHost(parsedUri.getHost(), parsedUri.getPort(), parsedUri.getScheme()), httpGet, localContext), handler);
+			return handleResponse(engine.execute(new HttpHost(parsedUri.getHost(), parsedUri.getPort(), parsedUri.getScheme()), httpGet, localContext), handler);
 		} catch(Throwable t) {
 			throw AblyException.fromThrowable(t);
 		}
@@ -207,28 +208,7 @@ public class Http {
 			for(Param header : headers)
 				httpPost.addHeader(new BasicHeader(header.key, header.value));
 		httpPost.setEntity(requestBody.getEntity());
-		try {
-			return postForHost(getPrefHost(), httpPost, handler);
-		} catch(HostFailedException bhe) {
-			/* one of the exceptions occurred that signifies a problem reaching the host */
-			String[] fallbackHosts = Defaults.getFallbackHosts(ably.options);
-			if(fallbackHosts != null) {
-				for(String host : fallbackHosts) {
-					try {
-						return postForHost(host, httpPost, handler);
-					} catch(HostFailedException bhe2) {}
-				}
-			}
-			throw new AblyException("Connection failed; no host available", 404, 80000);
-		}
-	}
-
-	private Object postForHost(String host, HttpPost httpPost, ResponseHandler handler) throws HostFailedException, AblyException {
-		try {
-			return handleResponse(httpClient.execute(getHttpHost(host), httpPost, localContext), handler);
-		} catch(Throwable t) {
-			throw HostFailedException.checkFor(t);
-		}
+		return execute(getHosts(), httpPost, handler);
 	}
 
 	public Object del(String path, Param[] headers, Param[] params, ResponseHandler handler) throws AblyException {
@@ -236,28 +216,161 @@ public class Http {
 		if(headers != null)
 			for(Param header : headers)
 				httpDel.addHeader(new BasicHeader(header.key, header.value));
+		return execute(getHosts(), httpDel, handler);
+	}
+
+	/**
+	 * Get the tracker of the health of the hosts used by this client
+	 */
+	public HostHealth getHostHealth() {
+		return hostHealth;
+	}
+
+	/**
+	 * Get the hosts to try for a request, in order
+	 */
+	private String[] getHosts() {
+		return hostHealth.order(getPrefHost(), Defaults.getFallbackHosts(ably.options));
+	}
+
+	/**
+	 * Make a fallback host the preferred host, once it has succeeded
+	 */
+	private void onHostSucceeded(String host) {
+		String[] fallbackHosts = Defaults.getFallbackHosts(ably.options);
+		if(fallbackHosts != null)
+			for(String fallbackHost : fallbackHosts)
+				if(fallbackHost.equals(host))
+					hostHealth.setPreferredHost(host);
+	}
+
+	/**
+	 * Make a request to each host in turn until one is reached
+	 */
+	private Object execute(String[] hosts, HttpRequestBase request, ResponseHandler handler) throws AblyException {
+		for(String host : hosts) {
+			try {
+				Object result = executeForHost(host, request, localContext, handler);
+				onHostSucceeded(host);
+				return result;
+			} catch(HostFailedException hfe) {
+				/* one of the exceptions occurred that signifies a problem reaching the host */
+				Log.i(TAG, "execute(): unable to reach host = " + host);
+			}
+		}
+		throw new AblyException("Connection failed; no host available", 404, 80000);
+	}
+
+	/**
+	 * Make an idempotent request to each host in turn until one is reached;
+	 * if no response has been received from a host after the hedge delay,
+	 * a second request is made to the next host, and the first successful
+	 * response received is used. At most two requests are in progress at any
+	 * time. Requests are made on ClientOptions.asyncHttpExecutor, if set.
+	 */
+	private Object executeHedged(final String[] hosts, HttpGet httpGet, final ResponseHandler handler) throws AblyException {
+		Executor executor = ably.options.asyncHttpExecutor;
+		if(executor == null)
+			executor = AsyncHttp.getDefaultExecutor();
+		CompletionService<Object> completion = new ExecutorCompletionService<Object>(executor);
+		List<HttpGet> attempts = new ArrayList<HttpGet>();
+		long hedgeDelay = hostHealth.getHedgeDelay();
+		int next = 0, running = 0;
+		boolean hedged = false;
+		/* the error response from a host that was reached, if any */
+		AblyException failure = null;
 		try {
-			return delForHost(getPrefHost(), httpDel, handler);
-		} catch(HostFailedException bhe) {
-			/* one of the exceptions occurred that signifies a problem reaching the host */
-			String[] fallbackHosts = Defaults.getFallbackHosts(ably.options);
-			if(fallbackHosts != null) {
-				for(String host : fallbackHosts) {
-					try {
-						return delForHost(host, httpDel, handler);
-					} catch(HostFailedException bhe2) {}
+			if(!submitForHost(completion, attempts, hosts[next], httpGet, handler)) {
+				/* the executor is unable to take the request */
+				return execute(hosts, httpGet, handler);
+			}
+			++next;
+			++running;
+			while(running > 0) {
+				Future<Object> result;
+				if(!hedged && next < hosts.length) {
+					result = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+					if(result == null) {
+						Log.v(TAG, "executeHedged(): no response after " + hedgeDelay + "ms; hedging to host = " + hosts[next]);
+						hedged = true;
+						if(submitForHost(completion, attempts, hosts[next], httpGet, handler)) {
+							++next;
+							++running;
+						}
+						continue;
+					}
+				} else {
+					result = completion.take();
+				}
+				--running;
+				try {
+					return result.get();
+				} catch(ExecutionException ee) {
+					Throwable cause = ee.getCause();
+					if(!(cause instanceof HostFailedException)) {
+						/* the host responded with an error; that is the outcome,
+						 * unless a request still in progress succeeds */
+						if(failure == null)
+							failure = AblyException.fromThrowable(cause);
+						continue;
+					}
+					if(failure == null && next < hosts.length && submitForHost(completion, attempts, hosts[next], httpGet, handler)) {
+						++next;
+						++running;
+					}
 				}
 			}
-			throw new AblyException("Connection failed; no host available", 404, 80000);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw AblyException.fromThrowable(ie);
+		} finally {
+			/* abandon any request still in progress */
+			for(HttpGet attempt : attempts)
+				attempt.abort();
 		}
+		if(failure != null)
+			throw failure;
+		throw new AblyException("Connection failed; no host available", 404, 80000);
 	}
 
-	private Object delForHost(String host, HttpDelete httpDel, ResponseHandler handler) throws HostFailedException, AblyException {
+	/**
+	 * Submit a request to a host
+	 * @return false if the executor rejected the request
+	 */
+	private boolean submitForHost(CompletionService<Object> completion, List<HttpGet> attempts, final String host, HttpGet httpGet, final ResponseHandler handler) {
+		final HttpGet attempt = new HttpGet(httpGet.getURI());
+		attempt.setHeaders(httpGet.getAllHeaders());
 		try {
-			return handleResponse(httpClient.execute(getHttpHost(host), httpDel, localContext), handler);
+			completion.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws AblyException {
+					Object result = executeForHost(host, attempt, new BasicHttpContext(), handler);
+					onHostSucceeded(host);
+					return result;
+				}
+			});
+		} catch(RejectedExecutionException ree) {
+			Log.w(TAG, "submitForHost(): request rejected by executor; host = " + host);
+			return false;
+		}
+		attempts.add(attempt);
+		return true;
+	}
+
+	private Object executeForHost(String host, HttpRequestBase request, HttpContext context, ResponseHandler handler) throws HostFailedException, AblyException {
+		long start = System.nanoTime();
+		HttpResponse response;
+		try {
+			response = engine.execute(getHttpHost(host), request, context);
 		} catch(Throwable t) {
-			throw HostFailedException.checkFor(t);
+			AblyException e = HostFailedException.checkFor(t);
+			if(e instanceof HostFailedException && !request.isAborted())
+				hostHealth.onFailure(host);
+			throw e;
 		}
+		/* the host was reached, whether or not the request succeeded */
+		hostHealth.onSuccess(host, System.nanoTime() - start);
+		return handleResponse(response, handler);
 	}
 
 	/**************************
@@ -310,7 +423,7 @@ public class Http {
 
 	synchronized void dispose() {
 		if(!isDisposed) {
-			httpClient.getConnectionManager().shutdown();
+			engine.close();
 			isDisposed = true;
 		}
 	}
@@ -318,13 +431,14 @@ public class Http {
 	public void finalize() {
 		dispose();
 	}
+
 	private static class HostFailedException extends AblyException {
 		private static final long serialVersionUID = 1L;
 		public HostFailedException(Throwable cause) {
 			super(cause);
 		}		
 		private static AblyException checkFor(Throwable t) {
-			if(t instanceof ConnectException || t instanceof UnknownHostException || t instanceof NoRouteToHostException)
+			if(t instanceof ConnectException || t instanceof ConnectTimeoutException || t instanceof UnknownHostException || t instanceof NoRouteToHostException)
 				return new HostFailedException(t);
 			return AblyException.fromThrowable(t);
 		}
@@ -334,8 +448,6 @@ public class Http {
 	 *     Private state
 	 *************************/
 
-	public static int CONNECTION_TIMEOUT = 2*60*1000;  
-	public static int SOCKET_TIMEOUT = 2*60*1000;
 	private static final AuthScope authScope = new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT);
 	private static final String TAG = Http.class.getName();
 
@@ -345,8 +457,9 @@ public class Http {
 	private Map<String, HttpHost> httpHosts = new HashMap<String, HttpHost>();
 	private HttpContext localContext = new BasicHttpContext();
 	private CredentialsProvider credentialsProvider;
+	private final HostHealth hostHealth;
 
-	AbstractHttpClient httpClient;
+	private final HttpEngine engine;
 	private boolean isDisposed;
 
 }
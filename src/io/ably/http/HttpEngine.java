@@ -0,0 +1,66 @@
+package io.ably.http;
+
+import io.ably.rest.Auth;
+import io.ably.types.AblyException;
+import io.ably.types.ClientOptions;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpEngine
+ * The means by which Http makes requests to a host. Http is responsible
+ * for the choice of host, fallback, and the interpretation of responses;
+ * the engine is responsible for connections, their pooling, and the
+ * application of the client's credentials to each request.
+ * Requests and responses are represented using the httpcore model,
+ * which an engine not based on Apache HttpClient may translate.
+ * The engine is selected by ClientOptions.httpEngineFactory or, if that
+ * is not specified, by the class named in Defaults.httpEngine.
+ */
+public interface HttpEngine {
+
+	/**
+	 * Creates an engine for a client
+	 */
+	public interface Factory {
+		public HttpEngine getEngine(ClientOptions options) throws AblyException;
+	}
+
+	/**
+	 * Set the credentials used to authenticate requests
+	 * @param auth: the client's Auth
+	 * @param credentialsProvider: the credentials derived from auth, for
+	 * engines based on Apache HttpClient
+	 */
+	public void setAuth(Auth auth, CredentialsProvider credentialsProvider);
+
+	/**
+	 * Make a request to a host and await the response. The request
+	 * may be aborted by another thread while awaiting the response.
+	 * @param host: the host
+	 * @param request: the request
+	 * @param context: the context of the request
+	 * @return the response, whose entity, if any, the caller consumes
+	 * @throws IOException if the host cannot be reached or the request fails
+	 */
+	public HttpResponse execute(HttpHost host, HttpUriRequest request, HttpContext context) throws IOException;
+
+	/**
+	 * Get statistics of the engine's connections
+	 * @return the numbers of leased, available and pending connections
+	 * and the maximum number of connections, or null if not available
+	 */
+	public PoolStats getPoolStats();
+
+	/**
+	 * Release the engine's resources
+	 */
+	public void close();
+}
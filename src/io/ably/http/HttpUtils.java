@@ -15,6 +15,17 @@ import java.util.Map;
 public class HttpUtils {
 	public static final String DEFAULT_FORMAT = "json";
 	public static Map<String, String> mimeTypes;
+
+	private static final Param[] BINARY_GET_HEADERS = new Param[]{ new Param("Accept", "application/x-msgpack,application/json") };
+	private static final Param[] JSON_GET_HEADERS = new Param[]{ new Param("Accept", "application/json") };
+	private static final Param[] BINARY_POST_HEADERS = new Param[]{
+		new Param("Accept", "application/x-msgpack,application/json"),
+		new Param("Content-Type", "application/x-msgpack")
+	};
+	private static final Param[] JSON_POST_HEADERS = new Param[]{
+		new Param("Accept", "application/json"),
+		new Param("Content-Type", "application/json")
+	};
 	
 	static {
 		mimeTypes = new HashMap<String, String>();
@@ -24,30 +35,20 @@ public class HttpUtils {
 		mimeTypes.put("msgpack", "application/x-msgpack");
 	}
 
+	/**
+	 * Get the headers for a GET request. The returned array
+	 * is shared, so must not be modified by the caller.
+	 */
 	public static Param[] defaultGetHeaders(boolean binary) {
-		Param[] headers;
-		if(binary) {
-			headers = new Param[]{ new Param("Accept", "application/x-msgpack,application/json") };
-		} else {
-			headers = new Param[]{ new Param("Accept", "application/json") };
-		}
-		return headers;
+		return binary ? BINARY_GET_HEADERS : JSON_GET_HEADERS;
 	}
 
+	/**
+	 * Get the headers for a POST request. The returned array
+	 * is shared, so must not be modified by the caller.
+	 */
 	public static Param[] defaultPostHeaders(boolean binary) {
-		Param[] headers;
-		if(binary) {
-			headers = new Param[]{
-				new Param("Accept", "application/x-msgpack,application/json"),
-				new Param("Content-Type", "application/x-msgpack")
-			};
-		} else {
-			headers = new Param[]{
-				new Param("Accept", "application/json"),
-				new Param("Content-Type", "application/json")
-			};
-		}
-		return headers;
+		return binary ? BINARY_POST_HEADERS : JSON_POST_HEADERS;
 	}
 
 	public static String encodeParams(String path, Param[] params) {
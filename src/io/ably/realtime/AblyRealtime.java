@@ -1,10 +1,12 @@
 package io.ably.realtime;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.ably.rest.AblyRest;
+import io.ably.transport.ConnectionManager;
 import io.ably.transport.ITransport;
 import io.ably.types.AblyException;
 import io.ably.types.ChannelOptions;
@@ -65,25 +67,121 @@ public class AblyRealtime extends AblyRest {
 	/**
 	 * A collection of the Channels associated with this Realtime
 	 * instance.
-	 *
+	 * Channels may be created, looked up and released concurrently from
+	 * any number of threads; lookups, including the lookup for each
+	 * received message, do not lock the collection.
 	 */
 	@SuppressWarnings("serial")
-	public class Channels extends HashMap<String, Channel> {
+	public class Channels extends ConcurrentHashMap<String, Channel> {
 		/**
 		 * Get the named channel; if it does not already exist,
 		 * create it with default options.
+		 * If multiple threads get a channel that does not exist,
+		 * exactly one channel is created, and returned to all of them.
 		 * @param channelName the name of the channel
 		 * @return the channel
 		 */
 		public Channel get(String channelName) {
 			Channel channel = super.get(channelName);
 			if(channel == null) {
-				channel = new Channel(AblyRealtime.this, channelName);
-				put(channelName, channel);
+				Channel created = new Channel(AblyRealtime.this, channelName);
+				channel = putIfAbsent(channelName, created);
+				if(channel == null)
+					channel = created;
 			}
 			return channel;
 		}
 
+		/**
+		 * Attach to each of the named channels, creating any that do not
+		 * already exist. Attach requests for all the channels are made
+		 * without waiting for any individual channel to become attached,
+		 * subject to ClientOptions.channelRequestWindow; the outcome for
+		 * each channel is indicated in its state changes.
+		 * @param channelNames the names of the channels
+		 * @return the channels, in the same order as the names
+		 * @throws AblyException if the connection is not in a state that
+		 * permits attachment
+		 */
+		public Channel[] attach(String... channelNames) throws AblyException {
+			return attach(channelNames, null);
+		}
+
+		/**
+		 * Attach to each of the named channels, creating any that do not
+		 * already exist, with up to ClientOptions.channelRequestWindow attach
+		 * requests awaiting a response at any time.
+		 * @param channelNames the names of the channels
+		 * @param listener a listener to be notified of the outcome for each
+		 * channel, and when all are complete; may be null
+		 * @return the channels, in the same order as the names
+		 * @throws AblyException if the connection is not in a state that
+		 * permits attachment
+		 */
+		public Channel[] attach(String[] channelNames, ChannelProgressListener listener) throws AblyException {
+			checkActive();
+			Channel[] result = new Channel[channelNames.length];
+			for(int i = 0; i < channelNames.length; i++)
+				result[i] = get(channelNames[i]);
+			new ChannelPipeline(ChannelPipeline.Operation.ATTACH, connection, result, options.channelRequestWindow, listener).start();
+			return result;
+		}
+
+		/**
+		 * Detach from each of the named channels that exists. Detach requests
+		 * for all the channels are made without waiting for any individual
+		 * channel to become detached, subject to ClientOptions.channelRequestWindow.
+		 * @param channelNames the names of the channels
+		 * @throws AblyException if the connection is not in a state that
+		 * permits detachment
+		 */
+		public void detach(String... channelNames) throws AblyException {
+			detach(channelNames, null);
+		}
+
+		/**
+		 * Detach from each of the named channels that exists, with up to
+		 * ClientOptions.channelRequestWindow detach requests awaiting
+		 * a response at any time.
+		 * @param channelNames the names of the channels
+		 * @param listener a listener to be notified of the outcome for each
+		 * channel, and when all are complete; may be null
+		 * @throws AblyException if the connection is not in a state that
+		 * permits detachment
+		 */
+		public void detach(String[] channelNames, ChannelProgressListener listener) throws AblyException {
+			checkActive();
+			ArrayList<Channel> existing = new ArrayList<Channel>(channelNames.length);
+			for(String channelName : channelNames) {
+				Channel channel = super.get(channelName);
+				if(channel != null)
+					existing.add(channel);
+			}
+			new ChannelPipeline(ChannelPipeline.Operation.DETACH, connection, existing.toArray(new Channel[existing.size()]), options.channelRequestWindow, listener).start();
+		}
+
+		/**
+		 * Internal: on (re)connection, send the deferred attach requests of
+		 * attaching channels, and the sync requests of attached channels,
+		 * with up to ClientOptions.channelRequestWindow attach requests
+		 * awaiting a response at any time.
+		 */
+		public void setConnected() {
+			ArrayList<Channel> active = new ArrayList<Channel>();
+			for(Channel channel : values()) {
+				ChannelState state = channel.state;
+				if(state == ChannelState.attaching || state == ChannelState.attached)
+					active.add(channel);
+			}
+			new ChannelPipeline(ChannelPipeline.Operation.REATTACH, connection, active.toArray(new Channel[active.size()]), options.channelRequestWindow, options.channelRecoveryListener).start();
+		}
+
+		private void checkActive() throws AblyException {
+			ConnectionManager connectionManager = connection.connectionManager;
+			if(!connectionManager.isActive())
+				throw new AblyException(connectionManager.getStateErrorInfo());
+		}
+
 		/**
 		 * Get the named channel and set the given options, creating it
 		 * if it does not already exist.
@@ -117,8 +215,7 @@ public class AblyRealtime extends AblyRest {
 
 		public void onChannelMessage(ITransport transport, ProtocolMessage msg) {
 			String channelName = msg.channel;
-			Channel channel;
-			synchronized(this) { channel = channels.get(channelName); }
+			Channel channel = super.get(channelName);
 			if(channel == null) {
 				Log.e(TAG, "Received channel message for non-existent channel");
 				return;
@@ -5,6 +5,7 @@ import io.ably.http.PaginatedQuery;
 import io.ably.http.Http.BodyHandler;
 import io.ably.transport.ConnectionManager;
 import io.ably.transport.ConnectionManager.QueuedMessage;
+import io.ably.transport.QueueLimiter;
 import io.ably.types.AblyException;
 import io.ably.types.ChannelOptions;
 import io.ably.types.ErrorInfo;
@@ -18,10 +19,11 @@ import io.ably.types.ProtocolMessage.Action;
 import io.ably.types.ProtocolMessage.Flag;
 import io.ably.util.EventEmitter;
 import io.ably.util.Log;
+import io.ably.util.SerialExecutor;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class representing a Channel belonging to this application.
@@ -69,15 +71,20 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	 * internal
 	 *
 	 */
-	private void setState(ChannelState newState, ErrorInfo reason) {
+	private void setState(final ChannelState newState, final ErrorInfo reason) {
 		Log.v(TAG, "setState(): channel = " + name + "; setting " + newState);
 		synchronized(this) {
 			this.state = newState;
 			this.reason = reason;
 		}
 
-		/* broadcast state change */
-		emit(newState, reason);
+		/* broadcast state change, in order with received messages */
+		dispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				emit(newState, reason);
+			}
+		});
 	}
 
 	/************************************
@@ -107,14 +114,17 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		if(!connectionManager.isActive())
 			throw new AblyException(connectionManager.getStateErrorInfo());
 
-		/* send attach request and pending state */
+		/* set pending state and send attach request; if not yet connected,
+		 * the request is sent, together with those for other channels,
+		 * when the connection becomes connected */
+		setState(ChannelState.attaching, null);
+		if(connectionManager.isConnected())
+			sendAttach();
+	}
+
+	private void sendAttach() throws AblyException {
 		ProtocolMessage attachMessage = new ProtocolMessage(Action.ATTACH, this.name);
-		try {
-			setState(ChannelState.attaching, null);
-			connectionManager.send(attachMessage, true, null);
-		} catch(AblyException e) {
-			throw e;
-		}
+		ably.connection.connectionManager.send(attachMessage, true, null);
 	}
 
 	/**
@@ -198,17 +208,37 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		presence.setDetached(reason);
 	}
 
-	public void setConnected() {
-		if(state == ChannelState.attached) {
-			try {
-				sync();
-			} catch (AblyException e) {
-				Log.e(TAG, "setConnected(): Unable to sync; channel = " + name, e);
-			}
+	/**
+	 * Internal: on (re)connection, send the attach request for a channel
+	 * that is attaching, or the sync request for a channel that is attached.
+	 * @return true if an attach request was sent, and a response is awaited
+	 * @throws AblyException
+	 */
+	boolean reattach() throws AblyException {
+		ChannelState state;
+		synchronized(this) { state = this.state; }
+		switch(state) {
+		case attaching:
+			sendAttach();
+			return true;
+		case attached:
+			sync();
+			return false;
+		default:
+			return false;
 		}
 	}
 
-	public void setSuspended(ErrorInfo reason) {
+	public void setSuspended(final ErrorInfo reason) {
+		dispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				setSuspendedImpl(reason);
+			}
+		});
+	}
+
+	private void setSuspendedImpl(ErrorInfo reason) {
 		Log.v(TAG, "setSuspended(); channel = " + name);
 		setState(ChannelState.detached, reason);
 		failQueuedMessages(reason);		
@@ -233,6 +263,16 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		public void onMessage(Message[] messages);
 	}
 
+	/**
+	 * An interface whereby a client maybe notified of messages on a channel
+	 * one message at a time. Messages are delivered to a SingleMessageListener
+	 * without allocating an array for each message; and the id of each message
+	 * is only constructed if requested with Message.getId().
+	 */
+	public interface SingleMessageListener {
+		public void onMessage(Message message);
+	}
+
 	/**
 	 * Subscribe for messages on this channel. This implicitly attaches the channel if
 	 * not already attached.
@@ -263,7 +303,7 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	 */
 	public synchronized void subscribe(String name, MessageListener listener) throws AblyException {
 		Log.v(TAG, "subscribe(); channel = " + this.name + "; event = " + name);
-		subscribeImpl(name, listener);
+		subscribeImpl(name, new MessageListenerAdapter(listener));
 		attach();
 	}
 
@@ -274,7 +314,7 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	 */
 	public synchronized void unsubscribe(String name, MessageListener listener) {
 		Log.v(TAG, "unsubscribe(); channel = " + this.name + "; event = " + name);
-		unsubscribeImpl(name, listener);
+		unsubscribeImpl(name, new MessageListenerAdapter(listener));
 	}
 
 	/**
@@ -286,8 +326,9 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	 */
 	public synchronized void subscribe(String[] names, MessageListener listener) throws AblyException {
 		Log.v(TAG, "subscribe(); channel = " + this.name + "; (multiple events)");
+		MessageListenerAdapter adapter = new MessageListenerAdapter(listener);
 		for(String name : names)
-			subscribeImpl(name, listener);
+			subscribeImpl(name, adapter);
 		attach();
 	}
 
@@ -298,6 +339,77 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	 */
 	public synchronized void unsubscribe(String[] names, MessageListener listener) {
 		Log.v(TAG, "unsubscribe(); channel = " + this.name + "; (multiple events)");
+		for(String name : names)
+			unsubscribeImpl(name, new MessageListenerAdapter(listener));
+	}
+
+	/**
+	 * Subscribe for messages on this channel, delivered one at a time.
+	 * This implicitly attaches the channel if not already attached.
+	 * @param listener: the SingleMessageListener
+	 * @throws AblyException
+	 */
+	public synchronized void subscribeSingle(SingleMessageListener listener) throws AblyException {
+		Log.v(TAG, "subscribeSingle(); channel = " + this.name);
+		messageListeners.add(listener);
+		attach();
+	}
+
+	/**
+	 * Unsubscribe a previously subscribed listener from this channel.
+	 * @param listener: the previously subscribed listener.
+	 */
+	public synchronized void unsubscribeSingle(SingleMessageListener listener) {
+		Log.v(TAG, "unsubscribeSingle(); channel = " + this.name);
+		messageListeners.remove(listener);
+	}
+
+	/**
+	 * Subscribe for messages with a specific event name on this channel,
+	 * delivered one at a time. This implicitly attaches the channel if
+	 * not already attached.
+	 * @param name: the event name
+	 * @param listener: the SingleMessageListener
+	 * @throws AblyException
+	 */
+	public synchronized void subscribeSingle(String name, SingleMessageListener listener) throws AblyException {
+		Log.v(TAG, "subscribeSingle(); channel = " + this.name + "; event = " + name);
+		subscribeImpl(name, listener);
+		attach();
+	}
+
+	/**
+	 * Unsubscribe a previously subscribed event listener from this channel.
+	 * @param name: the event name
+	 * @param listener: the previously subscribed listener.
+	 */
+	public synchronized void unsubscribeSingle(String name, SingleMessageListener listener) {
+		Log.v(TAG, "unsubscribeSingle(); channel = " + this.name + "; event = " + name);
+		unsubscribeImpl(name, listener);
+	}
+
+	/**
+	 * Subscribe for messages with an array of event names on this channel,
+	 * delivered one at a time. This implicitly attaches the channel if
+	 * not already attached.
+	 * @param names: the event names
+	 * @param listener: the SingleMessageListener
+	 * @throws AblyException
+	 */
+	public synchronized void subscribeSingle(String[] names, SingleMessageListener listener) throws AblyException {
+		Log.v(TAG, "subscribeSingle(); channel = " + this.name + "; (multiple events)");
+		for(String name : names)
+			subscribeImpl(name, listener);
+		attach();
+	}
+
+	/**
+	 * Unsubscribe a previously subscribed event listener from this channel.
+	 * @param names: the event names
+	 * @param listener: the previously subscribed listener.
+	 */
+	public synchronized void unsubscribeSingle(String[] names, SingleMessageListener listener) {
+		Log.v(TAG, "unsubscribeSingle(); channel = " + this.name + "; (multiple events)");
 		for(String name : names)
 			unsubscribeImpl(name, listener);
 	}
@@ -309,24 +421,35 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	private void onMessage(ProtocolMessage message) {
 		Log.v(TAG, "onMessage(); channel = " + name);
 		Message[] messages = message.messages;
+		ChannelOptions options = this.options;
+		boolean decodeOnAccess = (options != null && options.decodeOnAccess);
 		for(int i = 0; i < messages.length; i++) {
 			Message msg = messages[i];
-			try {
-				msg.decode(options);
-			} catch(AblyException e) {
-				Log.e(TAG, "Unexpected exception decrypting message", e);
+			if(decodeOnAccess) {
+				msg.decodeOnAccess(options);
+			} else {
+				try {
+					msg.decode(options);
+				} catch(AblyException e) {
+					Log.e(TAG, "Unexpected exception decrypting message", e);
+				}
 			}
-			/* populate fields derived from protocol message */
+			/* populate fields derived from protocol message; the id
+			 * is only constructed if requested */
 			if(msg.connectionId == null) msg.connectionId = message.connectionId;
 			if(msg.timestamp == 0) msg.timestamp = message.timestamp;
-			if(msg.id == null) msg.id = message.id + ':' + i;
+			if(msg.id == null) msg.setParentId(message.id, i);
 			/* broadcast */
-			Message[] singleMessage = new Message[] {msg};
-			MessageMulticaster listeners = eventListeners.get(msg.name);
+			SingleMessageMulticaster listeners = eventListeners.get(msg.name);
 			if(listeners != null)
-				listeners.onMessage(singleMessage);
+				listeners.onMessage(msg);
+			messageListeners.onMessage(msg);
+		}
+		if(!this.listeners.isEmpty()) {
+			for(Message msg : messages)
+				msg.getId();
+			this.listeners.onMessage(messages);
 		}
-		this.listeners.onMessage(message.messages);
 	}
 
 	private void onPresence(ProtocolMessage message, String syncChannelSerial) {
@@ -354,7 +477,9 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	}
 
 	private MessageMulticaster listeners = new MessageMulticaster();
-	private HashMap<String, MessageMulticaster> eventListeners = new HashMap<String, MessageMulticaster>();
+	private SingleMessageMulticaster messageListeners = new SingleMessageMulticaster();
+	/* read without locking when messages are delivered; modified only with the channel locked */
+	private final ConcurrentHashMap<String, SingleMessageMulticaster> eventListeners = new ConcurrentHashMap<String, SingleMessageMulticaster>();
 
 	private static class MessageMulticaster extends io.ably.util.Multicaster<MessageListener> implements MessageListener {
 		@Override
@@ -366,17 +491,52 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		}
 	}
 
-	private void subscribeImpl(String name, MessageListener listener) throws AblyException {
-		MessageMulticaster listeners = eventListeners.get(name);
+	private static class SingleMessageMulticaster extends io.ably.util.Multicaster<SingleMessageListener> implements SingleMessageListener {
+		@Override
+		public void onMessage(Message message) {
+			for(SingleMessageListener member : members)
+				try {
+					member.onMessage(message);
+				} catch(Throwable t) {}
+		}
+	}
+
+	/**
+	 * Delivers single messages to a MessageListener subscribed for specific
+	 * event names; equal to any other adapter for the same listener, so that
+	 * the listener can be unsubscribed
+	 */
+	private static class MessageListenerAdapter implements SingleMessageListener {
+		MessageListenerAdapter(MessageListener listener) { this.listener = listener; }
+
+		@Override
+		public void onMessage(Message message) {
+			message.getId();
+			listener.onMessage(new Message[] {message});
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof MessageListenerAdapter) && ((MessageListenerAdapter)obj).listener.equals(listener);
+		}
+
+		@Override
+		public int hashCode() { return listener.hashCode(); }
+
+		private final MessageListener listener;
+	}
+
+	private void subscribeImpl(String name, SingleMessageListener listener) throws AblyException {
+		SingleMessageMulticaster listeners = eventListeners.get(name);
 		if(listeners == null) {
-			listeners = new MessageMulticaster();
+			listeners = new SingleMessageMulticaster();
 			eventListeners.put(name, listeners);
 		}
 		listeners.add(listener);
 	}
 
-	private void unsubscribeImpl(String name, MessageListener listener) {
-		MessageMulticaster listeners = eventListeners.get(name);
+	private void unsubscribeImpl(String name, SingleMessageListener listener) {
+		SingleMessageMulticaster listeners = eventListeners.get(name);
 		if(listeners != null) {
 			listeners.remove(listener);
 			if(listeners.isEmpty())
@@ -429,7 +589,19 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		case initialised:
 		case attaching:
 			/* queue the message for later send */
-			queuedMessages.add(new QueuedMessage(msg, listener));
+			QueuedMessage queued = new QueuedMessage(msg, listener);
+			queueLimiter.acquire(queued, (options == null) ? null : options.queueLimits);
+			synchronized(queuedMessages) {
+				/* the queue may have been flushed while waiting for space */
+				if(state == ChannelState.initialised || state == ChannelState.attaching) {
+					queuedMessages.add(queued);
+					break;
+				}
+			}
+			queueLimiter.release(queued);
+			if(state != ChannelState.attached)
+				throw new AblyException(new ErrorInfo("Unable to publish in detached or failed state", 400, 40000));
+			ably.connection.connectionManager.send(msg, ably.options.queueMessages, listener);
 			break;
 		case detaching:
 		case detached:
@@ -441,6 +613,14 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		}
 	}
 
+	/**
+	 * Get the limiter accounting for messages queued on this
+	 * channel awaiting attachment
+	 */
+	public QueueLimiter getQueueLimiter() {
+		return queueLimiter;
+	}
+
 	/***
 	 * internal
 	 *
@@ -449,30 +629,40 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		Log.v(TAG, "sendQueuedMessages()");
 		boolean queueMessages = ably.options.queueMessages;
 		ConnectionManager connectionManager = ably.connection.connectionManager;
-		for(QueuedMessage msg : queuedMessages)
+		for(QueuedMessage msg : drainQueuedMessages())
 			try {
-				connectionManager.send(msg.msg, queueMessages, msg.listener);
+				connectionManager.send(msg.msg, queueMessages, msg.listener, false);
 			} catch(AblyException e) {
 				Log.e(TAG, "sendQueuedMessages(): Unexpected exception sending message", e);
 				if(msg.listener != null)
 					msg.listener.onError(e.errorInfo);
 			}
-		queuedMessages.clear();
 	}
 
 	private void failQueuedMessages(ErrorInfo reason) {
 		Log.v(TAG, "failQueuedMessages()");
-		for(QueuedMessage msg : queuedMessages)
+		for(QueuedMessage msg : drainQueuedMessages())
 			if(msg.listener != null)
 				try {
 					msg.listener.onError(reason);
 				} catch(Throwable t) {
 					Log.e(TAG, "failQueuedMessages(): Unexpected exception calling listener", t);
 				}
-		queuedMessages.clear();
 	}
 
-	private List<QueuedMessage> queuedMessages;
+	private QueuedMessage[] drainQueuedMessages() {
+		QueuedMessage[] result;
+		synchronized(queuedMessages) {
+			result = queuedMessages.toArray(new QueuedMessage[queuedMessages.size()]);
+			queuedMessages.clear();
+		}
+		for(QueuedMessage msg : result)
+			queueLimiter.release(msg);
+		return result;
+	}
+
+	private final List<QueuedMessage> queuedMessages;
+	private final QueueLimiter queueLimiter;
 
 	/************************************
 	 * Channel history 
@@ -498,6 +688,18 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 
 	public void setOptions(ChannelOptions options) throws AblyException {
 		this.options = options;
+		if(options != null && options.dispatchExecutor != null)
+			dispatcher.setExecutor(options.dispatchExecutor);
+	}
+
+	/**
+	 * Get the executor that makes the callbacks to listeners for this
+	 * channel, which reports the number of queued callbacks and the
+	 * delay between receipt of a message and its dispatch
+	 * (see ClientOptions.dispatchExecutor).
+	 */
+	public SerialExecutor getDispatcher() {
+		return dispatcher;
 	}
 
 	/************************************
@@ -511,11 +713,30 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 		this.name = name;
 		this.basePath = "/channels/" + HttpUtils.encodeURIComponent(name);
 		this.presence = new Presence(this);
+		this.dispatcher = new SerialExecutor(name, ably.options.dispatchExecutor, ably.options.dispatchQueueCapacity, ably.options.dispatchOverflowPolicy);
 		state = ChannelState.initialised;
 		queuedMessages = new ArrayList<QueuedMessage>();
+		queueLimiter = new QueueLimiter(name, new QueueLimiter.Queue() {
+			@Override
+			public QueuedMessage removeOldest() {
+				synchronized(queuedMessages) {
+					return queuedMessages.isEmpty() ? null : queuedMessages.remove(0);
+				}
+			}
+		});
+	}
+
+	void onChannelMessage(final ProtocolMessage msg) {
+		/* only message deliveries may be dropped if the queue overflows */
+		dispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				onChannelMessageImpl(msg);
+			}
+		}, msg.action == Action.MESSAGE);
 	}
 
-	void onChannelMessage(ProtocolMessage msg) {
+	private void onChannelMessageImpl(ProtocolMessage msg) {
 		switch(msg.action) {
 		case ATTACHED:
 			setAttached(msg);
@@ -545,4 +766,5 @@ public class Channel extends EventEmitter<ChannelState, ChannelStateListener> {
 	final String basePath;
 	ChannelOptions options;
 	String syncChannelSerial;
+	private final SerialExecutor dispatcher;
 }
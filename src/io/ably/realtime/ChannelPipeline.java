@@ -0,0 +1,219 @@
+package io.ably.realtime;
+
+import io.ably.types.AblyException;
+import io.ably.types.ErrorInfo;
+import io.ably.util.Log;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ChannelPipeline: internal
+ * Performs an operation on a set of channels, with up to a given number
+ * of channel requests awaiting a response at any time. As the request for
+ * each channel completes, the request for the next is sent; so the time taken
+ * is bounded by the round trip time and the window, rather than by the
+ * number of channels times the round trip time.
+ * If the connection is lost, the pipeline is abandoned: outstanding requests,
+ * and the requests for the channels not yet reached, complete with the
+ * reason for the loss of the connection. Channels still attaching are
+ * attached by the pipeline started on reconnection.
+ */
+class ChannelPipeline implements ConnectionStateListener {
+
+	private static final String TAG = ChannelPipeline.class.getName();
+
+	enum Operation {
+		/* attach each channel, completing when attached */
+		ATTACH,
+		/* detach each channel, completing when detached */
+		DETACH,
+		/* on (re)connection: send deferred attach requests for attaching
+		 * channels, completing when attached; and sync attached channels,
+		 * completing when the sync request is sent */
+		REATTACH
+	}
+
+	ChannelPipeline(Operation operation, Connection connection, Channel[] channels, int window, ChannelProgressListener listener) {
+		this.operation = operation;
+		this.connection = connection;
+		this.channels = channels;
+		this.window = (window > 0) ? window : Integer.MAX_VALUE;
+		this.listener = listener;
+	}
+
+	void start() {
+		Log.v(TAG, "start(); operation = " + operation + "; channels = " + channels.length);
+		if(channels.length == 0) {
+			if(listener != null)
+				listener.onComplete(0, 0);
+			return;
+		}
+		connection.on(this);
+		pump();
+	}
+
+	@Override
+	public void onConnectionStateChanged(ConnectionStateChange change) {
+		/* ignore a change that was superseded by reconnection before it was
+		 * dispatched; in particular, the loss of the connection that preceded
+		 * the reconnection on which a REATTACH pipeline is started */
+		if(connection.state == ConnectionState.connected)
+			return;
+		switch(change.current) {
+		case disconnected:
+		case suspended:
+		case closing:
+		case closed:
+		case failed:
+			abandon((change.reason != null) ? change.reason : Channel.REASON_NOT_ATTACHED);
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Complete the outstanding requests, and the requests for the
+	 * remaining channels, with the given reason
+	 */
+	private void abandon(ErrorInfo reason) {
+		Log.v(TAG, "abandon(); operation = " + operation + "; reason = " + reason);
+		abandonReason = reason;
+		for(Request request : outstanding.toArray(new Request[0]))
+			request.complete(reason);
+		pump();
+	}
+
+	/**
+	 * Send requests for as many channels as the window allows. Requests
+	 * may complete synchronously, so this does not recurse; a call made
+	 * while another is in progress is taken up by the call in progress.
+	 */
+	private void pump() {
+		if(pumping.getAndIncrement() != 0)
+			return;
+		do {
+			while(next < channels.length && inFlight.get() < window) {
+				inFlight.incrementAndGet();
+				Channel channel = channels[next++];
+				ErrorInfo reason = abandonReason;
+				if(reason != null)
+					onRequestComplete(channel, reason);
+				else
+					new Request(channel).start();
+			}
+		} while(pumping.decrementAndGet() != 0);
+	}
+
+	private void onRequestComplete(Channel channel, ErrorInfo reason) {
+		if(reason != null)
+			failed.incrementAndGet();
+		int done = completed.incrementAndGet();
+		inFlight.decrementAndGet();
+		if(done == channels.length)
+			connection.off(this);
+		if(listener != null) {
+			try {
+				listener.onChannelProgress(channel, reason, done, channels.length);
+				if(done == channels.length)
+					listener.onComplete(done - failed.get(), failed.get());
+			} catch(Throwable t) {
+				Log.e(TAG, "Unexpected exception calling ChannelProgressListener", t);
+			}
+		}
+		pump();
+	}
+
+	/**
+	 * The request for a single channel; completes on the first
+	 * state change that indicates the outcome for that channel
+	 */
+	private class Request implements ChannelStateListener {
+		Request(Channel channel) { this.channel = channel; }
+
+		void start() {
+			outstanding.add(this);
+			ErrorInfo abandonReason = ChannelPipeline.this.abandonReason;
+			if(abandonReason != null) {
+				/* abandoned concurrently with this request being started */
+				complete(abandonReason);
+				return;
+			}
+			channel.on(this);
+			try {
+				switch(operation) {
+				case ATTACH:
+					channel.attach();
+					break;
+				case DETACH:
+					channel.detach();
+					break;
+				case REATTACH:
+					if(!channel.reattach()) {
+						complete(null);
+						return;
+					}
+					break;
+				}
+			} catch(AblyException e) {
+				complete(e.errorInfo);
+				return;
+			}
+			ChannelState state;
+			ErrorInfo reason;
+			synchronized(channel) {
+				state = channel.state;
+				reason = channel.reason;
+			}
+			onChannelStateChanged(state, reason);
+		}
+
+		@Override
+		public void onChannelStateChanged(ChannelState state, ErrorInfo reason) {
+			switch(state) {
+			case attached:
+				if(operation != Operation.DETACH)
+					complete(null);
+				break;
+			case initialised:
+			case detached:
+				if(operation == Operation.DETACH)
+					complete(null);
+				else
+					complete((reason != null) ? reason : Channel.REASON_NOT_ATTACHED);
+				break;
+			case failed:
+				complete((reason != null) ? reason : Channel.REASON_NOT_ATTACHED);
+				break;
+			default:
+			}
+		}
+
+		private void complete(ErrorInfo reason) {
+			if(done.compareAndSet(false, true)) {
+				channel.off(this);
+				outstanding.remove(this);
+				onRequestComplete(channel, reason);
+			}
+		}
+
+		private final Channel channel;
+		private final AtomicBoolean done = new AtomicBoolean();
+	}
+
+	private final Operation operation;
+	private final Connection connection;
+	private final Channel[] channels;
+	private final int window;
+	private final ChannelProgressListener listener;
+	private final AtomicInteger pumping = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final Set<Request> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+	private volatile ErrorInfo abandonReason;
+	private int next;
+}
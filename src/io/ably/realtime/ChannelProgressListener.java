@@ -0,0 +1,27 @@
+package io.ably.realtime;
+
+import io.ably.types.ErrorInfo;
+
+/**
+ * An interface whereby a client may be notified of the progress
+ * of an operation on multiple channels; either a bulk attach or
+ * detach, or the reattachment of channels when the connection
+ * becomes connected.
+ */
+public interface ChannelProgressListener {
+	/**
+	 * Called when the operation on one channel completes.
+	 * @param channel: the channel
+	 * @param reason: the reason for failure, or null if the operation succeeded
+	 * @param completed: the number of channels for which the operation is complete
+	 * @param total: the number of channels in the operation
+	 */
+	public void onChannelProgress(Channel channel, ErrorInfo reason, int completed, int total);
+
+	/**
+	 * Called when the operation on all channels is complete.
+	 * @param succeeded: the number of channels for which the operation succeeded
+	 * @param failed: the number of channels for which the operation failed
+	 */
+	public void onComplete(int succeeded, int failed);
+}
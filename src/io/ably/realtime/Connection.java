@@ -4,6 +4,7 @@ import io.ably.realtime.ConnectionStateListener.ConnectionStateChange;
 import io.ably.transport.ConnectionManager;
 import io.ably.types.ErrorInfo;
 import io.ably.util.EventEmitter;
+import io.ably.util.SerialExecutor;
 
 /**
  * A class representing the connection associated with an AblyRealtime instance.
@@ -70,13 +71,27 @@ public class Connection extends EventEmitter<ConnectionState, ConnectionStateLis
 	Connection(AblyRealtime ably) {
 		this.ably = ably;
 		this.state = ConnectionState.initialized;
+		this.dispatcher = new SerialExecutor("connection", ably.options.dispatchExecutor, ably.options.dispatchQueueCapacity, ably.options.dispatchOverflowPolicy);
 		this.connectionManager = new ConnectionManager(ably, this);
 	}
 
-	public void onConnectionStateChange(ConnectionStateChange stateChange) {
+	public void onConnectionStateChange(final ConnectionStateChange stateChange) {
 		state = stateChange.current;
 		reason = stateChange.reason;
-		emit(state, stateChange);
+		dispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				emit(stateChange.current, stateChange);
+			}
+		});
+	}
+
+	/**
+	 * Get the executor that makes the callbacks to connection state listeners
+	 * (see ClientOptions.dispatchExecutor).
+	 */
+	public SerialExecutor getDispatcher() {
+		return dispatcher;
 	}
 
 	@Override
@@ -86,5 +101,6 @@ public class Connection extends EventEmitter<ConnectionState, ConnectionStateLis
 
 	final AblyRealtime ably;
 	public final ConnectionManager connectionManager;
+	private final SerialExecutor dispatcher;
 
 }
@@ -13,12 +13,18 @@ import io.ably.types.PresenceSerializer;
 import io.ably.types.ProtocolMessage;
 import io.ably.util.Log;
 
-import java.util.Collection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.RandomAccess;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 /**
  * A class that provides access to presence operations and state for the
@@ -35,9 +41,8 @@ public class Presence {
 	 * @return: the current present members.
 	 * @throws AblyException 
 	 */
-	public synchronized PresenceMessage[] get()  {
-		Collection<PresenceMessage> values = presence.values();
-		return values.toArray(new PresenceMessage[values.size()]);
+	public PresenceMessage[] get()  {
+		return presence.toArray();
 	}
 
 	/**
@@ -45,9 +50,22 @@ public class Presence {
 	 * @return: the current present members.
 	 * @throws AblyException 
 	 */
-	public synchronized PresenceMessage[] get(boolean wait) throws InterruptedException {
-		Collection<PresenceMessage> values = presence.values(wait);
-		return values.toArray(new PresenceMessage[values.size()]);
+	public PresenceMessage[] get(boolean wait) throws InterruptedException {
+		if(wait) presence.awaitSync();
+		return presence.toArray();
+	}
+
+	/**
+	 * Get the presence state for this Channel as an immutable list. The
+	 * list is shared by all callers until the presence set next changes,
+	 * so repeated calls do not copy the set.
+	 * @param wait: if true, wait for any sync in progress to complete
+	 * @return: the current present members.
+	 * @throws InterruptedException
+	 */
+	public List<PresenceMessage> getMembers(boolean wait) throws InterruptedException {
+		if(wait) presence.awaitSync();
+		return presence.values();
 	}
 
 	/**
@@ -56,9 +74,9 @@ public class Presence {
 	 * @return
 	 * @throws InterruptedException
 	 */
-	public synchronized PresenceMessage[] get(String clientId, boolean wait) throws InterruptedException {
-		Collection<PresenceMessage> values = presence.getClient(clientId, wait);
-		return values.toArray(new PresenceMessage[values.size()]);
+	public PresenceMessage[] get(String clientId, boolean wait) throws InterruptedException {
+		if(wait) presence.awaitSync();
+		return presence.getClient(clientId);
 	}
 
 	/**
@@ -87,6 +105,80 @@ public class Presence {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * The effective changes made to the presence set by a presence message, or
+	 * by a page of a sync, after reconciliation with the existing members.
+	 * Messages that are superseded, or that restate a member's existing data,
+	 * do not appear.
+	 */
+	public static class PresenceDiff {
+		/**
+		 * Members that have joined the set
+		 */
+		public final PresenceMessage[] joined;
+
+		/**
+		 * Members whose data has changed
+		 */
+		public final PresenceMessage[] updated;
+
+		/**
+		 * Members that have left the set; when a sync completes, these
+		 * include the members that were not seen during the sync
+		 */
+		public final PresenceMessage[] left;
+
+		/**
+		 * True if this completes a sync
+		 */
+		public final boolean syncComplete;
+
+		/**
+		 * If a sync has completed, an immutable snapshot of the members; otherwise null
+		 */
+		public final List<PresenceMessage> members;
+
+		PresenceDiff(PresenceMessage[] joined, PresenceMessage[] updated, PresenceMessage[] left, boolean syncComplete, List<PresenceMessage> members) {
+			this.joined = joined;
+			this.updated = updated;
+			this.left = left;
+			this.syncComplete = syncComplete;
+			this.members = members;
+		}
+	}
+
+	/**
+	 * An interface allowing a listener to be notified of the changes made
+	 * to the presence set by each presence message, or each page of a sync
+	 */
+	public interface PresenceDiffListener {
+		/**
+		 * Called with the changes resulting from a presence message; not
+		 * called if there are no changes, unless a sync has completed
+		 * @param diff
+		 */
+		public void onPresenceDiff(PresenceDiff diff);
+	}
+
+	/**
+	 * Subscribe to changes to the presence set of the associated Channel.
+	 * This implicitly attaches the Channel if it is not already attached.
+	 * @param listener: the listener to be notified of changes.
+	 * @throws AblyException
+	 */
+	public void subscribeDiffs(PresenceDiffListener listener) throws AblyException {
+		diffListeners.add(listener);
+		channel.attach();
+	}
+
+	/**
+	 * Unsubscribe a previously subscribed presence diff listener for this channel.
+	 * @param listener: the previously subscribed listener.
+	 */
+	public void unsubscribeDiffs(PresenceDiffListener listener) {
+		diffListeners.remove(listener);
+	}
+
 	/***
 	 * internal
 	 *
@@ -100,26 +192,54 @@ public class Presence {
 			if(syncCursor.length() > 1)
 				presence.startSync();
 		}
-		for(PresenceMessage update : messages) {
+		/* only collect changes if someone is listening for them */
+		DiffBuilder diff = diffListeners.isEmpty() ? null : new DiffBuilder();
+
+		/* superseded messages are not broadcast; the remainder are
+		 * collected only once a message has been found to be superseded */
+		broadcast &= !listeners.isEmpty();
+		ArrayList<PresenceMessage> applied = null;
+		for(int i = 0; i < messages.length; i++) {
+			PresenceMessage update = messages[i];
+			boolean isApplied = false;
 			switch(update.action) {
 			case ENTER:
 			case UPDATE:
 				update = (PresenceMessage)update.clone();
 				update.action = PresenceMessage.Action.PRESENT;
 			case PRESENT:
-				broadcast &= presence.put(update);
+				isApplied = presence.put(update, diff);
 				break;
 			case LEAVE:
-				broadcast &= presence.remove(update);
+				isApplied = presence.remove(update, diff);
 				break;
+			default:
+				isApplied = true;
+			}
+			if(broadcast) {
+				if(!isApplied && applied == null) {
+					applied = new ArrayList<PresenceMessage>(messages.length);
+					for(int j = 0; j < i; j++)
+						applied.add(messages[j]);
+				} else if(isApplied && applied != null) {
+					applied.add(messages[i]);
+				}
 			}
 		}
-		/* if this is the last message in a sequence of sync updates, end the sync */
-		if(syncChannelSerial == null || syncCursor.length() <= 1)
-			presence.endSync();
-
-		if(broadcast)
-			broadcastPresence(messages);
+		/* if this is the last message in a sequence of sync updates, end the sync;
+		 * a presence message received during a sync does not end it */
+		boolean syncComplete = (syncChannelSerial != null && syncCursor.length() <= 1);
+		if(syncComplete)
+			presence.endSync(diff);
+
+		if(broadcast) {
+			if(applied == null)
+				broadcastPresence(messages);
+			else if(!applied.isEmpty())
+				broadcastPresence(applied.toArray(new PresenceMessage[applied.size()]));
+		}
+		if(diff != null && (syncComplete || !diff.isEmpty()))
+			diffListeners.onPresenceDiff(diff.build(syncComplete ? presence.values() : null));
 	}
  
 	private void broadcastPresence(PresenceMessage[] messages) {
@@ -127,6 +247,33 @@ public class Presence {
 	}
 
 	private final Multicaster listeners = new Multicaster();
+	private final DiffMulticaster diffListeners = new DiffMulticaster();
+
+	private static class DiffMulticaster extends io.ably.util.Multicaster<PresenceDiffListener> implements PresenceDiffListener {
+		@Override
+		public void onPresenceDiff(PresenceDiff diff) {
+			for(PresenceDiffListener member : members)
+				try {
+					member.onPresenceDiff(diff);
+				} catch(Throwable t) {}
+		}
+	}
+
+	/**
+	 * Collects the changes made to the presence set by a single presence message
+	 */
+	private static class DiffBuilder {
+		private final ArrayList<PresenceMessage> joined = new ArrayList<PresenceMessage>();
+		private final ArrayList<PresenceMessage> updated = new ArrayList<PresenceMessage>();
+		private final ArrayList<PresenceMessage> left = new ArrayList<PresenceMessage>();
+		boolean isEmpty() { return joined.isEmpty() && updated.isEmpty() && left.isEmpty(); }
+		PresenceDiff build(List<PresenceMessage> members) {
+			return new PresenceDiff(toArray(joined), toArray(updated), toArray(left), members != null, members);
+		}
+		private static PresenceMessage[] toArray(ArrayList<PresenceMessage> list) {
+			return list.isEmpty() ? EMPTY : list.toArray(new PresenceMessage[list.size()]);
+		}
+	}
 
 	private static class Multicaster extends io.ably.util.Multicaster<PresenceListener> implements PresenceListener {
 		@Override
@@ -337,7 +484,7 @@ public class Presence {
 			listener = mListener.isEmpty() ? null : mListener;
 		}
 		try {
-			connectionManager.send(message, queueMessages, listener);
+			connectionManager.send(message, queueMessages, listener, false);
 		} catch(AblyException e) {
 			Log.e(TAG, "sendQueuedMessages(): Unexpected exception sending message", e);
 			if(listener != null)
@@ -388,88 +535,118 @@ public class Presence {
 	 * sync messages from the service. Since sync messages can be out-of-order -
 	 * eg an ENTER sync event being received after that member has in fact left -
 	 * this map keeps "witness" entries, with ABSENT Action, to remember the
-	 * fact that a LEAVE event has been seen for a member. These entries are
+	 * fact that a LEAVE event has been seen during a sync. These entries are
 	 * cleared once the last set of updates of a sync sequence have been received.
+	 * Witnesses are held separately from the present members, which are also
+	 * indexed by clientId.
+	 * The present members are also packed densely into fixed-size chunks, which
+	 * are shared with the immutable snapshot returned by reads of the whole set.
+	 * A change copies only a chunk that a snapshot refers to, and a read after a
+	 * change copies only the array of chunk references, so neither rebuilds the set.
+	 * Each member records the sync epoch in which it was last seen, and members
+	 * are kept in the order in which they were last seen; so the members not seen
+	 * during a sync are found at the head of the map, and ending a sync takes time
+	 * proportional to the number of members removed, not to the size of the set.
 	 *
 	 */
 	private class PresenceMap {
 		/**
-		 * Get the current presence state for a given member key
-		 * @param key
+		 * Get the current presence state for a given clientId
+		 * @param clientId
 		 * @return
 		 */
-		synchronized Collection<PresenceMessage> getClient(String clientId, boolean wait) throws InterruptedException {
-			Collection<PresenceMessage> result = new HashSet<PresenceMessage>();
-			for(Iterator<Map.Entry<String, PresenceMessage>> it = members.entrySet().iterator(); it.hasNext();) {
-				PresenceMessage entry = it.next().getValue();
-				if(entry.clientId.equals(clientId) && entry.action != PresenceMessage.Action.ABSENT) {
-					result.add(entry);
-				}
-			}
-			return result;
+		synchronized PresenceMessage[] getClient(String clientId) {
+			Map<String, PresenceMessage> clientMembers = membersByClientId.get(clientId);
+			if(clientMembers == null)
+				return EMPTY;
+			return clientMembers.values().toArray(new PresenceMessage[clientMembers.size()]);
 		}
 
 		/**
 		 * Add or update the presence state for a member
 		 * @param item
+		 * @param diff: if not null, collects the resulting changes
 		 * @return true if the given message represents a change;
 		 * false if the message is already superseded
 		 */
-		synchronized boolean put(PresenceMessage item) {
+		synchronized boolean put(PresenceMessage item, DiffBuilder diff) {
 			String key = memberKey(item);
-			/* we've seen this member, so do not remove it at the end of sync */
-			if(residualMembers != null)
-				residualMembers.remove(key);
 
 			/* compare the timestamp of the new item with any existing member (or ABSENT witness) */
-			PresenceMessage existingItem = members.get(key);
+			Member existing = members.get(key);
+			PresenceMessage existingItem = (existing != null) ? existing.message : witnesses.get(key);
 			if(existingItem != null && item.timestamp < existingItem.timestamp) {
-				/* no item supersedes a newer item with the same key */
+				/* no item supersedes a newer item with the same key; but
+				 * we've seen this member, so do not remove it at the end of sync */
+				if(existing != null)
+					touchMember(existing);
 				return false;
 			}
-			members.put(key, item);
+			witnesses.remove(key);
+			if(diff != null) {
+				if(existing == null)
+					diff.joined.add(item);
+				else if(!dataEquals(existing.message.data, item.data))
+					diff.updated.add(item);
+			}
+			addMember(key, item, existing);
 			return true;
 		}
 
 		/**
 		 * Get all members based on the current state (even if sync is in progress)
-		 * @return
+		 * @return an immutable list, shared until the set next changes
 		 */
-		synchronized Collection<PresenceMessage> values() {
-			try { return values(false); } catch (InterruptedException e) { return null; }
+		synchronized List<PresenceMessage> values() {
+			if(snapshot == null) {
+				snapshot = new Snapshot(Arrays.copyOf(chunks, (liveCount + CHUNK_SIZE - 1) >> CHUNK_BITS), liveCount);
+				Arrays.fill(chunkShared, true);
+			}
+			return snapshot;
 		}
 
 		/**
-		 * Get all members, optionally waiting if a sync is in progress.
-		 * @param wait
-		 * @return
-		 * @throws InterruptedException
+		 * Get all members based on the current state (even if sync is in progress)
+		 * @return a new array
 		 */
-		synchronized Collection<PresenceMessage> values(boolean wait) throws InterruptedException {
-			if(wait) {
-				while(syncInProgress) wait();
-			}
-			Set<PresenceMessage> result = new HashSet<PresenceMessage>();
-			result.addAll(members.values());
-			for(Iterator<PresenceMessage> it = result.iterator(); it.hasNext();) {
-				PresenceMessage entry = it.next();
-				if(entry.action == PresenceMessage.Action.ABSENT) {
-					it.remove();
-				}
-			}
+		synchronized PresenceMessage[] toArray() {
+			PresenceMessage[] result = new PresenceMessage[liveCount];
+			for(int i = 0; i < liveCount; i += CHUNK_SIZE)
+				System.arraycopy(chunks[i >> CHUNK_BITS], 0, result, i, Math.min(CHUNK_SIZE, liveCount - i));
 			return result;
 		}
 
+		/**
+		 * Wait until any sync in progress has completed
+		 * @throws InterruptedException
+		 */
+		synchronized void awaitSync() throws InterruptedException {
+			while(syncInProgress) wait();
+		}
+
 		/**
 		 * Remove a member.
 		 * @param item
+		 * @param diff: if not null, collects the resulting changes
 		 * @return
 		 */
-		synchronized boolean remove(PresenceMessage item) {
+		synchronized boolean remove(PresenceMessage item, DiffBuilder diff) {
 			String key = memberKey(item);
-			PresenceMessage existingItem = members.remove(key);
-			if(existingItem != null && existingItem.action == PresenceMessage.Action.ABSENT)
+			PresenceMessage witness = witnesses.get(key);
+			if(witness != null && item.timestamp <= witness.timestamp)
 				return false;
+			if(syncInProgress) {
+				/* remember the leave, so that an earlier PRESENT received
+				 * later in the sync does not reinstate the member */
+				PresenceMessage absent = (PresenceMessage)item.clone();
+				absent.action = PresenceMessage.Action.ABSENT;
+				witnesses.put(key, absent);
+			}
+			Member removed = removeMember(key);
+			if(removed == null)
+				return witness == null;
+			if(diff != null)
+				diff.left.add(item);
 			return true;
 		}
 
@@ -482,31 +659,34 @@ public class Presence {
 			Log.v(TAG, "startSync(); channel = " + channel.name + "; syncInProgress = " + syncInProgress);
 			/* we might be called multiple times while a sync is in progress */
 			if(!syncInProgress) {
-				residualMembers = new HashSet<String>(members.keySet());
+				++syncEpoch;
 				syncInProgress = true;
 			}
 		}
 
 		/**
 		 * Finish a sync sequence.
+		 * @param diff: if not null, collects the resulting changes
 		 */
-		synchronized void endSync() {
+		synchronized void endSync(DiffBuilder diff) {
 			Log.v(TAG, "endSync(); channel = " + channel.name + "; syncInProgress = " + syncInProgress);
 			if(syncInProgress) {
 				/* we can now strip out the ABSENT members, as we have
 				 * received all of the out-of-order sync messages */
-				for(Iterator<Map.Entry<String, PresenceMessage>> it = members.entrySet().iterator(); it.hasNext();) {
-					Map.Entry<String, PresenceMessage> entry = it.next();
-					if(entry.getValue().action == PresenceMessage.Action.ABSENT) {
-						it.remove();
-					}
-				}
+				witnesses.clear();
 				/* any members that were present at the start of the sync,
-				 * and have not been seen in sync, can be removed */
-				for(Iterator<String> it = residualMembers.iterator(); it.hasNext();) {
-					members.remove(it.next());
+				 * and have not been seen in sync, can be removed; these
+				 * are at the head of the map */
+				for(Iterator<Map.Entry<String, Member>> it = members.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<String, Member> entry = it.next();
+					Member member = entry.getValue();
+					if(member.epoch == syncEpoch)
+						break;
+					it.remove();
+					unindexMember(entry.getKey(), member);
+					if(diff != null)
+						diff.left.add(member.message);
 				}
-				residualMembers = null;
 	
 				/* finish, notifying any waiters */
 				syncInProgress = false;
@@ -523,12 +703,202 @@ public class Presence {
 			return message.connectionId + ':' + message.clientId;
 		}
 
+		private void addMember(String key, PresenceMessage item, Member existing) {
+			Member member;
+			if(existing != null) {
+				/* the lookup of the existing member has moved it to the tail */
+				member = existing;
+				member.message = item;
+				setLive(member.index, item);
+			} else {
+				member = new Member(item);
+				members.put(key, member);
+				addLive(member);
+			}
+			member.epoch = syncEpoch;
+			HashMap<String, PresenceMessage> clientMembers = membersByClientId.get(item.clientId);
+			if(clientMembers == null) {
+				clientMembers = new HashMap<String, PresenceMessage>(4);
+				membersByClientId.put(item.clientId, clientMembers);
+			}
+			clientMembers.put(key, item);
+		}
+
+		/**
+		 * Record that a member has been seen in the current sync; the
+		 * lookup of the member has already moved it to the tail of the map
+		 */
+		private void touchMember(Member member) {
+			member.epoch = syncEpoch;
+		}
+
+		private Member removeMember(String key) {
+			Member member = members.remove(key);
+			if(member != null)
+				unindexMember(key, member);
+			return member;
+		}
+
+		private void unindexMember(String key, Member member) {
+			String clientId = member.message.clientId;
+			HashMap<String, PresenceMessage> clientMembers = membersByClientId.get(clientId);
+			if(clientMembers != null) {
+				clientMembers.remove(key);
+				if(clientMembers.isEmpty())
+					membersByClientId.remove(clientId);
+			}
+			removeLive(member);
+		}
+
+		/**
+		 * Append a member to the dense array of present members
+		 */
+		private void addLive(Member member) {
+			int index = liveCount++;
+			if(index == liveMembers.length)
+				liveMembers = Arrays.copyOf(liveMembers, index * 2);
+			int chunk = index >> CHUNK_BITS;
+			if(chunk == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunk * 2);
+				chunkShared = Arrays.copyOf(chunkShared, chunk * 2);
+			}
+			if(chunks[chunk] == null) {
+				chunks[chunk] = new PresenceMessage[CHUNK_SIZE];
+				chunkShared[chunk] = false;
+			}
+			liveMembers[index] = member;
+			member.index = index;
+			setLive(index, member.message);
+		}
+
+		/**
+		 * Remove a member from the dense array of present members,
+		 * moving the last member into its place
+		 */
+		private void removeLive(Member member) {
+			int last = --liveCount;
+			if(member.index != last) {
+				Member moved = liveMembers[last];
+				moved.index = member.index;
+				liveMembers[member.index] = moved;
+				setLive(member.index, moved.message);
+			}
+			liveMembers[last] = null;
+			setLive(last, null);
+		}
+
+		private void setLive(int index, PresenceMessage item) {
+			int chunk = index >> CHUNK_BITS;
+			if(chunkShared[chunk]) {
+				chunks[chunk] = chunks[chunk].clone();
+				chunkShared[chunk] = false;
+			}
+			chunks[chunk][index & CHUNK_MASK] = item;
+			snapshot = null;
+		}
+
 		private boolean syncInProgress;
-		private Collection<String> residualMembers;
-		private final HashMap<String, PresenceMessage> members = new HashMap<String, PresenceMessage>();
+		private int syncEpoch;
+
+		/* present members, by member key; access-ordered, so in the order last seen */
+		private final LinkedHashMap<String, Member> members = new LinkedHashMap<String, Member>(16, 0.75f, true);
+		/* ABSENT witnesses, by member key */
+		private final HashMap<String, PresenceMessage> witnesses = new HashMap<String, PresenceMessage>();
+
+		/* present members by clientId, then member key */
+		private final HashMap<String, HashMap<String, PresenceMessage>> membersByClientId = new HashMap<String, HashMap<String, PresenceMessage>>();
+
+		/* present members, densely packed; a member's message is at its index in the chunks */
+		private int liveCount;
+		private Member[] liveMembers = new Member[16];
+		private PresenceMessage[][] chunks = new PresenceMessage[4][];
+		private boolean[] chunkShared = new boolean[4];
+		private Snapshot snapshot;
+	}
+
+	/**
+	 * A present member, the sync epoch in which it was last seen,
+	 * and its index in the dense array of present members
+	 */
+	private static class Member {
+		PresenceMessage message;
+		int epoch;
+		int index;
+		Member(PresenceMessage message) { this.message = message; }
+	}
+
+	/**
+	 * An immutable view of the present members, referring to chunks
+	 * that the PresenceMap copies before modifying
+	 */
+	private static class Snapshot extends AbstractList<PresenceMessage> implements RandomAccess {
+		Snapshot(PresenceMessage[][] chunks, int size) {
+			this.chunks = chunks;
+			this.size = size;
+		}
+		@Override
+		public PresenceMessage get(int index) {
+			if(index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return chunks[index >> CHUNK_BITS][index & CHUNK_MASK];
+		}
+		@Override
+		public int size() {
+			return size;
+		}
+		private final PresenceMessage[][] chunks;
+		private final int size;
+	}
+
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * Compare member data by value; JSONObject and JSONArray do not
+	 * implement equals(), so are compared element by element
+	 */
+	private static boolean dataEquals(Object a, Object b) {
+		if(a == b) return true;
+		if(a == null || b == null) return false;
+		if(a instanceof byte[] && b instanceof byte[])
+			return Arrays.equals((byte[])a, (byte[])b);
+		if(a instanceof JSONObject && b instanceof JSONObject) {
+			JSONObject objA = (JSONObject)a, objB = (JSONObject)b;
+			if(objA.length() != objB.length())
+				return false;
+			for(Iterator<?> it = objA.keys(); it.hasNext();) {
+				String key = (String)it.next();
+				if(!objB.has(key) || !dataEquals(objA.opt(key), objB.opt(key)))
+					return false;
+			}
+			return true;
+		}
+		if(a instanceof JSONArray && b instanceof JSONArray) {
+			JSONArray arrA = (JSONArray)a, arrB = (JSONArray)b;
+			if(arrA.length() != arrB.length())
+				return false;
+			for(int i = 0; i < arrA.length(); i++)
+				if(!dataEquals(arrA.opt(i), arrB.opt(i)))
+					return false;
+			return true;
+		}
+		if(a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+			/* the same JSON number may be parsed as an Integer or a Long */
+			Number numA = (Number)a, numB = (Number)b;
+			if(isIntegral(numA) && isIntegral(numB))
+				return numA.longValue() == numB.longValue();
+			return numA.doubleValue() == numB.doubleValue();
+		}
+		return a.equals(b);
+	}
+
+	private static boolean isIntegral(Number n) {
+		return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
 	}
 
 	private final PresenceMap presence = new PresenceMap();
+	private static final PresenceMessage[] EMPTY = new PresenceMessage[0];
 
 	/************************************
 	 * general
@@ -1,11 +1,13 @@
 package io.ably.rest;
 
+import io.ably.http.AsyncHttp;
 import io.ably.http.Http;
 import io.ably.http.PaginatedQuery;
 import io.ably.http.Http.ResponseHandler;
 import io.ably.http.HttpUtils;
 import io.ably.rest.Channel;
 import io.ably.types.AblyException;
+import io.ably.types.Callback;
 import io.ably.types.ChannelOptions;
 import io.ably.types.ClientOptions;
 import io.ably.types.PaginatedResult;
@@ -14,6 +16,9 @@ import io.ably.types.Stats;
 import io.ably.types.StatsReader;
 import io.ably.util.Log;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 
@@ -27,6 +32,7 @@ public class AblyRest {
 	public final ClientOptions options;
 	final String clientId;
 	public final Http http;
+	public final AsyncHttp asyncHttp;
 
 	public final Auth auth;
 	public final Channels channels;
@@ -64,6 +70,7 @@ public class AblyRest {
 		this.clientId = options.clientId;
 
 		http = new Http(this, options);
+		asyncHttp = new AsyncHttp(options.asyncHttpExecutor, options.maxAsyncHttpRequests);
 		auth = new Auth(this, options);
 		http.setAuth(auth);
 		channels = new Channels();
@@ -115,4 +122,33 @@ public class AblyRest {
 	public PaginatedResult<Stats> stats(Param[] params) throws AblyException {
 		return new PaginatedQuery<Stats>(http, "/stats", HttpUtils.defaultGetHeaders(false), params, StatsReader.statsResponseHandler).get();
 	}
+
+	/**
+	 * Asynchronously obtain the time from the Ably service.
+	 * @param callback: a callback to be notified of the time in millis since the epoch; may be null
+	 * @return a Future for the time
+	 */
+	public Future<Long> timeAsync(Callback<Long> callback) {
+		return asyncHttp.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws AblyException {
+				return time();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Asynchronously request usage statistics for this application.
+	 * @param params query options: see {@link #stats}
+	 * @param callback: a callback to be notified of the result; may be null
+	 * @return a Future for the result
+	 */
+	public Future<PaginatedResult<Stats>> statsAsync(final Param[] params, Callback<PaginatedResult<Stats>> callback) {
+		return asyncHttp.submit(new Callable<PaginatedResult<Stats>>() {
+			@Override
+			public PaginatedResult<Stats> call() throws AblyException {
+				return stats(params);
+			}
+		}, callback);
+	}
 }
@@ -4,6 +4,7 @@ import io.ably.http.Http;
 import io.ably.http.Http.ResponseHandler;
 import io.ably.http.TokenAuth;
 import io.ably.types.AblyException;
+import io.ably.types.Callback;
 import io.ably.types.Capability;
 import io.ably.types.ErrorInfo;
 import io.ably.types.ClientOptions;
@@ -16,6 +17,8 @@ import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -460,6 +463,22 @@ public class Auth {
 		});
 	}
 
+	/**
+	 * Asynchronously make a token request; see {@link #requestToken}.
+	 * @param options: see {@link #authorise} for options
+	 * @param params: see {@link #authorise} for params
+	 * @param callback: a callback to be notified of the TokenDetails; may be null
+	 * @return a Future for the TokenDetails
+	 */
+	public Future<TokenDetails> requestTokenAsync(final AuthOptions options, final TokenParams params, Callback<TokenDetails> callback) {
+		return ably.asyncHttp.submit(new Callable<TokenDetails>() {
+			@Override
+			public TokenDetails call() throws AblyException {
+				return requestToken(options, params);
+			}
+		}, callback);
+	}
+
 	/**
 	 * Create a signed token request based on known credentials
 	 * and the given token params. This would typically be used if creating
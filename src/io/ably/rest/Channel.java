@@ -5,6 +5,7 @@ import io.ably.http.Http.RequestBody;
 import io.ably.http.HttpUtils;
 import io.ably.http.PaginatedQuery;
 import io.ably.types.AblyException;
+import io.ably.types.Callback;
 import io.ably.types.ChannelOptions;
 import io.ably.types.Message;
 import io.ably.types.MessageSerializer;
@@ -13,6 +14,9 @@ import io.ably.types.Param;
 import io.ably.types.PresenceMessage;
 import io.ably.types.PresenceSerializer;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 /**
  * A class representing a Channel in the Ably REST API.
  * In the REST API, the library is essentially stateless;
@@ -78,6 +82,50 @@ public class Channel {
 		return new PaginatedQuery<Message>(ably.http, basePath + "/messages", HttpUtils.defaultGetHeaders(ably.options.useBinaryProtocol), params, bodyHandler).get();
 	}
 
+	/**
+	 * Asynchronously publish a message on this channel using the REST API.
+	 * The calling thread is not blocked; see ClientOptions.maxAsyncHttpRequests.
+	 * @param name: the event name
+	 * @param data: the message payload
+	 * @param callback: a callback to be notified of the outcome; may be null
+	 * @return a Future for the outcome
+	 */
+	public Future<Void> publishAsync(String name, Object data, Callback<Void> callback) {
+		return publishAsync(new Message[] {new Message(name, data)}, callback);
+	}
+
+	/**
+	 * Asynchronously publish an array of messages on this channel using the REST API.
+	 * The calling thread is not blocked; see ClientOptions.maxAsyncHttpRequests.
+	 * @param messages: array of messages to publish.
+	 * @param callback: a callback to be notified of the outcome; may be null
+	 * @return a Future for the outcome
+	 */
+	public Future<Void> publishAsync(final Message[] messages, Callback<Void> callback) {
+		return ably.asyncHttp.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws AblyException {
+				publish(messages);
+				return null;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Asynchronously obtain recent history for this channel using the REST API.
+	 * @param params: the request params; see {@link #history}
+	 * @param callback: a callback to be notified of the result; may be null
+	 * @return a Future for the result
+	 */
+	public Future<PaginatedResult<Message>> historyAsync(final Param[] params, Callback<PaginatedResult<Message>> callback) {
+		return ably.asyncHttp.submit(new Callable<PaginatedResult<Message>>() {
+			@Override
+			public PaginatedResult<Message> call() throws AblyException {
+				return history(params);
+			}
+		}, callback);
+	}
+
 	/**
 	 * A class enabling access to Channel Presence information via the REST API.
 	 * Since the library is stateless, REST clients are therefore never present
@@ -109,6 +157,36 @@ public class Channel {
 			BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options);
 			return new PaginatedQuery<PresenceMessage>(ably.http, basePath + "/presence/history", HttpUtils.defaultGetHeaders(ably.options.useBinaryProtocol), params, bodyHandler).get();
 		}
+
+		/**
+		 * Asynchronously get the presence state for this Channel.
+		 * @param params: the request params; see {@link #get}
+		 * @param callback: a callback to be notified of the result; may be null
+		 * @return a Future for the result
+		 */
+		public Future<PaginatedResult<PresenceMessage>> getAsync(final Param[] params, Callback<PaginatedResult<PresenceMessage>> callback) {
+			return ably.asyncHttp.submit(new Callable<PaginatedResult<PresenceMessage>>() {
+				@Override
+				public PaginatedResult<PresenceMessage> call() throws AblyException {
+					return get(params);
+				}
+			}, callback);
+		}
+
+		/**
+		 * Asynchronously obtain presence history for this channel using the REST API.
+		 * @param params: the request params; see {@link #history}
+		 * @param callback: a callback to be notified of the result; may be null
+		 * @return a Future for the result
+		 */
+		public Future<PaginatedResult<PresenceMessage>> historyAsync(final Param[] params, Callback<PaginatedResult<PresenceMessage>> callback) {
+			return ably.asyncHttp.submit(new Callable<PaginatedResult<PresenceMessage>>() {
+				@Override
+				public PaginatedResult<PresenceMessage> call() throws AblyException {
+					return history(params);
+				}
+			}, callback);
+		}
 	}
 
 	/******************
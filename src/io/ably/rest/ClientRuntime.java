@@ -0,0 +1,92 @@
+package io.ably.rest;
+
+import io.ably.http.ApacheHttpEngine;
+import io.ably.http.HostHealth;
+import io.ably.transport.Defaults;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * ClientRuntime
+ * Resources that may be shared by any number of AblyRest and AblyRealtime
+ * instances, irrespective of their keys or other options: a pool of HTTP
+ * connections, the record of host health and preferred fallback host,
+ * and the scheduler for realtime connection processing.
+ * Instances using a runtime are configured by setting ClientOptions.runtime.
+ */
+public class ClientRuntime {
+
+	/**
+	 * Create a runtime with the default HTTP pool size and
+	 * the library's default shared scheduler
+	 */
+	public ClientRuntime() {
+		this(DEFAULT_MAX_HTTP_CONNECTIONS, DEFAULT_MAX_HTTP_CONNECTIONS_PER_HOST, null);
+	}
+
+	/**
+	 * Create a runtime
+	 * @param maxHttpConnections: the maximum number of pooled HTTP connections
+	 * @param maxHttpConnectionsPerHost: the maximum number of pooled HTTP connections to any one host
+	 * @param scheduler: the scheduler for realtime connection processing,
+	 * or null to use the library's default shared scheduler
+	 */
+	public ClientRuntime(int maxHttpConnections, int maxHttpConnectionsPerHost, ScheduledExecutorService scheduler) {
+		this.httpConnectionManager = ApacheHttpEngine.newConnectionManager(maxHttpConnections, maxHttpConnectionsPerHost);
+		this.scheduler = scheduler;
+		this.idleEviction = ApacheHttpEngine.scheduleIdleEviction(httpConnectionManager, Defaults.httpIdleTimeout, getScheduler());
+	}
+
+	/**
+	 * Get the tracker of host health, and of the preferred
+	 * fallback host, shared by clients using this runtime
+	 */
+	public HostHealth getHostHealth() {
+		return hostHealth;
+	}
+
+	/**
+	 * Get the HTTP connection pool shared by clients using this runtime
+	 */
+	public ClientConnectionManager getHttpConnectionManager() {
+		return httpConnectionManager;
+	}
+
+	/**
+	 * Get statistics of the HTTP connection pool shared by clients using this runtime
+	 * @return the numbers of leased, available and pending connections
+	 * and the maximum number of connections
+	 */
+	public PoolStats getHttpPoolStats() {
+		return ApacheHttpEngine.getPoolStats(httpConnectionManager);
+	}
+
+	/**
+	 * Get the scheduler shared by realtime clients using this runtime
+	 */
+	public ScheduledExecutorService getScheduler() {
+		return (scheduler != null) ? scheduler : Defaults.getScheduler(null);
+	}
+
+	/**
+	 * Release the HTTP connection pool. This must only be called once
+	 * all clients using this runtime are no longer in use. A scheduler
+	 * specified by the caller is not shut down.
+	 */
+	public void close() {
+		idleEviction.cancel(false);
+		httpConnectionManager.shutdown();
+	}
+
+	private final ClientConnectionManager httpConnectionManager;
+	private final ScheduledExecutorService scheduler;
+	private final ScheduledFuture<?> idleEviction;
+	private final HostHealth hostHealth = new HostHealth();
+
+	public static final int DEFAULT_MAX_HTTP_CONNECTIONS = 200;
+	public static final int DEFAULT_MAX_HTTP_CONNECTIONS_PER_HOST = 50;
+}
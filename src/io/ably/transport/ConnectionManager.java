@@ -2,6 +2,7 @@ package io.ably.transport;
 
 import io.ably.debug.DebugOptions;
 import io.ably.debug.RawProtocolListener;
+import io.ably.http.HostHealth;
 import io.ably.realtime.AblyRealtime;
 import io.ably.realtime.Channel;
 import io.ably.realtime.CompletionListener;
@@ -11,8 +12,11 @@ import io.ably.realtime.ConnectionStateListener;
 import io.ably.transport.ITransport.ConnectListener;
 import io.ably.transport.ITransport.TransportParams;
 import io.ably.types.AblyException;
+import io.ably.types.Callback;
 import io.ably.types.ErrorInfo;
 import io.ably.types.ClientOptions;
+import io.ably.types.Message;
+import io.ably.types.PresenceMessage;
 import io.ably.types.ProtocolMessage;
 import io.ably.types.ProtocolMessage.Action;
 import io.ably.util.Log;
@@ -21,9 +25,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
-
-public class ConnectionManager extends Thread implements ConnectListener {
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ConnectionManager: internal
+ * The realtime connection state machine. The state machine has no thread
+ * of its own; requested and indicated state changes, and state timeouts,
+ * are processed by a task on the client's scheduler (see
+ * ClientOptions.scheduler), which also runs the outbound message writer.
+ */
+public class ConnectionManager implements ConnectListener {
 
 	private static final String TAG = ConnectionManager.class.getName();
 	private static final String INTERNET_CHECK_URL = "http://internet-up.ably-realtime.com/is-the-internet-up.txt";
@@ -108,6 +124,10 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		return state.queueEvents || state.sendEvents;
 	}
 
+	public synchronized boolean isConnected() {
+		return state.sendEvents;
+	}
+
 	/***********************
 	 * constructor
 	 ***********************/
@@ -116,26 +136,31 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		this.ably = ably;
 		this.options = ably.options;
 		this.connection = connection;
+		scheduler = Defaults.getScheduler(options);
 		queuedMessages = new ArrayList<QueuedMessage>();
 		pendingMessages = new PendingMessageQueue();
+		outboundMessages = new OutboundQueue();
 		state = states.get(ConnectionState.initialized);
 		String transportClass = Defaults.transport;
+		ITransport.Factory debugFactory = null;
 		/* debug options */
-		if(options instanceof DebugOptions)
+		if(options instanceof DebugOptions) {
 			protocolListener = ((DebugOptions)options).protocolListener;
-
-		try {
-			factory = ((ITransport.Factory)Class.forName(transportClass).newInstance());
-		} catch(Exception e) {
-			String msg = "Unable to instance factory class";
-			Log.e(getClass().getName(), msg, e);
-			throw new RuntimeException(msg, e);
+			debugFactory = ((DebugOptions)options).transportFactory;
 		}
-		synchronized(this) {
-			setSuspendTime();
-			this.start();
-			try { wait(); } catch(InterruptedException e) {}
+
+		if(debugFactory != null) {
+			factory = debugFactory;
+		} else {
+			try {
+				factory = ((ITransport.Factory)Class.forName(transportClass).newInstance());
+			} catch(Exception e) {
+				String msg = "Unable to instance factory class";
+				Log.e(getClass().getName(), msg, e);
+				throw new RuntimeException(msg, e);
+			}
 		}
+		setSuspendTime();
 	}
 	
 	/*********************
@@ -173,8 +198,7 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		/* if now connected, send queued messages, etc */
 		if(state.sendEvents) {
 			sendQueuedMessages();
-			for(Channel channel : ably.channels.values())
-				channel.setConnected();
+			ably.channels.setConnected();
 		} else if(!state.queueEvents) {
 			failQueuedMessages(state.defaultErrorInfo);
 			for(Channel channel : ably.channels.values())
@@ -189,7 +213,7 @@ public class ConnectionManager extends Thread implements ConnectListener {
 	public synchronized void requestState(StateIndication state) {
 		Log.v(TAG, "requestState(): requesting " + state.state + "; id = " + connection.key);
 		requestedState = state;
-		notify();
+		scheduleStateProcessor();
 	}
 
 	synchronized void notifyState(ITransport transport, StateIndication state) {
@@ -204,7 +228,7 @@ public class ConnectionManager extends Thread implements ConnectListener {
 	synchronized void notifyState(StateIndication state) {
 		Log.v(TAG, "notifyState(): notifying " + state.state + "; id = " + connection.key);
 		indicatedState = state;
-		notify();
+		scheduleStateProcessor();
 	}
 
 	public void ping(final CompletionListener listener) {
@@ -213,41 +237,57 @@ public class ConnectionManager extends Thread implements ConnectListener {
 				listener.onError(new ErrorInfo("Unable to ping service; not connected", 40000, 400));
 			return;
 		}
+		HeartbeatWaiter waiter = null;
 		if(listener != null) {
-			Runnable waiter = new Runnable() {
-				public void run() {
-					boolean pending;
-					synchronized(heartbeatWaiters) {
-						pending = heartbeatWaiters.contains(this);
-						if(pending)
-							try { heartbeatWaiters.wait(HEARTBEAT_TIMEOUT); } catch(InterruptedException ie) {}
-	
-						pending = heartbeatWaiters.remove(this);
-					}
-					if(pending)
-						listener.onError(new ErrorInfo("Timed out waiting for heartbeat response", 50000, 500));
-					else
-						listener.onSuccess();
-				}
-			};
+			waiter = new HeartbeatWaiter(listener);
 			synchronized(heartbeatWaiters) {
 				heartbeatWaiters.add(waiter);
-				(new Thread(waiter)).start();
 			}
+			waiter.timeout = scheduler.schedule(waiter, HEARTBEAT_TIMEOUT, TimeUnit.MILLISECONDS);
 		}
 		try {
 			send(new ProtocolMessage(ProtocolMessage.Action.HEARTBEAT), false, null);
 		} catch (AblyException e) {
-			if(listener != null)
+			if(waiter != null && waiter.remove())
 				listener.onError(e.errorInfo);
 		}
 	}
 
+	/**
+	 * A ping awaiting a heartbeat response; runs if the response times out
+	 */
+	private class HeartbeatWaiter implements Runnable {
+		private final CompletionListener listener;
+		private volatile ScheduledFuture<?> timeout;
+
+		HeartbeatWaiter(CompletionListener listener) {
+			this.listener = listener;
+		}
+
+		private boolean remove() {
+			synchronized(heartbeatWaiters) {
+				return heartbeatWaiters.remove(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			if(remove())
+				listener.onError(new ErrorInfo("Timed out waiting for heartbeat response", 50000, 500));
+		}
+	}
+
 	/***************************************
 	 * transport events/notifications
 	 ***************************************/
 
-	void onMessage(ProtocolMessage message) {
+	/**
+	 * Process a message received by the transport; public so that
+	 * a transport supplied via DebugOptions.transportFactory, which
+	 * need not be in this package, can deliver messages
+	 * @param message
+	 */
+	public void onMessage(ProtocolMessage message) {
 		if(protocolListener != null)
 			protocolListener.onRawMessage(message);
 		switch(message.action) {
@@ -306,7 +346,25 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		connection.id = message.connectionId;
 		if(message.connectionSerial != null)
 			connection.serial = message.connectionSerial.longValue();
-		msgSerial = 0;
+		QueuedMessage[] unacked;
+		synchronized(writeLock) {
+			msgSerial = 0;
+			unacked = pendingMessages.reset(0);
+		}
+		if(unacked.length > 0) {
+			/* messages sent on an earlier transport that were not
+			 * acknowledged are resent, ahead of any queued messages */
+			synchronized(queuedMessages) {
+				for(int i = 0; i < unacked.length; i++)
+					queuedMessages.add(i, unacked[i]);
+				requeuedCount += unacked.length;
+			}
+			outboundMessages.resume();
+		}
+
+		/* a fallback host that succeeded becomes the preferred host */
+		if(pendingConnect != null && pendingConnect.fallback)
+			ably.http.getHostHealth().setPreferredHost(pendingConnect.host);
 
 		/* indicated connected state */
 		setSuspendTime();
@@ -340,14 +398,25 @@ public class ConnectionManager extends Thread implements ConnectListener {
 	}
 
 	private void onHeartbeat(ProtocolMessage message) {
+		HeartbeatWaiter[] waiters;
 		synchronized(heartbeatWaiters) {
+			waiters = heartbeatWaiters.toArray(new HeartbeatWaiter[heartbeatWaiters.size()]);
 			heartbeatWaiters.clear();
-			heartbeatWaiters.notifyAll();
+		}
+		for(HeartbeatWaiter waiter : waiters) {
+			ScheduledFuture<?> timeout = waiter.timeout;
+			if(timeout != null)
+				timeout.cancel(false);
+			try {
+				waiter.listener.onSuccess();
+			} catch(Throwable t) {
+				Log.e(TAG, "onHeartbeat(): Unexpected exception calling listener", t);
+			}
 		}
 	}
 
 	/**************************
-	 * ConnectionManager thread
+	 * state processing
 	 **************************/
 
 	private void handleStateRequest() {
@@ -436,16 +505,22 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		 * - the suspend timer has expired, so we're going into suspended state.
 		 */
 
+		/* remember the failure of the host, so it is not preferred
+		 * for subsequent connection attempts or REST requests */
+		if(pendingConnect != null)
+			ably.http.getHostHealth().onFailure(pendingConnect.host);
+
 		/* FIXME: we might want to limit this behaviour to only a specific
 		 * set of error codes */
-		if(pendingConnect != null && !pendingConnect.fallback && checkConnectivity()) {
+		if(pendingConnect != null && !pendingConnect.fallback) {
 			String[] fallbackHosts = Defaults.getFallbackHosts(options);
 			if(fallbackHosts != null && fallbackHosts.length > 0) {
-				/* we will try a fallback host */
-				StateIndication fallbackConnectRequest = new StateIndication(ConnectionState.connecting, null);
-				fallbackConnectRequest.useFallbackHost = true;
-				requestState(fallbackConnectRequest);
-				/* returning null ensures we stay in the connecting state */
+				/* check connectivity asynchronously; the result is handled by
+				 * onConnectivityChecked(). Clearing pendingConnect ensures that
+				 * the resulting state indication is not checked again.
+				 * Returning null ensures we stay in the connecting state */
+				pendingConnect = null;
+				startConnectivityCheck(stateChange);
 				return null;
 			}
 		}
@@ -454,54 +529,82 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		return new StateIndication(expiredState, stateChange.reason);
 	}
 
-	private void tryWait(long timeout) {
-		if(requestedState == null && indicatedState == null)
-			try {
-				if(timeout == 0) wait();
-				else wait(timeout);
-			} catch (InterruptedException e) {}
-	}
-
-	public void run() {
-		StateIndication stateChange;
-		while(true) {
-			stateChange = null;
-			synchronized(this) {
-				/* if we're initialising, then tell the starting thread that
-				 * we're ready to receive events */
-				if(state.state == ConnectionState.initialized)
-					notify();
-	
-				while(stateChange == null) {
-					tryWait(state.timeout);
-					/* if during the wait some action was requested, handle it */
+	/**
+	 * Ensure that the state processor will run; called with the lock held
+	 */
+	private void scheduleStateProcessor() {
+		if(!processing) {
+			processing = true;
+			scheduler.execute(stateProcessor);
+		}
+	}
+
+	/**
+	 * Handle requested and indicated state changes, and timer expiry, until
+	 * there are none outstanding; then restart the timer for the current state.
+	 * At most one instance of this task is scheduled or running at any time.
+	 */
+	private final Runnable stateProcessor = new Runnable() {
+		@Override
+		public void run() {
+			StateIndication stateChange;
+			while(true) {
+				stateChange = null;
+				synchronized(ConnectionManager.this) {
+					/* if some action was requested, handle it */
 					if(requestedState != null) {
 						handleStateRequest();
 						continue;
 					}
-	
-					/* if during the wait we were told that a transition
-					 * needs to be enacted, handle that (outside the lock) */
+
+					/* if we were told that a transition needs
+					 * to be enacted, handle that (outside the lock) */
 					if(indicatedState != null) {
 						stateChange = indicatedState;
 						indicatedState = null;
-						break;
-					}
-	
-					/* if our state wants us to retry on timer expiry, do that */
-					if(state.retry) {
-						requestState(ConnectionState.connecting);
-						continue;
+					} else if(timerExpired) {
+						timerExpired = false;
+						/* if our state wants us to retry on timer expiry, do that */
+						if(state.retry) {
+							requestState(ConnectionState.connecting);
+							continue;
+						}
+
+						/* no indicated state or requested action, so the timer
+						 * expired while we were in the connecting/closing state */
+						stateChange = checkSuspend(new StateIndication(ConnectionState.disconnected, REASON_TIMEDOUT));
+					} else {
+						/* nothing outstanding; wait for the next event, or for
+						 * the timeout of the current state */
+						startStateTimer();
+						processing = false;
+						return;
 					}
-	
-					/* no indicated state or requested action, so the timer
-					 * expired while we were in the connecting/closing state */
-					stateChange = checkSuspend(new StateIndication(ConnectionState.disconnected, REASON_TIMEDOUT));
 				}
+				if(stateChange != null)
+					handleStateChange(stateChange);
 			}
-			if(stateChange != null)
-				handleStateChange(stateChange);
 		}
+	};
+
+	private void startStateTimer() {
+		if(stateTimer != null)
+			stateTimer.cancel(false);
+		final int generation = ++timerGeneration;
+		long timeout = state.timeout;
+		stateTimer = (timeout == 0) ? null : scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized(ConnectionManager.this) {
+					/* ignore a timer superseded by a subsequent event */
+					if(generation != timerGeneration)
+						return;
+					stateTimer = null;
+					timerExpired = true;
+					scheduleStateProcessor();
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
@@ -523,10 +626,15 @@ public class ConnectionManager extends Thread implements ConnectListener {
 			this.fallback = fallback;
 			this.connectionKey = connection.key;
 			this.connectionSerial = String.valueOf(connection.serial);
-			String[] fallbackHosts;
-			if(fallback && (fallbackHosts = Defaults.getFallbackHosts(options)).length > 0) {
-				fallbackHosts = Defaults.getFallbackHosts(options);
-				this.host = fallbackHosts[random.nextInt(fallbackHosts.length)];
+			/* a fallback host that has recently succeeded, for either REST
+			 * or realtime, is used in preference to the default host */
+			HostHealth hostHealth = ably.http.getHostHealth();
+			String[] fallbackHosts = Defaults.getFallbackHosts(options);
+			String preferredHost = hostHealth.getPreferredHost(fallbackHosts);
+			if(fallback && fallbackHosts != null && fallbackHosts.length > 0) {
+				this.host = hostHealth.choose(fallbackHosts);
+			} else if(preferredHost != null) {
+				this.host = preferredHost;
 			} else {
 				this.host = Defaults.getHost(options, host, true);
 			}
@@ -538,10 +646,12 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		/* determine the parameters of this connection attempt, and
 		 * instance the transport.
 		 * First, choose the transport. (Right now there's only one.)
-		 * Second, choose the host. ConnectParams will use the default
-		 * (or requested) host, unless fallback=true, in which case
-		 * it will choose a fallback host at random */
+		 * Second, choose the host. ConnectParams will use the preferred
+		 * fallback host, if any, or the default (or requested) host,
+		 * unless fallback=true, in which case it will choose a fallback
+		 * host that has not recently failed */
 		pendingConnect = new ConnectParams(options, request.useFallbackHost);
+		connectivityCheck = null;
 
 		/* enter the connecting state */
 		notifyState(request);
@@ -574,11 +684,55 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		notifyState(new StateIndication(ConnectionState.closed, null));
 	}
 
+	/**
+	 * Check connectivity on the async HTTP executor, so that neither the
+	 * scheduler nor the ConnectionManager lock is held during the request
+	 * @param stateChange: the state indication to enact if there is no connectivity
+	 */
+	private synchronized void startConnectivityCheck(final StateIndication stateChange) {
+		final Object check = connectivityCheck = new Object();
+		ably.asyncHttp.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return checkConnectivity();
+			}
+		}, new Callback<Boolean>() {
+			@Override
+			public void onSuccess(Boolean result) {
+				onConnectivityChecked(check, result, stateChange);
+			}
+			@Override
+			public void onError(ErrorInfo reason) {
+				onConnectivityChecked(check, false, stateChange);
+			}
+		});
+	}
+
+	/**
+	 * Handle the result of a connectivity check: if the network is available,
+	 * try a fallback host; otherwise enact the given state indication. The
+	 * result is ignored if the check has been superseded by a subsequent
+	 * connection attempt or state change.
+	 */
+	private synchronized void onConnectivityChecked(Object check, boolean connected, StateIndication stateChange) {
+		if(check != connectivityCheck || state.state != ConnectionState.connecting)
+			return;
+		connectivityCheck = null;
+		if(connected) {
+			/* we will try a fallback host */
+			StateIndication fallbackConnectRequest = new StateIndication(ConnectionState.connecting, null);
+			fallbackConnectRequest.useFallbackHost = true;
+			requestState(fallbackConnectRequest);
+		} else {
+			notifyState(stateChange);
+		}
+	}
+
 	/**
 	 * Determine whether or not the client has connection to the network
 	 * without reference to a specific ably host. This is to determine whether
 	 * it is better to try a fallback host, or keep retrying with the default
-	 * host.
+	 * host. Called on the async HTTP executor, and may block.
 	 * @return boolean, true if network is available
 	 */
 	protected boolean checkConnectivity() {
@@ -597,171 +751,554 @@ public class ConnectionManager extends Thread implements ConnectListener {
 		public final ProtocolMessage msg;
 		public CompletionListener listener;
 		private boolean isMerged;
+
+		/* the number and approximate size of the contained messages */
+		int count, size;
+
+		/* the count and size accounted to a QueueLimiter */
+		int heldCount;
+		long heldSize;
+
 		public QueuedMessage(ProtocolMessage msg, CompletionListener listener) {
 			this.msg = msg;
 			this.listener = listener;
+			if(msg.messages != null) {
+				count = msg.messages.length;
+				for(Message m : msg.messages) size += m.getSize();
+			} else if(msg.presence != null) {
+				count = msg.presence.length;
+				for(PresenceMessage m : msg.presence) size += m.getSize();
+			}
+		}
+
+		/**
+		 * Take over the listener and accounting of a message that
+		 * has been merged into this one
+		 * @param merged
+		 */
+		void addMerged(QueuedMessage merged) {
+			count += merged.count;
+			size += merged.size;
+			heldCount += merged.heldCount;
+			heldSize += merged.heldSize;
+			CompletionListener listener = merged.listener;
+			if(listener == null)
+				return;
+			if(!isMerged) {
+				this.listener = (this.listener == null) ? new CompletionListener.Multicaster() : new CompletionListener.Multicaster(this.listener);
+				isMerged = true;
+			}
+			((CompletionListener.Multicaster)this.listener).add(listener);
 		}
 	}
 
+	/**
+	 * Send a message, or queue it for sending when connected. This
+	 * does not block on the transport or on state transitions; messages
+	 * are written to the transport by the outbound queue's writer.
+	 * @param msg
+	 * @param queueEvents: whether or not to queue the message if
+	 * the connection is not currently connected
+	 * @param listener
+	 * @throws AblyException
+	 */
 	public void send(ProtocolMessage msg, boolean queueEvents, CompletionListener listener) throws AblyException {
-		StateInfo state;
-		synchronized(this) {
+		send(msg, queueEvents, listener, true);
+	}
+
+	/**
+	 * Send a message, or queue it for sending when connected.
+	 * @param msg
+	 * @param queueEvents: whether or not to queue the message if
+	 * the connection is not currently connected
+	 * @param listener
+	 * @param mayBlock: whether or not the calling thread may wait for
+	 * space in the queue with OverflowPolicy.BLOCK; false when the
+	 * library flushes messages it has already queued, so that its
+	 * own threads are never blocked
+	 * @throws AblyException
+	 */
+	public void send(ProtocolMessage msg, boolean queueEvents, CompletionListener listener, boolean mayBlock) throws AblyException {
+		StateInfo state = this.state;
+		if(!state.sendEvents && !(state.queueEvents && queueEvents))
+			throw new AblyException(state.defaultErrorInfo);
+
+		QueuedMessage queued = new QueuedMessage(msg, listener);
+		if(queued.count > 0)
+			queueLimiter.acquire(queued, options.connectionQueueLimits, mayBlock);
+
+		if(state.sendEvents) {
+			outboundMessages.offer(queued);
+			return;
+		}
+		synchronized(queuedMessages) {
+			/* queued messages may have been flushed since
+			 * we checked the state, so check again */
 			state = this.state;
 			if(state.sendEvents) {
-				sendImpl(msg, listener);
+				outboundMessages.offer(queued);
 				return;
 			}
-			if(state.queueEvents && queueEvents) {
+			if(state.queueEvents) {
 				int queueSize = queuedMessages.size();
 				if(queueSize > 0) {
 					QueuedMessage lastQueued = queuedMessages.get(queueSize - 1);
 					ProtocolMessage lastMessage = lastQueued.msg;
 					if(ProtocolMessage.mergeTo(lastMessage, msg)) {
-						if(!lastQueued.isMerged) {
-							lastQueued.listener = new CompletionListener.Multicaster(lastQueued.listener);
-							lastQueued.isMerged = true;
-						}
-						((CompletionListener.Multicaster)lastQueued.listener).add(listener);
+						lastQueued.addMerged(queued);
 						return;
 					}
 				}
-				queuedMessages.add(new QueuedMessage(msg, listener));
+				queuedMessages.add(queued);
 				return;
 			}
 		}
+		queueLimiter.release(queued);
 		throw new AblyException(state.defaultErrorInfo);
 	}
 
-	@SuppressWarnings("unused")
-	private void sendImpl(ProtocolMessage message) throws AblyException {
-		transport.send(message);
+	/**
+	 * Get the limiter accounting for messages awaiting send
+	 * on this connection
+	 */
+	public QueueLimiter getQueueLimiter() {
+		return queueLimiter;
 	}
 
-	private void sendImpl(ProtocolMessage message, CompletionListener listener) throws AblyException {
-		if(ProtocolMessage.ackRequired(message)) {
-			message.msgSerial = msgSerial++;
-			pendingMessages.push(new QueuedMessage(message, listener));
+	/**
+	 * Write a message to the transport; called only by the outbound writer
+	 * @param msg
+	 * @return false if the message could not be sent in the current state
+	 */
+	private boolean sendImpl(QueuedMessage msg) {
+		ProtocolMessage message = msg.msg;
+		AblyException exception;
+		synchronized(writeLock) {
+			ITransport transport = this.transport;
+			if(transport == null || !state.sendEvents)
+				return false;
+			queueLimiter.release(msg);
+			boolean ackRequired = ProtocolMessage.ackRequired(message);
+			if(ackRequired) {
+				message.msgSerial = msgSerial++;
+				pendingMessages.push(msg);
+			}
+			try {
+				transport.send(message);
+				return true;
+			} catch (AblyException e) {
+				Log.e(TAG, "sendImpl(): Unexpected error sending message", e);
+				if(ackRequired) {
+					pendingMessages.removeLast();
+					--msgSerial;
+				}
+				exception = e;
+			}
 		}
-		transport.send(message);
+		if(msg.listener != null) {
+			try {
+				msg.listener.onError(exception.errorInfo);
+			} catch (Throwable t) {
+				Log.e(TAG, "sendImpl(): Unexpected error calling listener", t);
+			}
+		}
+		return true;
 	}
 
-	private void sendImpl(QueuedMessage msg) throws AblyException {
-		ProtocolMessage message = msg.msg;
-		if(ProtocolMessage.ackRequired(message)) {
-			message.msgSerial = msgSerial++;
-			pendingMessages.push(msg);
+	/**
+	 * Handle a message that was not sent because the connection
+	 * left the connected state after it was submitted
+	 * @param msg
+	 */
+	private void requeue(QueuedMessage msg) {
+		StateInfo state;
+		synchronized(queuedMessages) {
+			state = this.state;
+			if(state.sendEvents && transport != null) {
+				/* queued messages have already been flushed */
+				outboundMessages.offer(msg);
+				return;
+			}
+			if(state.sendEvents || state.queueEvents) {
+				/* keep ahead of anything queued since the state change;
+				 * these will be sent or failed on the next transition */
+				queuedMessages.add(requeuedCount++, msg);
+				return;
+			}
+		}
+		queueLimiter.release(msg);
+		try {
+			if(msg.listener != null)
+				msg.listener.onError(state.defaultErrorInfo);
+		} catch (Throwable t) {
+			Log.e(TAG, "requeue(): Unexpected error calling listener", t);
 		}
-		transport.send(message);
 	}
 
 	private void sendQueuedMessages() {
-		synchronized(this) {
-			while(queuedMessages.size() > 0) {
-				try {
-					sendImpl(queuedMessages.get(0));
-					queuedMessages.remove(0);
-				} catch (AblyException e) {
-					Log.e(TAG, "sendQueuedMessages(): Unexpected error sending queued messages", e);
+		synchronized(queuedMessages) {
+			for(QueuedMessage queued : queuedMessages)
+				outboundMessages.offer(queued);
+			queuedMessages.clear();
+			requeuedCount = 0;
+		}
+	}
+
+	private void failQueuedMessages(ErrorInfo reason) {
+		QueuedMessage[] failedMessages;
+		synchronized(queuedMessages) {
+			failedMessages = queuedMessages.toArray(new QueuedMessage[queuedMessages.size()]);
+			queuedMessages.clear();
+			requeuedCount = 0;
+		}
+		for(QueuedMessage queued : failedMessages) {
+			queueLimiter.release(queued);
+			try {
+				if(queued.listener != null)
+					queued.listener.onError(reason);
+			} catch (Throwable t) {
+				Log.e(TAG, "failQueuedMessages(): Unexpected error calling listener", t);
+			}
+		}
+	}
+
+	/**
+	 * Remove the oldest message awaiting send that may be discarded
+	 * to make space for a new message; messages still awaiting the
+	 * connection are older than any in the outbound queue
+	 */
+	private QueuedMessage removeOldest() {
+		synchronized(queuedMessages) {
+			for(int i = 0; i < queuedMessages.size(); i++) {
+				QueuedMessage queued = queuedMessages.get(i);
+				if(queued.heldCount > 0) {
+					queuedMessages.remove(i);
+					if(i < requeuedCount)
+						--requeuedCount;
+					return queued;
 				}
 			}
 		}
+		return outboundMessages.removeOldest();
 	}
 
-	private void failQueuedMessages(ErrorInfo reason) {
-		synchronized(this) {
-			for(QueuedMessage queued : queuedMessages) {
-				try {
-					if(queued.listener != null)
-						queued.listener.onError(reason);
-				} catch (Throwable t) {
-					Log.e(TAG, "failQueuedMessages(): Unexpected error calling listener", t);
+	/**
+	 * A multi-producer, single-consumer queue of messages to be written
+	 * to the transport. Publishers enqueue without locking; the first
+	 * publisher to find the queue idle schedules the writer, which
+	 * drains the queue on a scheduler thread.
+	 * If publish batching is enabled, consecutive MESSAGE messages for
+	 * the same channel are merged into a single message, which is written
+	 * when the batch is full or when the batch delay expires.
+	 */
+	private class OutboundQueue implements Runnable {
+		private final ConcurrentLinkedQueue<QueuedMessage> queue = new ConcurrentLinkedQueue<QueuedMessage>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/* set when the writer stops because the in-flight window is full;
+		 * the writer remains scheduled until resumed */
+		private final AtomicBoolean paused = new AtomicBoolean();
+
+		/* batch state; accessed only by the writer, which may run on any
+		 * scheduler thread but never concurrently with itself */
+		private QueuedMessage batch;
+		private int batchCount, batchSize;
+		private ScheduledFuture<?> batchTimer;
+		private volatile boolean batchExpired;
+		private final Runnable batchExpiry = new Runnable() {
+			@Override
+			public void run() {
+				batchExpired = true;
+				/* if the writer is already scheduled, or paused, it
+				 * will write the batch when it next runs */
+				if(scheduled.compareAndSet(false, true))
+					OutboundQueue.this.run();
+			}
+		};
+
+		void offer(QueuedMessage msg) {
+			queue.offer(msg);
+			if(scheduled.compareAndSet(false, true))
+				scheduler.execute(this);
+		}
+
+		/**
+		 * Resume the writer if it is paused and the in-flight window has space
+		 */
+		void resume() {
+			if(paused.get() && !isWindowFull() && paused.compareAndSet(true, false))
+				scheduler.execute(this);
+		}
+
+		/**
+		 * Remove the oldest message in the queue that is
+		 * accounted to the queue limiter
+		 */
+		QueuedMessage removeOldest() {
+			for(QueuedMessage queued : queue) {
+				/* the writer may take the message concurrently */
+				if(queued.heldCount > 0 && queue.remove(queued))
+					return queued;
+			}
+			return null;
+		}
+
+		private boolean isWindowFull() {
+			int maxInFlight = options.maxInFlightMessages;
+			long maxInFlightBytes = options.maxInFlightBytes;
+			return (maxInFlight > 0 && pendingMessages.size() >= maxInFlight)
+					|| (maxInFlightBytes > 0 && pendingMessages.bytes() >= maxInFlightBytes);
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				if(isWindowFull()) {
+					/* stop writing until acks are received; check again in
+					 * case the window emptied before we were marked as paused */
+					paused.set(true);
+					if(isWindowFull() || !paused.compareAndSet(true, false))
+						return;
+				}
+				if(batchExpired) {
+					batchExpired = false;
+					flushBatch();
+					continue;
+				}
+				QueuedMessage msg = queue.poll();
+				if(msg == null) {
+					/* release the writer, unless a message was
+					 * enqueued after the poll but before the release */
+					scheduled.set(false);
+					if((queue.isEmpty() && !batchExpired) || !scheduled.compareAndSet(false, true))
+						return;
+					continue;
+				}
+				if(options.publishBatchDelay > 0 && msg.msg.action == Action.MESSAGE && msg.msg.messages != null) {
+					addToBatch(msg);
+					continue;
 				}
+				flushBatch();
+				write(msg);
 			}
 		}
+
+		private void addToBatch(QueuedMessage msg) {
+			ProtocolMessage message = msg.msg;
+			int count = message.messages.length;
+			int size = 0;
+			for(Message m : message.messages)
+				size += m.getSize();
+
+			if(batch != null) {
+				boolean full = batchCount + count > options.publishBatchMaxMessages
+						|| batchSize + size > options.publishBatchMaxBytes;
+				if(!full && ProtocolMessage.mergeTo(batch.msg, message)) {
+					batch.addMerged(msg);
+					batchCount += count;
+					batchSize += size;
+				} else {
+					flushBatch();
+				}
+			}
+			if(batch == null) {
+				batch = msg;
+				batchCount = count;
+				batchSize = size;
+				batchTimer = scheduler.schedule(batchExpiry, options.publishBatchDelay, TimeUnit.MILLISECONDS);
+			}
+			if(batchCount >= options.publishBatchMaxMessages || batchSize >= options.publishBatchMaxBytes)
+				flushBatch();
+		}
+
+		private void flushBatch() {
+			if(batch == null)
+				return;
+			if(batchTimer != null) {
+				batchTimer.cancel(false);
+				batchTimer = null;
+			}
+			QueuedMessage msg = batch;
+			batch = null;
+			write(msg);
+		}
+
+		private void write(QueuedMessage msg) {
+			try {
+				if(!sendImpl(msg))
+					requeue(msg);
+			} catch(Throwable t) {
+				Log.e(TAG, "OutboundQueue: Unexpected error writing message", t);
+			}
+		}
+	}
+
+	private void onPendingMessagesRemoved() {
+		outboundMessages.resume();
 	}
 
+	/**
+	 * The messages awaiting acknowledgement, in msgSerial order. This is a
+	 * growable ring buffer; the message with a given msgSerial is at offset
+	 * (msgSerial - startSerial) from the head, so ack and nack remove a
+	 * contiguous range from the head without shifting remaining entries.
+	 */
 	private class PendingMessageQueue {
 		private long startSerial = 0L;
-		private ArrayList<QueuedMessage> queue = new ArrayList<QueuedMessage>();
+		private QueuedMessage[] ring = new QueuedMessage[INITIAL_PENDING_CAPACITY];
+		private int head, size;
+		private long bytes;
+
+		/* listeners are called outside of the queue lock; the ackLock
+		 * serialises callers of ack and nack so that a single scratch
+		 * array can be used to hold the completed messages */
+		private final Object ackLock = new Object();
+		private QueuedMessage[] completed = new QueuedMessage[INITIAL_PENDING_CAPACITY];
+
 		public synchronized void push(QueuedMessage msg) {
-			queue.add(msg);
+			if(size == ring.length) {
+				QueuedMessage[] newRing = new QueuedMessage[size * 2];
+				copyTo(newRing, size);
+				ring = newRing;
+				head = 0;
+			}
+			ring[(head + size++) & (ring.length - 1)] = msg;
+			bytes += msg.size;
+		}
+
+		public synchronized void removeLast() {
+			int idx = (head + --size) & (ring.length - 1);
+			bytes -= ring[idx].size;
+			ring[idx] = null;
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * The approximate size of the payloads of the pending messages
+		 */
+		public synchronized long bytes() {
+			return bytes;
+		}
+
+		/**
+		 * Remove all messages, for resending on a new transport
+		 * @param serial: the msgSerial of the next message to be pushed
+		 * @return the removed messages, in msgSerial order
+		 */
+		public synchronized QueuedMessage[] reset(long serial) {
+			QueuedMessage[] result = new QueuedMessage[size];
+			copyTo(result, size);
+			popHead(size, -1);
+			startSerial = serial;
+			return result;
 		}
 
 		public void ack(long msgSerial, int count, ErrorInfo reason) {
-			QueuedMessage[] ackMessages = null, nackMessages = null;
-			synchronized(this) {
-				if(msgSerial < startSerial) {
-					/* this is an error condition and shouldn't happen but
-					 * we can handle it gracefully by only processing the
-					 * relevant portion of the response */
-					count -= (int)(startSerial - msgSerial);
-					msgSerial = startSerial;
-				}
-				if(msgSerial > startSerial) {
-					/* this counts as a nack of the messages earlier than serial,
-					 * as well as an ack */
-					int nCount = (int)(msgSerial - startSerial);
-					List<QueuedMessage> nackList = queue.subList(0, nCount);
-					nackMessages = nackList.toArray(new QueuedMessage[nCount]);
-					nackList.clear();
-					startSerial = msgSerial;
+			synchronized(ackLock) {
+				int nCount = 0, ackCount = 0;
+				synchronized(this) {
+					if(msgSerial < startSerial) {
+						/* this is an error condition and shouldn't happen but
+						 * we can handle it gracefully by only processing the
+						 * relevant portion of the response */
+						count -= (int)(startSerial - msgSerial);
+						msgSerial = startSerial;
+					}
+					if(msgSerial > startSerial) {
+						/* this counts as a nack of the messages earlier than serial,
+						 * as well as an ack */
+						nCount = (int)Math.min(msgSerial - startSerial, size);
+						popHead(nCount, 0);
+					}
+					if(msgSerial == startSerial && count > 0) {
+						ackCount = Math.min(count, size);
+						popHead(ackCount, nCount);
+					}
 				}
-				if(msgSerial == startSerial) {
-					List<QueuedMessage> ackList = queue.subList(0, count);
-					ackMessages = ackList.toArray(new QueuedMessage[count]);
-					ackList.clear();
-					startSerial += count;
+				if(nCount > 0) {
+					if(reason == null)
+						reason = new ErrorInfo("Unknown error", 500, 50000);
+					callListeners(0, nCount, reason);
 				}
+				if(ackCount > 0)
+					callListeners(nCount, ackCount, null);
 			}
-			if(nackMessages != null) {
-				if(reason == null)
-					reason = new ErrorInfo("Unknown error", 500, 50000);
-				for(QueuedMessage msg : nackMessages) {
-					try {
-						if(msg.listener != null)
-							msg.listener.onError(reason);
-					} catch(Throwable t) {
-						Log.e(TAG, "ack(): listener exception", t);
+			onPendingMessagesRemoved();
+		}
+
+		public void nack(long serial, int count, ErrorInfo reason) {
+			synchronized(ackLock) {
+				int nCount = 0;
+				synchronized(this) {
+					if(serial != startSerial) {
+						/* this is an error condition and shouldn't happen but
+						 * we can handle it gracefully by only processing the
+						 * relevant portion of the response */
+						count -= (int)(startSerial - serial);
+						serial = startSerial;
 					}
-				}
-			}
-			if(ackMessages != null) {
-				for(QueuedMessage msg : ackMessages) {
-					try {
-						if(msg.listener != null)
-							msg.listener.onSuccess();
-					} catch(Throwable t) {
-						Log.e(TAG, "ack(): listener exception", t);
+					if(count > 0) {
+						nCount = Math.min(count, size);
+						popHead(nCount, 0);
 					}
 				}
+				if(nCount > 0) {
+					if(reason == null)
+						reason = new ErrorInfo("Unknown error", 500, 50000);
+					callListeners(0, nCount, reason);
+				}
 			}
+			onPendingMessagesRemoved();
 		}
 
-		public synchronized void nack(long serial, int count, ErrorInfo reason) {
-			QueuedMessage[] nackMessages = null;
-			synchronized(this) {
-				if(serial != startSerial) {
-					/* this is an error condition and shouldn't happen but
-					 * we can handle it gracefully by only processing the
-					 * relevant portion of the response */
-					count -= (int)(startSerial - serial);
-					serial = startSerial;
-				}
-				List<QueuedMessage> nackList = queue.subList(0, count);
-				nackMessages = nackList.toArray(new QueuedMessage[count]);
-				nackList.clear();
-				startSerial += count;
-			}
-			if(nackMessages != null) {
-				if(reason == null)
-					reason = new ErrorInfo("Unknown error", 500, 50000);
-				for(QueuedMessage msg : nackMessages) {
-					try {
-						if(msg.listener != null)
+		private void copyTo(QueuedMessage[] dest, int count) {
+			int mask = ring.length - 1;
+			for(int i = 0; i < count; i++)
+				dest[i] = ring[(head + i) & mask];
+		}
+
+		/**
+		 * Remove count messages from the head of the ring, advancing
+		 * startSerial, and optionally moving them to the completed array
+		 * @param count
+		 * @param completedOffset: the offset in the completed array at which
+		 * to place the removed messages, or -1 to discard them
+		 */
+		private void popHead(int count, int completedOffset) {
+			if(completedOffset >= 0 && completed.length < completedOffset + count) {
+				QueuedMessage[] newCompleted = new QueuedMessage[Math.max(completedOffset + count, completed.length * 2)];
+				System.arraycopy(completed, 0, newCompleted, 0, completedOffset);
+				completed = newCompleted;
+			}
+			int mask = ring.length - 1;
+			for(int i = 0; i < count; i++) {
+				int idx = (head + i) & mask;
+				bytes -= ring[idx].size;
+				if(completedOffset >= 0)
+					completed[completedOffset + i] = ring[idx];
+				ring[idx] = null;
+			}
+			head = (head + count) & mask;
+			size -= count;
+			startSerial += count;
+		}
+
+		private void callListeners(int offset, int count, ErrorInfo reason) {
+			for(int i = offset; i < offset + count; i++) {
+				QueuedMessage msg = completed[i];
+				completed[i] = null;
+				try {
+					if(msg.listener != null) {
+						if(reason == null)
+							msg.listener.onSuccess();
+						else
 							msg.listener.onError(reason);
-					} catch(Throwable t) {
-						Log.e(TAG, "nack(): listener exception", t);
 					}
+				} catch(Throwable t) {
+					Log.e(TAG, (reason == null ? "ack" : "nack") + "(): listener exception", t);
 				}
 			}
 		}
@@ -777,20 +1314,37 @@ public class ConnectionManager extends Thread implements ConnectListener {
 	private final ITransport.Factory factory;
 	private final List<QueuedMessage> queuedMessages;
 	private final PendingMessageQueue pendingMessages;
-	private final HashSet<Object> heartbeatWaiters = new HashSet<Object>();
+	private final OutboundQueue outboundMessages;
+	private final QueueLimiter queueLimiter = new QueueLimiter("connection", new QueueLimiter.Queue() {
+		@Override
+		public QueuedMessage removeOldest() {
+			return ConnectionManager.this.removeOldest();
+		}
+	});
+	private final HashSet<HeartbeatWaiter> heartbeatWaiters = new HashSet<HeartbeatWaiter>();
 
-	private StateInfo state;
+	private volatile StateInfo state;
 	private StateIndication indicatedState, requestedState;
 	private ConnectParams pendingConnect;
-	private ITransport transport;
+	private Object connectivityCheck;
+	private volatile ITransport transport;
 	private long suspendTime;
-	private long msgSerial;
 
-	/* for choosing fallback host*/
-	private static final Random random = new Random();
+	/* state processing; guarded by the ConnectionManager lock */
+	private final ScheduledExecutorService scheduler;
+	private boolean processing;
+	private boolean timerExpired;
+	private ScheduledFuture<?> stateTimer;
+	private int timerGeneration;
+
+	/* outbound writer state; msgSerial is guarded by writeLock */
+	private final Object writeLock = new Object();
+	private long msgSerial;
+	private int requeuedCount;
 
 	/* for debug/test only */
 	private RawProtocolListener protocolListener;
 
 	private static final long HEARTBEAT_TIMEOUT = 5000L;
+	private static final int INITIAL_PENDING_CAPACITY = 64;
 }
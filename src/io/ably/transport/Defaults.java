@@ -2,6 +2,11 @@ package io.ably.transport;
 
 import io.ably.types.ClientOptions;
 
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Defaults {
 	public static final int protocolVersion     = 1;
 	public static final String[] FALLBACK_HOSTS = new String[] {"A.ably-realtime.com", "B.ably-realtime.com", "C.ably-realtime.com", "D.ably-realtime.com", "E.ably-realtime.com"};
@@ -14,8 +19,14 @@ public class Defaults {
 	public static final int suspendedTimeout    = 120000;
 	public static final int cometRecvTimeout    = 90000;
 	public static final int cometSendTimeout    = 10000;
+	public static final int httpOpenTimeout     = 2*60*1000;
+	public static final int httpRequestTimeout  = 2*60*1000;
+	public static final int httpMaxConnections  = 20;
+	public static final int httpMaxConnectionsPerHost = 2;
+	public static final long httpIdleTimeout    = 60000;
 	public static final String[] transports     = new String[]{"web_socket"};
 	public static final String transport        = "io.ably.transport.WebSocketTransport$Factory";
+	public static final String httpEngine       = "io.ably.http.ApacheHttpEngine$Factory";
 
 	public static String getHost(ClientOptions options) {
 		String host;
@@ -50,4 +61,37 @@ public class Defaults {
 	public static String[] getFallbackHosts(ClientOptions options) {
 		return (options.restHost == null) ? Defaults.FALLBACK_HOSTS : null;
 	}
+
+	/**
+	 * Get the scheduler for realtime connection state processing
+	 * and outbound writes; unless specified in the options or by the
+	 * client runtime, this is a pool of daemon threads shared by all
+	 * clients in the JVM
+	 * @param options: the client options, or null for the shared scheduler
+	 * @return
+	 */
+	public static ScheduledExecutorService getScheduler(ClientOptions options) {
+		if(options != null) {
+			if(options.scheduler != null)
+				return options.scheduler;
+			if(options.runtime != null)
+				return options.runtime.getScheduler();
+		}
+		synchronized(Defaults.class) {
+			if(sharedScheduler == null)
+				sharedScheduler = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ably-scheduler-" + schedulerThreadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			return sharedScheduler;
+		}
+	}
+
+	private static ScheduledExecutorService sharedScheduler;
+	private static final AtomicInteger schedulerThreadCount = new AtomicInteger();
+	private static final int SCHEDULER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
 }
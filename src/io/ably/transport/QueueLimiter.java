@@ -0,0 +1,190 @@
+package io.ably.transport;
+
+import io.ably.transport.ConnectionManager.QueuedMessage;
+import io.ably.types.AblyException;
+import io.ably.types.ErrorInfo;
+import io.ably.types.QueueLimits;
+import io.ably.types.QueueLimits.LimitListener;
+import io.ably.types.QueueLimits.OverflowPolicy;
+import io.ably.util.Log;
+
+/**
+ * QueueLimiter: internal
+ * Keeps account of the messages held in a queue, and applies
+ * the QueueLimits configured for that queue when messages are added.
+ */
+public class QueueLimiter {
+
+	private static final String TAG = QueueLimiter.class.getName();
+
+	/**
+	 * The queue whose messages are accounted; used to discard
+	 * messages with OverflowPolicy.DROP_OLDEST
+	 */
+	public interface Queue {
+		/**
+		 * Remove the oldest message that may be dropped
+		 * @return the message, or null if there is none
+		 */
+		public QueuedMessage removeOldest();
+	}
+
+	public QueueLimiter(String name, Queue queue) {
+		this.name = name;
+		this.queue = queue;
+	}
+
+	/**
+	 * Account for a message to be added to the queue, applying the given limits.
+	 * The caller must subsequently call release() when the message leaves the queue.
+	 * @param msg
+	 * @param limits: the limits, or null if there are no limits
+	 * @throws AblyException if the message cannot be queued
+	 */
+	public void acquire(QueuedMessage msg, QueueLimits limits) throws AblyException {
+		acquire(msg, limits, true);
+	}
+
+	/**
+	 * Account for a message to be added to the queue, applying the given limits.
+	 * The caller must subsequently call release() when the message leaves the queue.
+	 * @param msg
+	 * @param limits: the limits, or null if there are no limits
+	 * @param mayBlock: whether or not the calling thread may wait for space
+	 * with OverflowPolicy.BLOCK; this is false for library threads, such as
+	 * those flushing messages queued on a channel, for which BLOCK is
+	 * applied as FAIL
+	 * @throws AblyException if the message cannot be queued
+	 */
+	public void acquire(QueuedMessage msg, QueueLimits limits, boolean mayBlock) throws AblyException {
+		int count = msg.count;
+		long size = msg.size;
+		int currentMessages;
+		long currentBytes;
+		synchronized(this) {
+			if(fits(count, size, limits)) {
+				add(msg, count, size);
+				return;
+			}
+			++limitReachedCount;
+			currentMessages = queuedMessages;
+			currentBytes = queuedBytes;
+		}
+
+		LimitListener listener = limits.listener;
+		if(listener != null) {
+			try {
+				listener.onLimitReached(name, currentMessages, currentBytes);
+			} catch(Throwable t) {
+				Log.e(TAG, "acquire(): Unexpected exception calling listener", t);
+			}
+		}
+
+		OverflowPolicy overflowPolicy = limits.overflowPolicy;
+		if(overflowPolicy == OverflowPolicy.BLOCK && !mayBlock)
+			overflowPolicy = OverflowPolicy.FAIL;
+
+		switch(overflowPolicy) {
+		case BLOCK:
+			synchronized(this) {
+				long deadline = System.currentTimeMillis() + limits.blockTimeout;
+				while(!fits(count, size, limits)) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0)
+						throw new AblyException(REASON_QUEUE_FULL);
+					try {
+						wait(remaining);
+					} catch(InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new AblyException(REASON_QUEUE_FULL);
+					}
+				}
+				add(msg, count, size);
+			}
+			return;
+		case DROP_OLDEST:
+			while(true) {
+				synchronized(this) {
+					if(fits(count, size, limits)) {
+						add(msg, count, size);
+						return;
+					}
+				}
+				QueuedMessage dropped = queue.removeOldest();
+				if(dropped == null)
+					throw new AblyException(REASON_QUEUE_FULL);
+				release(dropped);
+				synchronized(this) { ++droppedCount; }
+				if(dropped.listener != null) {
+					try {
+						dropped.listener.onError(REASON_DROPPED);
+					} catch(Throwable t) {
+						Log.e(TAG, "acquire(): Unexpected exception calling listener", t);
+					}
+				}
+			}
+		case FAIL:
+		default:
+			throw new AblyException(REASON_QUEUE_FULL);
+		}
+	}
+
+	/**
+	 * Account for a message leaving the queue
+	 * @param msg
+	 */
+	public synchronized void release(QueuedMessage msg) {
+		if(msg.heldCount == 0 && msg.heldSize == 0)
+			return;
+		queuedMessages -= msg.heldCount;
+		queuedBytes -= msg.heldSize;
+		msg.heldCount = 0;
+		msg.heldSize = 0;
+		notifyAll();
+	}
+
+	public synchronized int getQueuedMessages() { return queuedMessages; }
+	public synchronized long getQueuedBytes() { return queuedBytes; }
+
+	/**
+	 * The number of times a publish has found the queue full
+	 */
+	public synchronized long getLimitReachedCount() { return limitReachedCount; }
+
+	/**
+	 * The number of messages discarded with OverflowPolicy.DROP_OLDEST
+	 */
+	public synchronized long getDroppedCount() { return droppedCount; }
+
+	/******************
+	 * internal
+	 ******************/
+
+	private boolean fits(int count, long size, QueueLimits limits) {
+		/* a message is always accepted into an empty queue */
+		if(limits == null || queuedMessages == 0)
+			return true;
+		if(limits.maxMessages > 0 && queuedMessages + count > limits.maxMessages)
+			return false;
+		if(limits.maxBytes > 0 && queuedBytes + size > limits.maxBytes)
+			return false;
+		return true;
+	}
+
+	private void add(QueuedMessage msg, int count, long size) {
+		queuedMessages += count;
+		queuedBytes += size;
+		msg.heldCount += count;
+		msg.heldSize += size;
+	}
+
+	private final String name;
+	private final Queue queue;
+	private int queuedMessages;
+	private long queuedBytes;
+	private long limitReachedCount;
+	private long droppedCount;
+
+	static ErrorInfo REASON_QUEUE_FULL = new ErrorInfo("Unable to publish; message queue limit reached", 429, 42910);
+	static ErrorInfo REASON_DROPPED = new ErrorInfo("Message discarded; message queue limit reached", 429, 42910);
+}
@@ -146,7 +146,9 @@ public class WebSocketTransport implements ITransport {
 		@Override
 		public void onMessage(ByteBuffer blob) {
 			try {
-				connectionManager.onMessage(ProtocolSerializer.readMsgpack(blob.array()));
+				/* each frame is received in its own buffer, so decode
+				 * directly from it without copying */
+				connectionManager.onMessage(ProtocolSerializer.readMsgpack(blob));
 			} catch (AblyException e) {
 				String msg = "Unexpected exception processing received binary message";
 				Log.e(TAG, msg, e);
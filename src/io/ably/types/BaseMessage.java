@@ -1,14 +1,15 @@
 package io.ably.types;
 
 import io.ably.util.Base64Coder;
-import io.ably.util.Crypto.ChannelCipher;
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.Log;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.msgpack.packer.Packer;
@@ -43,9 +44,36 @@ public class BaseMessage implements Cloneable {
 
 	/**
 	 * The message payload.
+	 * Binary payloads are byte[] unless the channel has been configured
+	 * with ChannelOptions.binaryDataAsByteBuffer, in which case received
+	 * binary payloads are read-only ByteBuffers.
 	 */
 	public Object data;
 
+	/**
+	 * Get the id of this message. A message received on a realtime channel
+	 * without an id of its own is identified by the id of the ProtocolMessage
+	 * that contained it, and its index within that ProtocolMessage; that id
+	 * is constructed, and assigned to the id field, when first requested.
+	 * @return the id, or null if the message has no id
+	 */
+	public String getId() {
+		if(id == null && parentId != null)
+			id = parentId + ':' + parentIndex;
+		return id;
+	}
+
+	/**
+	 * Internal: specify the ProtocolMessage id and index from which the
+	 * id of this message is derived, if it has no id of its own
+	 * @param protocolMessageId
+	 * @param index
+	 */
+	public void setParentId(String protocolMessageId, int index) {
+		parentId = protocolMessageId;
+		parentIndex = index;
+	}
+
 	/**
 	 * Construct a message from a JSON-encoded response body.
 	 * @param json: a JSONObject obtained by parsing the response text
@@ -72,8 +100,14 @@ public class BaseMessage implements Cloneable {
 		try {
 			if(timestamp > 0) json.put("timestamp", timestamp);
 			if(clientId != null) json.put("clientId", clientId);
-			if(connectionId != null) json.put("connectionId", clientId);
+			if(connectionId != null) json.put("connectionId", connectionId);
+			/* binary data is base64-encoded for the JSON representation only;
+			 * the message itself is left unchanged */
+			Object data = this.data;
+			String encoding = this.encoding;
 			if(data != null) {
+				if(data instanceof ByteBuffer)
+					data = toByteArray((ByteBuffer)data);
 				if(data instanceof byte[]) {
 					data = new String(Base64Coder.encode((byte[])data));
 					encoding = (encoding == null) ? "base64" : encoding + "/base64";
@@ -87,6 +121,75 @@ public class BaseMessage implements Cloneable {
 		}
 	}
 
+	/**
+	 * Internal: read a field of a message from a JSON stream
+	 * @param reader: a reader positioned at the value of the current field
+	 * @return true if the field was recognised
+	 * @throws IOException
+	 */
+	boolean readField(JsonReader reader) throws IOException {
+		boolean result = true;
+		if(reader.fieldIs("timestamp")) {
+			timestamp = reader.readLong();
+		} else if(reader.fieldIs("id")) {
+			id = reader.readString();
+		} else if(reader.fieldIs("clientId")) {
+			clientId = reader.readString();
+		} else if(reader.fieldIs("connectionId")) {
+			connectionId = reader.readString();
+		} else if(reader.fieldIs("encoding")) {
+			encoding = reader.readString();
+		} else if(reader.fieldIs("data")) {
+			data = reader.nextIsString() ? reader.readString() : reader.readRawValue();
+		} else {
+			result = false;
+		}
+		return result;
+	}
+
+	/**
+	 * Internal: write the fields of a message to a JSON stream
+	 * @param writer
+	 * @throws AblyException
+	 */
+	void writeFields(JsonWriter writer) throws AblyException {
+		if(timestamp > 0) {
+			writer.writeFieldName("timestamp");
+			writer.writeLong(timestamp);
+		}
+		if(clientId != null) {
+			writer.writeFieldName("clientId");
+			writer.writeString(clientId);
+		}
+		if(connectionId != null) {
+			writer.writeFieldName("connectionId");
+			writer.writeString(connectionId);
+		}
+		/* binary data is base64-encoded for the JSON representation only;
+		 * the message itself is left unchanged */
+		String encoding = this.encoding;
+		if(data != null) {
+			writer.writeFieldName("data");
+			if(data instanceof String) {
+				writer.writeString((String)data);
+			} else if(data instanceof byte[] || data instanceof ByteBuffer) {
+				byte[] bytes = (data instanceof byte[]) ? (byte[])data : toByteArray((ByteBuffer)data);
+				writer.writeString(new String(Base64Coder.encode(bytes)));
+				encoding = (encoding == null) ? "base64" : encoding + "/base64";
+			} else {
+				try {
+					writer.writeRawValue(JSONObject.valueToString(data));
+				} catch(JSONException e) {
+					throw new AblyException("Unexpected exception encoding message; err = " + e, 400, 40000);
+				}
+			}
+		}
+		if(encoding != null) {
+			writer.writeFieldName("encoding");
+			writer.writeString(encoding);
+		}
+	}
+
 	/**
 	 * Generate a String summary of this BaseMessage
 	 * @return string
@@ -104,62 +207,101 @@ public class BaseMessage implements Cloneable {
 			builder.append(" id=").append(id);
 	}
 
+	/**
+	 * Internal: get the approximate encoded size of this message's
+	 * attributes and payload, in bytes
+	 * @return
+	 */
+	public int getSize() {
+		int size = 0;
+		if(clientId != null) size += clientId.length();
+		if(encoding != null) size += encoding.length();
+		if(data != null) {
+			if(data instanceof byte[])
+				size += ((byte[])data).length;
+			else if(data instanceof ByteBuffer)
+				size += ((ByteBuffer)data).remaining();
+			else
+				size += data.toString().length();
+		}
+		return size;
+	}
+
 	public void decode(ChannelOptions opts) throws AblyException {
 		if(encoding != null) {
-			String[] xforms = encoding.split("\\/");
-			int i = 0, j = xforms.length;
+			CodecPipeline pipeline = CodecPipeline.forEncoding(encoding);
+			Codec[] stages = pipeline.stages;
+			int i = 0;
 			try {
-				while((i = j) > 0) {
-					Matcher match = xformPattern.matcher(xforms[--j]);
-					if(!match.matches()) break;
-					String xform = match.group(1).intern();
-					if(xform == "base64") {
-						data = Base64Coder.decode((String)data);
-						continue;
-					}
-					if(xform == "utf-8") {
-						try { data = new String((byte[])data, "UTF-8"); } catch(UnsupportedEncodingException e) {}
-						continue;
-					}
-					if(xform == "json") {
-						try {
-							String jsonText = ((String)data).trim();
-							if(jsonText.charAt(0) == '[')
-								data = new JSONArray(jsonText);
-							else
-								data = new JSONObject(jsonText);
-						}
-						catch(JSONException e) { throw AblyException.fromThrowable(e); }
-						continue;
-					}
-					if(xform == "cipher" && opts != null && opts.encrypted) {
-						data = opts.getCipher().decrypt((byte[])data);
-						continue;
-					}
-					break;
+				for(; i < stages.length; i++) {
+					Codec stage = stages[i];
+					if(!stage.canDecode(data, opts))
+						break;
+					data = stage.decode(data, opts);
 				}
 			} finally {
-				encoding = (i <= 0) ? null : join(xforms, '/', 0, i);
+				encoding = pipeline.remaining[i];
 			}
 		}
+		/* binary data received as a buffer slice is only passed on
+		 * as such if the application has asked for it */
+		if(data instanceof ByteBuffer && (opts == null || !opts.binaryDataAsByteBuffer))
+			data = toByteArray((ByteBuffer)data);
 	}
 
-	public void encode(ChannelOptions opts) throws AblyException {
-		if(data instanceof JSONObject || data instanceof JSONArray) {
-			data = data.toString();
-			encoding = ((encoding == null) ? "" : encoding + "/") + "json";
+	/**
+	 * Internal: defer decoding of this message's payload until it is first
+	 * accessed with getData(). Until then, the data and encoding fields hold
+	 * the payload as received, so a message that is forwarded without its
+	 * data being accessed is never decoded.
+	 * @param opts: the options to decode with
+	 */
+	public void decodeOnAccess(ChannelOptions opts) {
+		decodeOptions = opts;
+		decodePending = true;
+	}
+
+	/**
+	 * Get the payload of this message, decoding it first if its decoding
+	 * was deferred (see ChannelOptions.decodeOnAccess). The decoded payload
+	 * is assigned to the data field, so it is only decoded once.
+	 * If the payload cannot be decoded, the error is logged, and the payload
+	 * is returned with as many transforms undone as was possible; the encoding
+	 * field then indicates the transforms remaining.
+	 * @return the payload
+	 */
+	public Object getData() {
+		if(decodePending)
+			decodeDeferred();
+		return data;
+	}
+
+	private synchronized void decodeDeferred() {
+		if(!decodePending)
+			return;
+		try {
+			decode(decodeOptions);
+		} catch(AblyException e) {
+			Log.e(TAG, "Unexpected exception decoding message", e);
+		} finally {
+			/* cleared only once decoding is complete, so that a reader that
+			 * sees it cleared without taking the lock also sees the decoded
+			 * data and encoding */
+			decodeOptions = null;
+			decodePending = false;
 		}
-		if(opts != null && opts.encrypted) {
-			if(data instanceof String) {
-				try { data = ((String)data).getBytes("UTF-8"); } catch(UnsupportedEncodingException e) {}
-				encoding = ((encoding == null) ? "" : encoding + "/") + "utf-8";
-			}
-			if(!(data instanceof byte[])) {
-				throw new AblyException("Unable to encode message data (incompatible type)", 400, 40000);
+	}
+
+	public void encode(ChannelOptions opts) throws AblyException {
+		/* a payload received encrypted, whose decoding was deferred, is forwarded
+		 * as received, unless it is to be encrypted again */
+		if(decodePending && opts != null && opts.encrypted)
+			decodeDeferred();
+		for(Codec stage : CodecPipeline.encodeStages()) {
+			if(stage.canEncode(data, opts)) {
+				data = stage.encode(data, opts);
+				encoding = CodecPipeline.forEncoding(encoding).append(stage.getTransform(opts));
 			}
-			ChannelCipher cipher = opts.getCipher();
-			data = cipher.encrypt((byte[])data);
-			encoding = ((encoding == null) ? "" : encoding + "/") + "cipher+" + cipher.getAlgorithm();
 		}
 	}
 
@@ -217,17 +359,83 @@ public class BaseMessage implements Cloneable {
 			packer.write("data");
 			if(data instanceof byte[])
 				packer.write((byte[])data);
+			else if(data instanceof ByteBuffer)
+				packer.write(((ByteBuffer)data).duplicate());
 			else
 				packer.write(data.toString());
 		}
 	}
 
-	/* trivial utilities for processing encoding string */
-	private static Pattern xformPattern = Pattern.compile("([\\-\\w]+)(\\+([\\-\\w]+))?");
-	private String join(String[] elements, char separator, int start, int end) {
-		StringBuilder result = new StringBuilder(elements[start++]);
-		for(int i = start; i < end; i++)
-			result.append(separator).append(elements[i]);
-		return result.toString();
+	public boolean readField(MsgpackReader reader) throws IOException {
+		boolean result = true;
+		if(reader.fieldIs(TIMESTAMP)) {
+			timestamp = reader.readLong();
+		} else if(reader.fieldIs(ID)) {
+			id = reader.readString();
+		} else if(reader.fieldIs(CLIENT_ID)) {
+			clientId = reader.readString();
+		} else if(reader.fieldIs(CONNECTION_ID)) {
+			connectionId = reader.readString();
+		} else if(reader.fieldIs(ENCODING)) {
+			encoding = reader.readString();
+		} else if(reader.fieldIs(DATA)) {
+			if(!reader.nextIsBinary())
+				data = reader.readString();
+			else if(reader.slicesBinary())
+				data = reader.readBinaryBuffer();
+			else
+				data = reader.readBinary();
+		} else {
+			result = false;
+		}
+		return result;
+	}
+
+	public void writeFields(MsgpackWriter writer) {
+		if(timestamp > 0) {
+			writer.writeFieldName(TIMESTAMP);
+			writer.writeLong(timestamp);
+		}
+		if(clientId != null) {
+			writer.writeFieldName(CLIENT_ID);
+			writer.writeString(clientId);
+		}
+		if(connectionId != null) {
+			writer.writeFieldName(CONNECTION_ID);
+			writer.writeString(connectionId);
+		}
+		if(encoding != null) {
+			writer.writeFieldName(ENCODING);
+			writer.writeString(encoding);
+		}
+		if(data != null) {
+			writer.writeFieldName(DATA);
+			if(data instanceof byte[])
+				writer.writeBinary((byte[])data);
+			else if(data instanceof ByteBuffer)
+				writer.writeBinary((ByteBuffer)data);
+			else
+				writer.writeString(data.toString());
+		}
+	}
+
+	/* field names for msgpack encoding/decoding */
+	private static final byte[] TIMESTAMP = MsgpackReader.fieldName("timestamp");
+	private static final byte[] ID = MsgpackReader.fieldName("id");
+	private static final byte[] CLIENT_ID = MsgpackReader.fieldName("clientId");
+	private static final byte[] CONNECTION_ID = MsgpackReader.fieldName("connectionId");
+	private static final byte[] ENCODING = MsgpackReader.fieldName("encoding");
+	private static final byte[] DATA = MsgpackReader.fieldName("data");
+
+	private String parentId;
+	private int parentIndex;
+	private volatile boolean decodePending;
+	private ChannelOptions decodeOptions;
+
+	private static final String TAG = BaseMessage.class.getName();
+	static byte[] toByteArray(ByteBuffer buf) {
+		byte[] result = new byte[buf.remaining()];
+		buf.duplicate().get(result);
+		return result;
 	}
 }
@@ -0,0 +1,20 @@
+package io.ably.types;
+
+/**
+ * An interface whereby a client may be notified of the result
+ * of an asynchronous request.
+ * @param <T> the type of the result
+ */
+public interface Callback<T> {
+	/**
+	 * Called when the request completes successfully.
+	 * @param result: the result of the request
+	 */
+	public void onSuccess(T result);
+
+	/**
+	 * Called when the request fails.
+	 * @param reason: information about the error.
+	 */
+	public void onError(ErrorInfo reason);
+}
@@ -3,15 +3,61 @@ package io.ably.types;
 import io.ably.util.Crypto;
 import io.ably.util.Crypto.ChannelCipher;
 
+import java.util.concurrent.Executor;
+
 public class ChannelOptions {
 	public boolean encrypted;
 	public Object cipherParams;
 
+	/**
+	 * If true, binary message data received on a realtime connection is
+	 * delivered as a read-only java.nio.ByteBuffer that is a view of the
+	 * received frame, instead of being copied into a byte[].
+	 */
+	public boolean binaryDataAsByteBuffer;
+
+	/**
+	 * If true, the payload of each message received on a realtime channel
+	 * is decoded, and decrypted, only when first accessed with Message.getData().
+	 * Until then, the data and encoding fields of the message hold the payload
+	 * as received; so a subscriber that does not access the payload, or that
+	 * forwards messages unchanged, does not incur the cost of decoding it.
+	 * Presence message payloads are always decoded on receipt.
+	 */
+	public boolean decodeOnAccess;
+
+	/**
+	 * Limits on the messages published on a realtime channel that are
+	 * queued awaiting attachment of the channel, and the action to take
+	 * when a publish would exceed them. If null, the queue is not limited.
+	 * Once attached, messages are subject to the connection limits
+	 * (see ClientOptions.connectionQueueLimits).
+	 */
+	public QueueLimits queueLimits;
+
+	/**
+	 * The executor on which listeners for this channel are called,
+	 * overriding ClientOptions.dispatchExecutor. Callbacks for the channel
+	 * are made in order, one at a time.
+	 */
+	public Executor dispatchExecutor;
+
 	public ChannelCipher getCipher() throws AblyException {
 		if(!encrypted) return null;
 		if(cipher != null) return cipher;
 		return (cipher = Crypto.getCipher(this));
 	}
 
+	/**
+	 * Internal: get the transform, as it appears in a message encoding,
+	 * applied by this channel's cipher
+	 */
+	String getCipherEncoding() throws AblyException {
+		if(cipherEncoding == null)
+			cipherEncoding = "cipher+" + getCipher().getAlgorithm();
+		return cipherEncoding;
+	}
+
 	private ChannelCipher cipher;
+	private String cipherEncoding;
 }
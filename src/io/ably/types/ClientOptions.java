@@ -1,9 +1,17 @@
 package io.ably.types;
 
+import io.ably.http.HostHealth;
+import io.ably.http.HttpEngine;
+import io.ably.realtime.ChannelProgressListener;
+import io.ably.rest.ClientRuntime;
 import io.ably.rest.Auth.AuthOptions;
+import io.ably.transport.Defaults;
 import io.ably.util.Log.LogHandler;
+import io.ably.util.SerialExecutor;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Options: Ably library options for REST and Realtime APIs
@@ -100,6 +108,193 @@ public class ClientOptions extends AuthOptions {
 	 */
 	public boolean echoMessages = true;
 
+	/**
+	 * The maximum number of messages that may be sent on a realtime connection
+	 * without having been acknowledged. When this limit is reached, further
+	 * messages are held in the outbound queue until acknowledgements are received.
+	 * If zero, the number of in-flight messages is not limited.
+	 */
+	public int maxInFlightMessages;
+
+	/**
+	 * The maximum approximate size in bytes of the message payloads that may be
+	 * sent on a realtime connection without having been acknowledged. When this
+	 * limit is reached, further messages are held in the outbound queue until
+	 * acknowledgements are received. If zero, the size is not limited.
+	 */
+	public long maxInFlightBytes;
+
+	/**
+	 * Limits on the messages held by a realtime connection awaiting send,
+	 * either because the connection is not yet connected or because the
+	 * in-flight limits have been reached; and the action to take when a
+	 * publish would exceed them. If null, the queue is not limited.
+	 */
+	public QueueLimits connectionQueueLimits;
+
+	/**
+	 * The scheduler on which realtime connection state changes, timers
+	 * and outbound message writes are processed. If null, a pool of daemon
+	 * threads shared by all clients in the JVM is used, so the number of
+	 * library threads does not grow with the number of clients.
+	 * The scheduler may have any number of threads; each connection's
+	 * tasks are serialised. Tasks may block for the duration of a connection
+	 * attempt. To use virtual threads, specify
+	 * a scheduler created with a virtual thread factory, eg
+	 * Executors.newScheduledThreadPool(0, Thread.ofVirtual().factory()).
+	 * The scheduler is not shut down by the library.
+	 */
+	public ScheduledExecutorService scheduler;
+
+	/**
+	 * The executor on which listeners for realtime messages, presence, and
+	 * channel and connection state changes are called. Each channel, and the
+	 * connection, has its own ordered queue of callbacks, so callbacks for any
+	 * one channel are made in order, one at a time, while callbacks for different
+	 * channels may be made in parallel on different threads of the executor.
+	 * If null, listeners are called directly by the thread that processes
+	 * the received message or state change, so a slow listener delays the
+	 * processing of all subsequent messages on the connection.
+	 * The executor is not shut down by the library.
+	 */
+	public Executor dispatchExecutor;
+
+	/**
+	 * The number of callbacks queued for a channel, or for the connection,
+	 * awaiting execution on the dispatchExecutor, beyond which
+	 * dispatchOverflowPolicy applies. The processing of received messages
+	 * never waits for queued callbacks.
+	 */
+	public int dispatchQueueCapacity = 1024;
+
+	/**
+	 * The action taken when a message is received for a channel whose queue
+	 * of callbacks is at dispatchQueueCapacity. Only message deliveries may be
+	 * dropped; state changes and presence updates are always queued.
+	 * By default the queue grows beyond its capacity.
+	 */
+	public SerialExecutor.OverflowPolicy dispatchOverflowPolicy = SerialExecutor.OverflowPolicy.QUEUE;
+
+	/**
+	 * The factory for the engine used to make REST requests. If null,
+	 * the default engine, based on Apache HttpClient, is used.
+	 */
+	public HttpEngine.Factory httpEngineFactory;
+
+	/**
+	 * The timeout in milliseconds for opening a connection for a REST request.
+	 */
+	public int httpOpenTimeout = Defaults.httpOpenTimeout;
+
+	/**
+	 * The timeout in milliseconds for awaiting data on the connection
+	 * of a REST request, once it is open.
+	 */
+	public int httpRequestTimeout = Defaults.httpRequestTimeout;
+
+	/**
+	 * The maximum number of pooled HTTP connections for REST requests.
+	 * If the client has a runtime, the runtime's pool is used instead.
+	 */
+	public int httpMaxConnections = Defaults.httpMaxConnections;
+
+	/**
+	 * The maximum number of pooled HTTP connections to any one host. REST
+	 * requests to a host wait for a pooled connection once this limit is
+	 * reached, so this limits the number of concurrent requests. If the
+	 * client has a runtime, the runtime's pool is used instead.
+	 */
+	public int httpMaxConnectionsPerHost = Defaults.httpMaxConnectionsPerHost;
+
+	/**
+	 * The maximum time in milliseconds for which an idle HTTP connection
+	 * is kept alive for reuse. If zero, a connection is kept alive for
+	 * the time indicated by the server, or indefinitely if none is indicated.
+	 */
+	public long httpKeepAliveTime;
+
+	/**
+	 * Pooled HTTP connections that have been idle for longer than this time
+	 * in milliseconds are closed, so that connections closed by the server
+	 * are not reused. If zero, idle connections are not closed. If the client
+	 * has a runtime, the runtime's pool is used instead.
+	 */
+	public long httpIdleTimeout = Defaults.httpIdleTimeout;
+
+	/**
+	 * A runtime whose HTTP connection pool and scheduler are shared with
+	 * other clients; this allows many clients, each with its own key and
+	 * options, to be instanced without each having its own pool of connections.
+	 * If null, each client has its own HTTP connection pool.
+	 */
+	public ClientRuntime runtime;
+
+	/**
+	 * The executor on which asynchronous REST requests (eg Channel.publishAsync),
+	 * and the requests of hedged GET requests (see hedgeIdempotentRequests),
+	 * are made. If null, a pool of daemon threads shared by all clients is used.
+	 * The executor is not shut down by the library.
+	 */
+	public Executor asyncHttpExecutor;
+
+	/**
+	 * The maximum number of asynchronous REST requests in progress at any time.
+	 * Further requests are held, without blocking the caller, until an earlier
+	 * request completes.
+	 */
+	public int maxAsyncHttpRequests = 64;
+
+	/**
+	 * The time in milliseconds for which a fallback host, once it has succeeded
+	 * where the default host failed, is used in preference to the default host
+	 * by REST requests and realtime connection attempts. If the client has a
+	 * runtime, the runtime's preference timeout applies instead.
+	 */
+	public long fallbackRetryTimeout = HostHealth.DEFAULT_PREFERENCE_TIMEOUT;
+
+	/**
+	 * If true, a REST GET request (eg history, presence or stats) that has
+	 * received no response after the 95th percentile of recent request
+	 * latencies is repeated to a fallback host, and the first successful
+	 * response received is used. This reduces tail latency when a host is slow or
+	 * unreachable, at the cost of some additional requests.
+	 */
+	public boolean hedgeIdempotentRequests;
+
+	/**
+	 * Publish batching: if non-zero, messages published on a realtime channel
+	 * while connected may be delayed by up to this number of milliseconds so
+	 * that they can be sent, together with other messages published on the
+	 * same channel, in a single protocol message. Each publish still receives
+	 * its own completion callback. Batching is disabled by default.
+	 */
+	public long publishBatchDelay;
+
+	/**
+	 * Publish batching: the maximum number of messages in a batch.
+	 */
+	public int publishBatchMaxMessages = 100;
+
+	/**
+	 * Publish batching: the maximum approximate size in bytes of the
+	 * message payloads in a batch.
+	 */
+	public int publishBatchMaxBytes = 65536;
+
+	/**
+	 * The maximum number of channel attach or detach requests awaiting a response
+	 * when attaching or detaching channels in bulk (see AblyRealtime.Channels.attach),
+	 * and when sending the attach requests of channels on (re)connection.
+	 * If zero, the number of requests is not limited.
+	 */
+	public int channelRequestWindow = 100;
+
+	/**
+	 * A listener to be notified of the progress of reattaching channels
+	 * each time the connection becomes connected.
+	 */
+	public ChannelProgressListener channelRecoveryListener;
+
 	/**
 	 * A connection recovery string, specified by a client when initialising the library
 	 * with the intention of inheriting the state of an earlier connection. See the Ably
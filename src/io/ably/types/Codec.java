@@ -0,0 +1,57 @@
+package io.ably.types;
+
+/**
+ * A transform that may be applied to a message payload, named
+ * in the encoding of the message. Codecs are registered by name
+ * with {@link Codecs#register}; they are used to undo the transforms
+ * listed in the encoding of received messages, and to apply the
+ * transforms named by {@link Codecs#setEncodeTransforms} to the
+ * payloads of messages that are sent.
+ */
+public interface Codec {
+	/**
+	 * Determine whether or not this transform can be undone for a given payload.
+	 * If not, decoding stops, and this transform, and any preceding it, remain
+	 * in the encoding of the message.
+	 * @param data: the payload
+	 * @param opts: the options of the channel on which the message was received, or null
+	 * @return
+	 */
+	public boolean canDecode(Object data, ChannelOptions opts);
+
+	/**
+	 * Undo this transform.
+	 * @param data: the payload
+	 * @param opts: the options of the channel on which the message was received, or null
+	 * @return the decoded payload
+	 * @throws AblyException if the payload cannot be decoded
+	 */
+	public Object decode(Object data, ChannelOptions opts) throws AblyException;
+
+	/**
+	 * Determine whether or not this transform is to be applied to a given
+	 * payload. If not, the payload is passed unchanged to the next transform.
+	 * @param data: the payload
+	 * @param opts: the options of the channel on which the message is sent, or null
+	 * @return
+	 */
+	public boolean canEncode(Object data, ChannelOptions opts);
+
+	/**
+	 * Apply this transform.
+	 * @param data: the payload
+	 * @param opts: the options of the channel on which the message is sent, or null
+	 * @return the encoded payload
+	 * @throws AblyException if the payload cannot be encoded
+	 */
+	public Object encode(Object data, ChannelOptions opts) throws AblyException;
+
+	/**
+	 * Get the name of this transform as it is to be appended to the encoding
+	 * of a message to which it has been applied; eg "utf-8" or "cipher+aes-128-cbc"
+	 * @param opts: the options of the channel on which the message is sent, or null
+	 * @return
+	 * @throws AblyException
+	 */
+	public String getTransform(ChannelOptions opts) throws AblyException;
+}
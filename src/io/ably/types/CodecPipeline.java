@@ -0,0 +1,171 @@
+package io.ably.types;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CodecPipeline: internal
+ * The sequence of codecs that undo the transforms named in a message
+ * encoding string, compiled once per distinct encoding string and shared
+ * by all messages with that encoding. Also holds the sequence of codecs
+ * applied to the payloads of messages that are sent, and caches the
+ * encoding strings that result from applying those transforms, so that
+ * encoding a message does not build strings.
+ * Compiled pipelines are held in a cache of bounded size, from which the
+ * least recently used are evicted.
+ */
+class CodecPipeline {
+
+	/**
+	 * Get the pipeline for the given encoding string
+	 * @param encoding: the encoding string, eg "utf-8/cipher+aes-128-cbc/base64",
+	 * or null if the payload is not encoded
+	 * @return the pipeline
+	 */
+	static CodecPipeline forEncoding(String encoding) {
+		if(encoding == null)
+			return EMPTY;
+		CodecPipeline pipeline = cache.get(encoding);
+		if(pipeline == null) {
+			pipeline = new CodecPipeline(encoding);
+			CodecPipeline existing = cache.putIfAbsent(encoding, pipeline);
+			if(existing != null)
+				pipeline = existing;
+			else if(cache.size() > MAX_CACHED_PIPELINES)
+				evict();
+			clock.incrementAndGet();
+		}
+		/* only write when the clock has moved on, to avoid
+		 * contended writes to commonly used pipelines */
+		long now = clock.get();
+		if(pipeline.lastUsed != now)
+			pipeline.lastUsed = now;
+		return pipeline;
+	}
+
+	/**
+	 * Get the codecs that are applied, in order, to the payload of a message
+	 * that is sent; transforms that have no registered codec are omitted
+	 * @return the codecs
+	 */
+	static Codec[] encodeStages() {
+		Codec[] stages = encodeStages;
+		if(stages == null) {
+			String[] names = Codecs.getEncodeTransforms();
+			Codec[] resolved = new Codec[names.length];
+			int count = 0;
+			for(String name : names) {
+				Codec codec = Codecs.get(name);
+				if(codec != null)
+					resolved[count++] = codec;
+			}
+			stages = new Codec[count];
+			System.arraycopy(resolved, 0, stages, 0, count);
+			encodeStages = stages;
+		}
+		return stages;
+	}
+
+	/**
+	 * Discard all compiled pipelines; called when the codec registry changes
+	 */
+	static void clearCache() {
+		cache.clear();
+		encodeStages = null;
+	}
+
+	private CodecPipeline(String encoding) {
+		this.encoding = encoding;
+		if(encoding == null) {
+			stages = new Codec[0];
+			remaining = new String[] {null};
+			return;
+		}
+		String[] elements = encoding.split("\\/");
+		int count = elements.length;
+		/* transforms are undone in the reverse of the order they are listed;
+		 * decoding stops at the first element that is not a valid transform,
+		 * or that has no registered codec */
+		Codec[] stages = new Codec[count];
+		int valid = 0;
+		while(valid < count) {
+			Matcher match = xformPattern.matcher(elements[count - 1 - valid]);
+			if(!match.matches()) break;
+			Codec codec = Codecs.get(match.group(1));
+			if(codec == null) break;
+			stages[valid++] = codec;
+		}
+		this.stages = new Codec[valid];
+		System.arraycopy(stages, 0, this.stages, 0, valid);
+		/* remaining[k] is the encoding once k transforms have been undone */
+		this.remaining = new String[valid + 1];
+		for(int k = 0; k <= valid; k++)
+			remaining[k] = (k == count) ? null : join(elements, '/', 0, count - k);
+	}
+
+	/**
+	 * Get the encoding string that results from applying a further transform
+	 * to a payload with this pipeline's encoding
+	 * @param transform: the transform, eg "json" or "cipher+aes-128-cbc"
+	 * @return the resulting encoding string
+	 */
+	String append(String transform) {
+		if(encoding == null)
+			return transform;
+		String result = appended.get(transform);
+		if(result == null) {
+			result = encoding + '/' + transform;
+			if(appended.size() < MAX_APPENDED)
+				appended.put(transform, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Evict the least recently used pipelines until the cache is within its bound
+	 */
+	private static synchronized void evict() {
+		while(cache.size() > MAX_CACHED_PIPELINES) {
+			Map.Entry<String, CodecPipeline> oldest = null;
+			for(Map.Entry<String, CodecPipeline> entry : cache.entrySet())
+				if(oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed)
+					oldest = entry;
+			if(oldest == null)
+				return;
+			cache.remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	private static String join(String[] elements, char separator, int start, int end) {
+		StringBuilder result = new StringBuilder(elements[start++]);
+		for(int i = start; i < end; i++)
+			result.append(separator).append(elements[i]);
+		return result.toString();
+	}
+
+	/**
+	 * The codecs that undo the transforms, in the order they are to be applied
+	 */
+	final Codec[] stages;
+
+	/**
+	 * The encoding string that remains once a given number of transforms have
+	 * been undone; null once all transforms have been undone
+	 */
+	final String[] remaining;
+
+	private final String encoding;
+	private final ConcurrentHashMap<String, String> appended = new ConcurrentHashMap<String, String>();
+	private volatile long lastUsed;
+
+	private static final int MAX_CACHED_PIPELINES = 256;
+	private static final int MAX_APPENDED = 16;
+	private static final CodecPipeline EMPTY = new CodecPipeline(null);
+	private static final ConcurrentHashMap<String, CodecPipeline> cache = new ConcurrentHashMap<String, CodecPipeline>();
+	private static final AtomicLong clock = new AtomicLong();
+	private static volatile Codec[] encodeStages;
+	private static final Pattern xformPattern = Pattern.compile("([\\-\\w]+)(\\+([\\-\\w]+))?");
+}
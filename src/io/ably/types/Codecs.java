@@ -0,0 +1,172 @@
+package io.ably.types;
+
+import io.ably.util.Base64Coder;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Codecs
+ * The registry of the transforms that may be named in message encodings.
+ * The base64, utf-8, json and cipher transforms are built in; applications
+ * may register further codecs to decode payloads with custom encodings,
+ * and may name registered codecs to be applied to payloads that are sent.
+ */
+public class Codecs {
+
+	/**
+	 * Register a codec, replacing any codec already registered with the same name
+	 * @param name: the transform name, as it appears in an encoding; eg "base64".
+	 * For a transform with a parameter, such as "cipher+aes-128-cbc", the name
+	 * is the part preceding the '+'
+	 * @param codec: the codec
+	 */
+	public static void register(String name, Codec codec) {
+		codecs.put(name, codec);
+		CodecPipeline.clearCache();
+	}
+
+	/**
+	 * Remove a registered codec
+	 * @param name: the transform name
+	 */
+	public static void unregister(String name) {
+		codecs.remove(name);
+		CodecPipeline.clearCache();
+	}
+
+	/**
+	 * Get the codec registered with the given name
+	 * @param name: the transform name
+	 * @return the codec, or null if there is none
+	 */
+	public static Codec get(String name) {
+		return codecs.get(name);
+	}
+
+	/**
+	 * Set the transforms that are applied, in the given order, to the payload
+	 * of each message that is sent; each is applied only if its codec's
+	 * canEncode() returns true for the payload at that point.
+	 * The default is "json", "utf-8", "cipher".
+	 * @param names: the transform names, each of a registered codec
+	 */
+	public static void setEncodeTransforms(String... names) {
+		encodeTransforms = names.clone();
+		CodecPipeline.clearCache();
+	}
+
+	/**
+	 * Internal: get the transforms applied to the payload of each message sent
+	 */
+	static String[] getEncodeTransforms() {
+		return encodeTransforms;
+	}
+
+	/*****************
+	 * built-in codecs
+	 *****************/
+
+	static final Codec BASE64 = new Codec() {
+		@Override
+		public boolean canDecode(Object data, ChannelOptions opts) { return data instanceof String; }
+		@Override
+		public Object decode(Object data, ChannelOptions opts) { return Base64Coder.decode((String)data); }
+		/* binary payloads are base64-encoded only in the JSON representation
+		 * of a message, when it is serialized; see BaseMessage.toJSON() */
+		@Override
+		public boolean canEncode(Object data, ChannelOptions opts) { return false; }
+		@Override
+		public Object encode(Object data, ChannelOptions opts) {
+			if(data instanceof ByteBuffer)
+				data = BaseMessage.toByteArray((ByteBuffer)data);
+			return new String(Base64Coder.encode((byte[])data));
+		}
+		@Override
+		public String getTransform(ChannelOptions opts) { return "base64"; }
+	};
+
+	static final Codec UTF8 = new Codec() {
+		@Override
+		public boolean canDecode(Object data, ChannelOptions opts) { return data instanceof byte[] || data instanceof ByteBuffer; }
+		@Override
+		public Object decode(Object data, ChannelOptions opts) {
+			if(data instanceof ByteBuffer)
+				return utf8.decode(((ByteBuffer)data).duplicate()).toString();
+			try {
+				return new String((byte[])data, "UTF-8");
+			} catch(UnsupportedEncodingException e) { return data; }
+		}
+		/* text is only converted to binary if it is to be encrypted */
+		@Override
+		public boolean canEncode(Object data, ChannelOptions opts) { return data instanceof String && opts != null && opts.encrypted; }
+		@Override
+		public Object encode(Object data, ChannelOptions opts) {
+			try {
+				return ((String)data).getBytes("UTF-8");
+			} catch(UnsupportedEncodingException e) { return data; }
+		}
+		@Override
+		public String getTransform(ChannelOptions opts) { return "utf-8"; }
+	};
+
+	static final Codec JSON = new Codec() {
+		@Override
+		public boolean canDecode(Object data, ChannelOptions opts) { return data instanceof String; }
+		@Override
+		public Object decode(Object data, ChannelOptions opts) throws AblyException {
+			try {
+				String jsonText = ((String)data).trim();
+				if(jsonText.charAt(0) == '[')
+					return new JSONArray(jsonText);
+				return new JSONObject(jsonText);
+			}
+			catch(JSONException e) { throw AblyException.fromThrowable(e); }
+		}
+		@Override
+		public boolean canEncode(Object data, ChannelOptions opts) { return data instanceof JSONObject || data instanceof JSONArray; }
+		@Override
+		public Object encode(Object data, ChannelOptions opts) { return data.toString(); }
+		@Override
+		public String getTransform(ChannelOptions opts) { return "json"; }
+	};
+
+	static final Codec CIPHER = new Codec() {
+		@Override
+		public boolean canDecode(Object data, ChannelOptions opts) { return opts != null && opts.encrypted; }
+		@Override
+		public Object decode(Object data, ChannelOptions opts) throws AblyException {
+			if(data instanceof ByteBuffer)
+				data = BaseMessage.toByteArray((ByteBuffer)data);
+			return opts.getCipher().decrypt((byte[])data);
+		}
+		@Override
+		public boolean canEncode(Object data, ChannelOptions opts) { return opts != null && opts.encrypted; }
+		@Override
+		public Object encode(Object data, ChannelOptions opts) throws AblyException {
+			if(data instanceof ByteBuffer)
+				data = BaseMessage.toByteArray((ByteBuffer)data);
+			if(!(data instanceof byte[]))
+				throw new AblyException("Unable to encode message data (incompatible type)", 400, 40000);
+			return opts.getCipher().encrypt((byte[])data);
+		}
+		@Override
+		public String getTransform(ChannelOptions opts) throws AblyException { return opts.getCipherEncoding(); }
+	};
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final ConcurrentHashMap<String, Codec> codecs = new ConcurrentHashMap<String, Codec>();
+	private static volatile String[] encodeTransforms = new String[] { "json", "utf-8", "cipher" };
+	static {
+		codecs.put("base64", BASE64);
+		codecs.put("utf-8", UTF8);
+		codecs.put("json", JSON);
+		codecs.put("cipher", CIPHER);
+	}
+}
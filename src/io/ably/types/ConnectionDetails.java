@@ -1,5 +1,8 @@
 package io.ably.types;
 
+import io.ably.util.JsonReader;
+import io.ably.util.MsgpackReader;
+
 import java.io.IOException;
 
 import org.json.JSONObject;
@@ -62,4 +65,55 @@ public class ConnectionDetails implements MessagePackable {
 		}
 		unpacker.readMapEnd(true);
 	}
+
+	void readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.nextField()) {
+			if(reader.tryReadNull()) continue;
+
+			if(reader.fieldIs("clientId")) {
+				clientId = reader.readString();
+			} else if(reader.fieldIs("connectionKey")) {
+				connectionKey = reader.readString();
+			} else if(reader.fieldIs("maxMessageSize")) {
+				maxMessageSize = reader.readLong();
+			} else if(reader.fieldIs("maxInboundRate")) {
+				maxInboundRate = reader.readLong();
+			} else if(reader.fieldIs("maxFrameSize")) {
+				maxFrameSize = reader.readLong();
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void readMsgpack(MsgpackReader reader) throws IOException {
+		int fieldCount = reader.readMapHeader();
+		for(int i = 0; i < fieldCount; i++) {
+			reader.readFieldName();
+			if(reader.tryReadNil()) continue;
+
+			if(reader.fieldIs(CLIENT_ID)) {
+				clientId = reader.readString();
+			} else if(reader.fieldIs(CONNECTION_KEY)) {
+				connectionKey = reader.readString();
+			} else if(reader.fieldIs(MAX_MESSAGE_SIZE)) {
+				maxMessageSize = reader.readLong();
+			} else if(reader.fieldIs(MAX_INBOUND_RATE)) {
+				maxInboundRate = reader.readLong();
+			} else if(reader.fieldIs(MAX_FRAME_SIZE)) {
+				maxFrameSize = reader.readLong();
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	private static final byte[] CLIENT_ID = MsgpackReader.fieldName("clientId");
+	private static final byte[] CONNECTION_KEY = MsgpackReader.fieldName("connectionKey");
+	private static final byte[] MAX_MESSAGE_SIZE = MsgpackReader.fieldName("maxMessageSize");
+	private static final byte[] MAX_INBOUND_RATE = MsgpackReader.fieldName("maxInboundRate");
+	private static final byte[] MAX_FRAME_SIZE = MsgpackReader.fieldName("maxFrameSize");
 }
@@ -1,7 +1,11 @@
 package io.ably.types;
 
+import io.ably.util.JsonReader;
+import io.ably.util.MsgpackReader;
+
 import java.io.IOException;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.msgpack.MessagePackable;
 import org.msgpack.packer.Packer;
@@ -119,4 +123,42 @@ public class ErrorInfo implements MessagePackable {
 		}
 		unpacker.readMapEnd(true);
 	}
+
+	/**
+	 * Internal: read an ErrorInfo from a JSON stream. Errors are uncommon,
+	 * so the raw JSON object is parsed in order to retain it for getRawJSON()
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static ErrorInfo fromJSON(JsonReader reader) throws IOException {
+		try {
+			return new ErrorInfo(new JSONObject(reader.readRawValue()));
+		} catch(JSONException e) {
+			throw new IOException("Invalid error in JSON text; err = " + e);
+		}
+	}
+
+	void readMsgpack(MsgpackReader reader) throws IOException {
+		int fieldCount = reader.readMapHeader();
+		for(int i = 0; i < fieldCount; i++) {
+			reader.readFieldName();
+			if(reader.tryReadNil()) continue;
+
+			if(reader.fieldIs(MESSAGE)) {
+				message = reader.readString();
+			} else if(reader.fieldIs(CODE)) {
+				code = reader.readInt();
+			} else if(reader.fieldIs(STATUS_CODE)) {
+				statusCode = reader.readInt();
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	private static final byte[] MESSAGE = MsgpackReader.fieldName("message");
+	private static final byte[] CODE = MsgpackReader.fieldName("code");
+	private static final byte[] STATUS_CODE = MsgpackReader.fieldName("statusCode");
 }
\ No newline at end of file
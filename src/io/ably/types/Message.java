@@ -1,10 +1,14 @@
 package io.ably.types;
 
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
+
 import java.io.IOException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.msgpack.MessagePack;
 import org.msgpack.MessagePackable;
 import org.msgpack.packer.Packer;
 import org.msgpack.type.ValueType;
@@ -35,6 +39,42 @@ public class Message extends BaseMessage implements MessagePackable {
 		return result;
 	}
 
+	/**
+	 * Internal: read a Message from a JSON stream
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static Message fromJSON(JsonReader reader) throws IOException {
+		Message result = new Message();
+		result.readJSON(reader);
+		return result;
+	}
+
+	void readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.nextField()) {
+			if(reader.tryReadNull()) continue;
+
+			if(reader.fieldIs("name")) {
+				name = reader.readString();
+			} else if(!readField(reader)) {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void writeJSON(JsonWriter writer) throws AblyException {
+		writer.beginObject();
+		writeFields(writer);
+		if(name != null) {
+			writer.writeFieldName("name");
+			writer.writeString(name);
+		}
+		writer.endObject();
+	}
+
 	/**
 	 * Internal: obtain a JSONObject from a Message
 	 * @return
@@ -50,6 +90,13 @@ public class Message extends BaseMessage implements MessagePackable {
 		}
 	}
 
+	@Override
+	public int getSize() {
+		int size = super.getSize();
+		if(name != null) size += name.length();
+		return size;
+	}
+
 	/**
 	 * Construct a message from a Msgpack-encoded response body.
 	 * @param packed: the response data
@@ -57,12 +104,24 @@ public class Message extends BaseMessage implements MessagePackable {
 	 */
 	public static Message fromMsgpack(byte[] packed) throws AblyException {
 		try {
-			return msgpack.read(packed, Message.class);
+			return fromMsgpack(new MsgpackReader(packed));
 		} catch (IOException ioe) {
 			throw AblyException.fromIOException(ioe);
 		}
 	}
 
+	/**
+	 * Internal: read a Message from a msgpack stream
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static Message fromMsgpack(MsgpackReader reader) throws IOException {
+		Message result = new Message();
+		result.readMsgpack(reader);
+		return result;
+	}
+
 	/**
 	 * Default constructor
 	 */
@@ -132,5 +191,31 @@ public class Message extends BaseMessage implements MessagePackable {
 		packer.writeMapEnd(true);
 	}
 
-	private static final MessagePack msgpack = new MessagePack();
+	void readMsgpack(MsgpackReader reader) throws IOException {
+		int fieldCount = reader.readMapHeader();
+		for(int i = 0; i < fieldCount; i++) {
+			reader.readFieldName();
+			if(reader.tryReadNil()) continue;
+			if(super.readField(reader)) continue;
+			if(reader.fieldIs(NAME)) {
+				name = reader.readString();
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void writeMsgpack(MsgpackWriter writer) {
+		int fieldCount = countFields();
+		if(name != null) ++fieldCount;
+		writer.writeMapHeader(fieldCount);
+		super.writeFields(writer);
+		if(name != null) {
+			writer.writeFieldName(NAME);
+			writer.writeString(name);
+		}
+	}
+
+	private static final byte[] NAME = MsgpackReader.fieldName("name");
 }
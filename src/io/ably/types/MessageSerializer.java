@@ -1,21 +1,18 @@
 package io.ably.types;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.util.ArrayList;
 
 import io.ably.http.Http;
 import io.ably.http.Http.BodyHandler;
 import io.ably.http.Http.RequestBody;
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.msgpack.MessagePack;
-import org.msgpack.packer.Packer;
-import org.msgpack.template.ListTemplate;
-import org.msgpack.template.Template;
 import org.msgpack.unpacker.Unpacker;
 
 /**
@@ -26,19 +23,39 @@ import org.msgpack.unpacker.Unpacker;
 public class MessageSerializer {
 
 	static Message[] readMsgpack(Unpacker unpacker) throws IOException {
-		List<Message> msgList = unpacker.read(listTmpl);
-		return msgList.toArray(new Message[msgList.size()]);
+		int count = unpacker.readArrayBegin();
+		Message[] result = new Message[count];
+		for(int i = 0; i < count; i++) {
+			Message message = new Message();
+			message.readFrom(unpacker);
+			result[i] = message;
+		}
+		unpacker.readArrayEnd(true);
+		return result;
+	}
+
+	static Message[] readMsgpack(MsgpackReader reader) throws IOException {
+		int count = reader.readArrayHeader();
+		Message[] result = new Message[count];
+		for(int i = 0; i < count; i++)
+			result[i] = Message.fromMsgpack(reader);
+		return result;
 	}
 
 	public static Message[] readMsgpack(byte[] packed) throws AblyException {
 		try {
-			Unpacker unpacker = msgpack.createUnpacker(new ByteArrayInputStream(packed));
-			return readMsgpack(unpacker);
+			return readMsgpack(new MsgpackReader(packed));
 		} catch(IOException ioe) {
 			throw AblyException.fromIOException(ioe);
 		}
 	}
 
+	static void writeMsgpack(Message[] messages, MsgpackWriter writer) {
+		writer.writeArrayHeader(messages.length);
+		for(Message message : messages)
+			message.writeMsgpack(writer);
+	}
+
 	public static Message[] readJSON(JSONArray json) {
 		int count = json.length();
 		Message[] result = new Message[count];
@@ -47,11 +64,19 @@ public class MessageSerializer {
 			return result;
 	}
 
+	static Message[] readJSON(JsonReader reader) throws IOException {
+		ArrayList<Message> result = new ArrayList<Message>();
+		reader.beginArray();
+		while(reader.nextElement())
+			result.add(Message.fromJSON(reader));
+		return result.toArray(new Message[result.size()]);
+	}
+
 	public static Message[] readJSON(String jsonText) throws AblyException {
 		try {
-			return readJSON(new JSONArray(jsonText));
-		} catch (JSONException e) {
-			throw AblyException.fromThrowable(e);
+			return readJSON(new JsonReader(jsonText));
+		} catch (IOException ioe) {
+			throw AblyException.fromIOException(ioe);
 		}
 	}
 
@@ -73,19 +98,21 @@ public class MessageSerializer {
 	}
 
 	public static RequestBody asJSONRequest(Message message) throws AblyException {
-		return new Http.JSONRequestBody(message.toJSON().toString());
+		JsonWriter writer = new JsonWriter();
+		message.writeJSON(writer);
+		return new Http.JSONRequestBody(writer.toString());
 	}
 
 	public static RequestBody asJSONRequest(Message[] messages) throws AblyException {
-		return new Http.JSONRequestBody(writeJSON(messages).toString());
+		JsonWriter writer = new JsonWriter();
+		writeJSON(messages, writer);
+		return new Http.JSONRequestBody(writer.toString());
 	}
 
 	public static byte[] asMsgpack(Message message) throws AblyException {
-		try {
-			return msgpack.write(message);
-		} catch (IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+		MsgpackWriter writer = new MsgpackWriter();
+		message.writeMsgpack(writer);
+		return writer.toByteArray();
 	}
 
 	public static RequestBody asMsgpackRequest(Message message) throws AblyException {
@@ -93,14 +120,16 @@ public class MessageSerializer {
 	}
 
 	public static RequestBody asMsgpackRequest(Message[] messages) throws AblyException {
-		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			Packer packer = msgpack.createPacker(out);
-			listTmpl.write(packer, Arrays.asList(messages));
-			return new Http.ByteArrayRequestBody(out.toByteArray());
-		} catch(IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+		MsgpackWriter writer = new MsgpackWriter();
+		writeMsgpack(messages, writer);
+		return new Http.ByteArrayRequestBody(writer.toByteArray());
+	}
+
+	static void writeJSON(Message[] messages, JsonWriter writer) throws AblyException {
+		writer.beginArray();
+		for(Message message : messages)
+			message.writeJSON(writer);
+		writer.endArray();
 	}
 
 	public static BodyHandler<Message> getMessageResponseHandler(ChannelOptions opts) {
@@ -128,7 +157,5 @@ public class MessageSerializer {
 	}
 
 	private static BodyHandler<Message> messageResponseHandler = new MessageBodyHandler(null);
-	private static final MessagePack msgpack = new MessagePack();
-	private static final Template<List<Message>> listTmpl = new ListTemplate<Message>(msgpack.lookup(Message.class));
 
 }
@@ -2,22 +2,20 @@ package io.ably.types;
 
 import io.ably.http.Http;
 import io.ably.http.Http.RequestBody;
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.msgpack.MessagePack;
 import org.msgpack.MessagePackable;
 import org.msgpack.annotation.Message;
 import org.msgpack.annotation.OrdinalEnum;
 import org.msgpack.packer.Packer;
-import org.msgpack.template.ListTemplate;
-import org.msgpack.template.Template;
 import org.msgpack.type.ValueType;
 import org.msgpack.unpacker.Unpacker;
 
@@ -79,12 +77,58 @@ public class PresenceMessage extends BaseMessage implements MessagePackable, Clo
 	 */
 	public static PresenceMessage fromMsgpack(byte[] packed) throws AblyException {
 		try {
-			return (new MessagePack()).read(packed, PresenceMessage.class);
+			return fromMsgpack(new MsgpackReader(packed));
 		} catch (IOException ioe) {
 			throw AblyException.fromIOException(ioe);
 		}
 	}
 
+	/**
+	 * Internal: read a PresenceMessage from a msgpack stream
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static PresenceMessage fromMsgpack(MsgpackReader reader) throws IOException {
+		PresenceMessage result = new PresenceMessage();
+		result.readMsgpack(reader);
+		return result;
+	}
+
+	/**
+	 * Internal: read a PresenceMessage from a JSON stream
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static PresenceMessage fromJSON(JsonReader reader) throws IOException {
+		PresenceMessage result = new PresenceMessage();
+		result.readJSON(reader);
+		return result;
+	}
+
+	void readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.nextField()) {
+			if(reader.tryReadNull()) continue;
+
+			if(reader.fieldIs("action")) {
+				action = Action.findByValue(reader.readInt());
+			} else if(!readField(reader)) {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void writeJSON(JsonWriter writer) throws AblyException {
+		writer.beginObject();
+		writeFields(writer);
+		writer.writeFieldName("action");
+		writer.writeLong(action.getValue());
+		writer.endObject();
+	}
+
 	/**
 	 * Internal: obtain a JSONObject from a PresenceMessage
 	 * @return
@@ -107,7 +151,9 @@ public class PresenceMessage extends BaseMessage implements MessagePackable, Clo
 	 * @throws AblyException
 	 */
 	public static RequestBody asJSONRequest(PresenceMessage message) throws AblyException {
-		return new Http.JSONRequestBody(message.toJSON().toString());
+		JsonWriter writer = new JsonWriter();
+		message.writeJSON(writer);
+		return new Http.JSONRequestBody(writer.toString());
 	}
 
 	/**
@@ -136,21 +182,19 @@ public class PresenceMessage extends BaseMessage implements MessagePackable, Clo
 	 * @throws AblyException
 	 */
 	public static RequestBody asJSONRequest(PresenceMessage[] messages) throws AblyException {
-		return new Http.JSONRequestBody(asJSON(messages).toString());
+		JsonWriter writer = new JsonWriter();
+		PresenceSerializer.writeJSON(messages, writer);
+		return new Http.JSONRequestBody(writer.toString());
 	}
 
 	/**
-	 * Internal: obtain a Msgpack representation of a single Message
+	 * Internal: obtain a Msgpack representation of a single PresenceMessage
 	 * @param message
 	 * @return
 	 * @throws AblyException
 	 */
-	public static byte[] asMsgpack(Message message) throws AblyException {
-		try {
-			return msgpack.write(message);
-		} catch (IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+	public static byte[] asMsgpack(PresenceMessage message) throws AblyException {
+		return PresenceSerializer.asMsgpack(message);
 	}
 
 	/**
@@ -170,14 +214,7 @@ public class PresenceMessage extends BaseMessage implements MessagePackable, Clo
 	 * @throws AblyException
 	 */
 	public static RequestBody asMsgpackRequest(PresenceMessage[] messages) throws AblyException {
-		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			Packer packer = msgpack.createPacker(out);
-			listTmpl.write(packer, Arrays.asList(messages));
-			return new Http.ByteArrayRequestBody(out.toByteArray());
-		} catch(IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+		return PresenceSerializer.asMsgpackRequest(messages);
 	}
 
 	/**
@@ -259,6 +296,28 @@ public class PresenceMessage extends BaseMessage implements MessagePackable, Clo
 		return result;
 	}
 
-	private static final MessagePack msgpack = new MessagePack();
-	private static final Template<List<PresenceMessage>> listTmpl = new ListTemplate<PresenceMessage>(msgpack.lookup(PresenceMessage.class));
+	void readMsgpack(MsgpackReader reader) throws IOException {
+		int fieldCount = reader.readMapHeader();
+		for(int i = 0; i < fieldCount; i++) {
+			reader.readFieldName();
+			if(reader.tryReadNil()) continue;
+			if(super.readField(reader)) continue;
+			if(reader.fieldIs(ACTION)) {
+				action = Action.findByValue(reader.readInt());
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void writeMsgpack(MsgpackWriter writer) {
+		int fieldCount = countFields() + 1; //action
+		writer.writeMapHeader(fieldCount);
+		super.writeFields(writer);
+		writer.writeFieldName(ACTION);
+		writer.writeLong(action.getValue());
+	}
+
+	private static final byte[] ACTION = MsgpackReader.fieldName("action");
 }
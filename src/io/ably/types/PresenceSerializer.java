@@ -1,16 +1,18 @@
 package io.ably.types;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.List;
+import java.util.ArrayList;
 
+import io.ably.http.Http;
 import io.ably.http.Http.BodyHandler;
+import io.ably.http.Http.RequestBody;
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.msgpack.MessagePack;
-import org.msgpack.template.ListTemplate;
-import org.msgpack.template.Template;
 import org.msgpack.unpacker.Unpacker;
 
 /**
@@ -21,19 +23,51 @@ import org.msgpack.unpacker.Unpacker;
 public class PresenceSerializer {
 
 	static PresenceMessage[] readMsgpack(Unpacker unpacker) throws IOException {
-		List<PresenceMessage> msgList = unpacker.read(listTmpl);
-		return msgList.toArray(new PresenceMessage[msgList.size()]);
+		int count = unpacker.readArrayBegin();
+		PresenceMessage[] result = new PresenceMessage[count];
+		for(int i = 0; i < count; i++) {
+			PresenceMessage message = new PresenceMessage();
+			message.readFrom(unpacker);
+			result[i] = message;
+		}
+		unpacker.readArrayEnd(true);
+		return result;
+	}
+
+	static PresenceMessage[] readMsgpack(MsgpackReader reader) throws IOException {
+		int count = reader.readArrayHeader();
+		PresenceMessage[] result = new PresenceMessage[count];
+		for(int i = 0; i < count; i++)
+			result[i] = PresenceMessage.fromMsgpack(reader);
+		return result;
 	}
 
 	public static PresenceMessage[] readMsgpack(byte[] packed) throws AblyException {
 		try {
-			Unpacker unpacker = msgpack.createUnpacker(new ByteArrayInputStream(packed));
-			return readMsgpack(unpacker);
+			return readMsgpack(new MsgpackReader(packed));
 		} catch(IOException ioe) {
 			throw AblyException.fromIOException(ioe);
 		}
 	}
 
+	static void writeMsgpack(PresenceMessage[] messages, MsgpackWriter writer) {
+		writer.writeArrayHeader(messages.length);
+		for(PresenceMessage message : messages)
+			message.writeMsgpack(writer);
+	}
+
+	public static byte[] asMsgpack(PresenceMessage message) {
+		MsgpackWriter writer = new MsgpackWriter();
+		message.writeMsgpack(writer);
+		return writer.toByteArray();
+	}
+
+	public static RequestBody asMsgpackRequest(PresenceMessage[] messages) {
+		MsgpackWriter writer = new MsgpackWriter();
+		writeMsgpack(messages, writer);
+		return new Http.ByteArrayRequestBody(writer.toByteArray());
+	}
+
 	public static PresenceMessage[] readJSON(JSONArray json) {
 		int count = json.length();
 		PresenceMessage[] result = new PresenceMessage[count];
@@ -42,11 +76,19 @@ public class PresenceSerializer {
 			return result;
 	}
 
+	static PresenceMessage[] readJSON(JsonReader reader) throws IOException {
+		ArrayList<PresenceMessage> result = new ArrayList<PresenceMessage>();
+		reader.beginArray();
+		while(reader.nextElement())
+			result.add(PresenceMessage.fromJSON(reader));
+		return result.toArray(new PresenceMessage[result.size()]);
+	}
+
 	public static PresenceMessage[] readJSON(String jsonText) throws AblyException {
 		try {
-			return readJSON(new JSONArray(jsonText));
-		} catch (JSONException e) {
-			throw AblyException.fromThrowable(e);
+			return readJSON(new JsonReader(jsonText));
+		} catch (IOException ioe) {
+			throw AblyException.fromIOException(ioe);
 		}
 	}
 
@@ -67,6 +109,13 @@ public class PresenceSerializer {
 		}
 	}
 
+	static void writeJSON(PresenceMessage[] messages, JsonWriter writer) throws AblyException {
+		writer.beginArray();
+		for(PresenceMessage message : messages)
+			message.writeJSON(writer);
+		writer.endArray();
+	}
+
 	public static BodyHandler<PresenceMessage> getPresenceResponseHandler(ChannelOptions opts) {
 		return opts == null ? presenceResponseHandler : new PresenceBodyHandler(opts);
 	}
@@ -91,6 +140,4 @@ public class PresenceSerializer {
 	};
 
 	private static PresenceBodyHandler presenceResponseHandler = new PresenceBodyHandler(null);
-	private static final MessagePack msgpack = new MessagePack();
-	private static final Template<List<PresenceMessage>> listTmpl = new ListTemplate<PresenceMessage>(msgpack.lookup(PresenceMessage.class));
 }
@@ -1,12 +1,16 @@
 package io.ably.types;
 
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
+
 import java.io.IOException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import org.msgpack.MessagePack;
 import org.msgpack.MessagePackable;
 import org.msgpack.packer.Packer;
 import org.msgpack.type.ValueType;
@@ -86,11 +90,7 @@ public class ProtocolMessage implements MessagePackable {
 	}
 
 	public static ProtocolMessage fromMsgpack(byte[] packed) throws AblyException {
-		try {
-			return msgpack.read(packed, ProtocolMessage.class);
-		} catch (IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+		return ProtocolSerializer.readMsgpack(packed);
 	}
 
 	private JSONObject toJSON() throws AblyException {
@@ -126,17 +126,13 @@ public class ProtocolMessage implements MessagePackable {
 	}
 
 	public static byte[] asMsgpack(ProtocolMessage message) throws AblyException {
-		try {
-			return msgpack.write(message);
-		} catch (IOException ioe) {
-			throw AblyException.fromIOException(ioe);
-		}
+		return ProtocolSerializer.toMsgpack(message);
 	}
 
 	public static boolean mergeTo(ProtocolMessage dest, ProtocolMessage src) {
 		boolean result = false;
 		Action action;
-		if(dest.channel == src.channel) {
+		if(dest.channel != null && dest.channel.equals(src.channel)) {
 			if((action = dest.action) == src.action) {
 				switch(action) {
 				case MESSAGE: {
@@ -152,8 +148,8 @@ public class ProtocolMessage implements MessagePackable {
 						PresenceMessage[] srcMessages = src.presence;
 						PresenceMessage[] destMessages = dest.presence;
 						PresenceMessage[] mergedMessages = dest.presence = new PresenceMessage[destMessages.length + srcMessages.length];
-						System.arraycopy(mergedMessages, 0, destMessages, 0, destMessages.length);
-						System.arraycopy(mergedMessages, destMessages.length, srcMessages, 0, srcMessages.length);
+						System.arraycopy(destMessages, 0, mergedMessages, 0, destMessages.length);
+						System.arraycopy(srcMessages, 0, mergedMessages, destMessages.length, srcMessages.length);
 						result = true;
 					}
 					break;
@@ -260,6 +256,144 @@ public class ProtocolMessage implements MessagePackable {
 		unpacker.readMapEnd(true);
 	}
 
+	void writeJSON(JsonWriter writer) throws AblyException {
+		writer.beginObject();
+		writer.writeFieldName("action");
+		writer.writeLong(action.getValue());
+		if(channel != null) {
+			writer.writeFieldName("channel");
+			writer.writeString(channel);
+		}
+		if(msgSerial != null) {
+			writer.writeFieldName("msgSerial");
+			writer.writeLong(msgSerial.longValue());
+		}
+		if(messages != null) {
+			writer.writeFieldName("messages");
+			MessageSerializer.writeJSON(messages, writer);
+		}
+		if(presence != null) {
+			writer.writeFieldName("presence");
+			PresenceSerializer.writeJSON(presence, writer);
+		}
+		writer.endObject();
+	}
+
+	void readJSON(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while(reader.nextField()) {
+			if(reader.tryReadNull()) continue;
+
+			if(reader.fieldIs("action")) {
+				action = Action.findByValue(reader.readInt());
+			} else if(reader.fieldIs("flags")) {
+				flags = reader.readInt();
+			} else if(reader.fieldIs("count")) {
+				count = reader.readInt();
+			} else if(reader.fieldIs("error")) {
+				error = ErrorInfo.fromJSON(reader);
+			} else if(reader.fieldIs("id")) {
+				id = reader.readString();
+			} else if(reader.fieldIs("channel")) {
+				channel = reader.readString();
+			} else if(reader.fieldIs("channelSerial")) {
+				channelSerial = reader.readString();
+			} else if(reader.fieldIs("connectionId")) {
+				connectionId = reader.readString();
+			} else if(reader.fieldIs("connectionKey")) {
+				connectionKey = reader.readString();
+			} else if(reader.fieldIs("connectionSerial")) {
+				connectionSerial = Long.valueOf(reader.readLong());
+			} else if(reader.fieldIs("msgSerial")) {
+				msgSerial = Long.valueOf(reader.readLong());
+			} else if(reader.fieldIs("timestamp")) {
+				timestamp = reader.readLong();
+			} else if(reader.fieldIs("messages")) {
+				messages = MessageSerializer.readJSON(reader);
+			} else if(reader.fieldIs("presence")) {
+				presence = PresenceSerializer.readJSON(reader);
+			} else if(reader.fieldIs("connectionDetails")) {
+				connectionDetails = new ConnectionDetails();
+				connectionDetails.readJSON(reader);
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
+	void writeMsgpack(MsgpackWriter writer) {
+		int fieldCount = 1; //action
+		if(channel != null) ++fieldCount;
+		if(msgSerial != null) ++fieldCount;
+		if(messages != null) ++fieldCount;
+		if(presence != null) ++fieldCount;
+		writer.writeMapHeader(fieldCount);
+		writer.writeFieldName(ACTION);
+		writer.writeLong(action.getValue());
+		if(channel != null) {
+			writer.writeFieldName(CHANNEL);
+			writer.writeString(channel);
+		}
+		if(msgSerial != null) {
+			writer.writeFieldName(MSG_SERIAL);
+			writer.writeLong(msgSerial.longValue());
+		}
+		if(messages != null) {
+			writer.writeFieldName(MESSAGES);
+			MessageSerializer.writeMsgpack(messages, writer);
+		}
+		if(presence != null) {
+			writer.writeFieldName(PRESENCE);
+			PresenceSerializer.writeMsgpack(presence, writer);
+		}
+	}
+
+	void readMsgpack(MsgpackReader reader) throws IOException {
+		int fieldCount = reader.readMapHeader();
+		for(int i = 0; i < fieldCount; i++) {
+			reader.readFieldName();
+			if(reader.tryReadNil()) continue;
+
+			if(reader.fieldIs(ACTION)) {
+				action = Action.findByValue(reader.readInt());
+			} else if(reader.fieldIs(FLAGS)) {
+				flags = reader.readInt();
+			} else if(reader.fieldIs(COUNT)) {
+				count = reader.readInt();
+			} else if(reader.fieldIs(ERROR)) {
+				error = new ErrorInfo();
+				error.readMsgpack(reader);
+			} else if(reader.fieldIs(ID)) {
+				id = reader.readString();
+			} else if(reader.fieldIs(CHANNEL)) {
+				channel = reader.readString();
+			} else if(reader.fieldIs(CHANNEL_SERIAL)) {
+				channelSerial = reader.readString();
+			} else if(reader.fieldIs(CONNECTION_ID)) {
+				connectionId = reader.readString();
+			} else if(reader.fieldIs(CONNECTION_KEY)) {
+				connectionKey = reader.readString();
+			} else if(reader.fieldIs(CONNECTION_SERIAL)) {
+				connectionSerial = Long.valueOf(reader.readLong());
+			} else if(reader.fieldIs(MSG_SERIAL)) {
+				msgSerial = Long.valueOf(reader.readLong());
+			} else if(reader.fieldIs(TIMESTAMP)) {
+				timestamp = reader.readLong();
+			} else if(reader.fieldIs(MESSAGES)) {
+				messages = MessageSerializer.readMsgpack(reader);
+			} else if(reader.fieldIs(PRESENCE)) {
+				presence = PresenceSerializer.readMsgpack(reader);
+			} else if(reader.fieldIs(CONNECTION_DETAILS)) {
+				connectionDetails = new ConnectionDetails();
+				connectionDetails.readMsgpack(reader);
+			} else {
+				/* unrecognised field */
+				reader.skip();
+			}
+		}
+	}
+
 	public Action action;
 	public int flags;
 	public int count;
@@ -276,5 +410,20 @@ public class ProtocolMessage implements MessagePackable {
 	public PresenceMessage[] presence;
 	public ConnectionDetails connectionDetails;
 
-	private static final MessagePack msgpack = new MessagePack();;
+	/* field names for msgpack encoding/decoding */
+	private static final byte[] ACTION = MsgpackReader.fieldName("action");
+	private static final byte[] FLAGS = MsgpackReader.fieldName("flags");
+	private static final byte[] COUNT = MsgpackReader.fieldName("count");
+	private static final byte[] ERROR = MsgpackReader.fieldName("error");
+	private static final byte[] ID = MsgpackReader.fieldName("id");
+	private static final byte[] CHANNEL = MsgpackReader.fieldName("channel");
+	private static final byte[] CHANNEL_SERIAL = MsgpackReader.fieldName("channelSerial");
+	private static final byte[] CONNECTION_ID = MsgpackReader.fieldName("connectionId");
+	private static final byte[] CONNECTION_KEY = MsgpackReader.fieldName("connectionKey");
+	private static final byte[] CONNECTION_SERIAL = MsgpackReader.fieldName("connectionSerial");
+	private static final byte[] MSG_SERIAL = MsgpackReader.fieldName("msgSerial");
+	private static final byte[] TIMESTAMP = MsgpackReader.fieldName("timestamp");
+	private static final byte[] MESSAGES = MsgpackReader.fieldName("messages");
+	private static final byte[] PRESENCE = MsgpackReader.fieldName("presence");
+	private static final byte[] CONNECTION_DETAILS = MsgpackReader.fieldName("connectionDetails");
 }
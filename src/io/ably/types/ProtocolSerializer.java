@@ -1,10 +1,12 @@
 package io.ably.types;
 
-import java.io.IOException;
+import io.ably.util.JsonReader;
+import io.ably.util.JsonWriter;
+import io.ably.util.MsgpackReader;
+import io.ably.util.MsgpackWriter;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.msgpack.MessagePack;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * ProtocolSerializer: internal
@@ -14,8 +16,26 @@ import org.msgpack.MessagePack;
 public class ProtocolSerializer {
 
 	public static ProtocolMessage readMsgpack(byte[] packed) throws AblyException {
+		return readMsgpack(new MsgpackReader(packed));
+	}
+
+	/**
+	 * Decode a ProtocolMessage from the remaining content of a buffer, without
+	 * copying. Binary message data is decoded as read-only slices of the buffer,
+	 * so the caller must not subsequently reuse it.
+	 * @param packed
+	 * @return
+	 * @throws AblyException
+	 */
+	public static ProtocolMessage readMsgpack(ByteBuffer packed) throws AblyException {
+		return readMsgpack(new MsgpackReader(packed, true));
+	}
+
+	static ProtocolMessage readMsgpack(MsgpackReader reader) throws AblyException {
 		try {
-			return msgpack.read(packed, ProtocolMessage.class);
+			ProtocolMessage result = new ProtocolMessage();
+			result.readMsgpack(reader);
+			return result;
 		} catch (IOException ioe) {
 			throw AblyException.fromIOException(ioe);
 		}
@@ -23,9 +43,11 @@ public class ProtocolSerializer {
 
 	public static ProtocolMessage readJSON(String jsonText) throws AblyException {
 		try {
-			return ProtocolMessage.fromJSON(new JSONObject(jsonText));
-		} catch (JSONException e) {
-			throw AblyException.fromThrowable(e);
+			ProtocolMessage result = new ProtocolMessage();
+			result.readJSON(new JsonReader(jsonText));
+			return result;
+		} catch (IOException ioe) {
+			throw AblyException.fromIOException(ioe);
 		}
 	}
 
@@ -34,16 +56,41 @@ public class ProtocolSerializer {
 	}
 
 	public static String toJSON(ProtocolMessage message) throws AblyException {
-		return ProtocolMessage.asJSON(message).toString();
+		JsonWriter writer = jsonWriters.get();
+		try {
+			message.writeJSON(writer.reset());
+			return writer.toString();
+		} finally {
+			if(writer.capacity() > MAX_RETAINED_BUFFER)
+				jsonWriters.remove();
+		}
 	}
 
 	public static byte[] toMsgpack(ProtocolMessage message) throws AblyException {
+		MsgpackWriter writer = msgpackWriters.get();
 		try {
-			return msgpack.write(message);
-		} catch (IOException ioe) {
-			throw AblyException.fromIOException(ioe);
+			message.writeMsgpack(writer.reset());
+			return writer.toByteArray();
+		} finally {
+			/* don't retain an unusually large buffer after encoding a large message */
+			if(writer.array().length > MAX_RETAINED_BUFFER)
+				msgpackWriters.remove();
 		}
 	}
 
-	private static final MessagePack msgpack = new MessagePack();
+	/**
+	 * Each thread that encodes messages has its own output buffer
+	 * that is reused for each encode
+	 */
+	private static final ThreadLocal<MsgpackWriter> msgpackWriters = new ThreadLocal<MsgpackWriter>() {
+		@Override
+		protected MsgpackWriter initialValue() { return new MsgpackWriter(); }
+	};
+
+	private static final ThreadLocal<JsonWriter> jsonWriters = new ThreadLocal<JsonWriter>() {
+		@Override
+		protected JsonWriter initialValue() { return new JsonWriter(); }
+	};
+
+	private static final int MAX_RETAINED_BUFFER = 65536;
 }
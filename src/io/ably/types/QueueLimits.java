@@ -0,0 +1,80 @@
+package io.ably.types;
+
+/**
+ * Limits on the messages that may be held in a queue awaiting
+ * send, and the action to take when a publish would exceed them.
+ */
+public class QueueLimits {
+
+	/**
+	 * The action taken when a message cannot be queued without
+	 * exceeding a limit.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The publishing thread waits, for up to blockTimeout ms, for
+		 * space to become available. Publishing from a CompletionListener
+		 * or other library callback with this policy is not supported.
+		 * Messages queued on a channel while attaching, which the library
+		 * sends once attached, are never blocked; FAIL applies to them.
+		 */
+		BLOCK,
+		/**
+		 * The publish fails immediately with an AblyException.
+		 */
+		FAIL,
+		/**
+		 * The oldest queued messages are discarded, and their
+		 * listeners notified of failure, to make space.
+		 */
+		DROP_OLDEST
+	}
+
+	/**
+	 * An interface allowing a client to be notified when a limit is reached.
+	 */
+	public interface LimitListener {
+		/**
+		 * Called each time a publish finds the queue full.
+		 * @param queue: the name of the queue; either "connection"
+		 * or the name of the channel
+		 * @param messages: the number of messages queued
+		 * @param bytes: the approximate size of messages queued
+		 */
+		public void onLimitReached(String queue, int messages, long bytes);
+	}
+
+	/**
+	 * The maximum number of messages queued; 0 means no limit
+	 */
+	public int maxMessages;
+
+	/**
+	 * The maximum approximate size, in bytes, of the message
+	 * payloads queued; 0 means no limit
+	 */
+	public long maxBytes;
+
+	/**
+	 * The action taken when a limit is reached
+	 */
+	public OverflowPolicy overflowPolicy = OverflowPolicy.FAIL;
+
+	/**
+	 * The maximum time in ms to wait for space with OverflowPolicy.BLOCK
+	 */
+	public long blockTimeout = 10000L;
+
+	/**
+	 * An optional listener notified when a limit is reached
+	 */
+	public LimitListener listener;
+
+	public QueueLimits() {}
+
+	public QueueLimits(int maxMessages, long maxBytes, OverflowPolicy overflowPolicy) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.overflowPolicy = overflowPolicy;
+	}
+}
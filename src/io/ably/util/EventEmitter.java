@@ -1,13 +1,14 @@
 package io.ably.util;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An interface exposing the ability to register listeners for a class of events
+ *
+ * Registered listeners, and event-specific listeners, are held in arrays that
+ * are replaced, never modified, on registration and removal; emit() iterates
+ * a snapshot of each array without locking, so listeners may register or remove
+ * listeners, including themselves, while an event is being emitted.
  * @author paddy
  *
  * @param <Event> an Enum containing the event names that listeners may be registered for
@@ -20,7 +21,8 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void on(Listener listener) {
-		listeners.add(listener);
+		if(indexOf(listeners, listener) == -1)
+			listeners = Multicaster.append(listeners, listener);
 	}
 
 	/**
@@ -28,7 +30,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void once(Listener listener) {
-		filters.put(listener, new Filter(null, listener, true));
+		putFilter(new Filter(null, listener, true));
 	}
 
 	/**
@@ -36,8 +38,10 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void off(Listener listener) {
-		listeners.remove(listener);
-		filters.remove(listener);
+		listeners = Multicaster.remove(listeners, listener);
+		int idx = indexOfFilter(listener);
+		if(idx != -1)
+			filters = Multicaster.removeAt(filters, idx);
 	}
 
 	/**
@@ -45,7 +49,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void on(Event event, Listener listener) {
-		filters.put(listener, new Filter(event, listener, false));
+		putFilter(new Filter(event, listener, false));
 	}
 
 	/**
@@ -53,7 +57,7 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param listener
 	 */
 	public synchronized void once(Event event, Listener listener) {
-		filters.put(listener, new Filter(event, listener, true));
+		putFilter(new Filter(event, listener, true));
 	}
 
 	/**
@@ -62,9 +66,9 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param event
 	 */
 	public synchronized void off(Event event, Listener listener) {
-		Filter filter = filters.get(listener);
-		if(filter != null && filter.event == event)
-			filters.remove(listener);
+		int idx = indexOfFilter(listener);
+		if(idx != -1 && filterAt(idx).event == event)
+			filters = Multicaster.removeAt(filters, idx);
 	}
 
 	/**
@@ -72,12 +76,13 @@ public abstract class EventEmitter<Event, Listener> {
 	 * @param event the Event
 	 * @param args the arguments to pass to listeners
 	 */
-	public synchronized void emit(Event event, Object... args) {
-		for(Iterator<Listener> it = listeners.iterator(); it.hasNext(); )
-			apply(it.next(), event, args);
-		for(Iterator<Map.Entry<Listener, Filter>> it = filters.entrySet().iterator(); it.hasNext(); )
-			if(it.next().getValue().apply(event, args))
-				it.remove();
+	@SuppressWarnings("unchecked")
+	public void emit(Event event, Object... args) {
+		for(Object listener : listeners)
+			apply((Listener)listener, event, args);
+		for(Object filter : filters)
+			if(((Filter)filter).apply(event, args))
+				removeFilter((Filter)filter);
 	}
 
 	protected abstract void apply(Listener listener, Event event, Object... args);
@@ -87,8 +92,13 @@ public abstract class EventEmitter<Event, Listener> {
 		private Event event;
 		private Listener listener;
 		private boolean once;
+		private final AtomicBoolean fired = new AtomicBoolean();
 		protected boolean apply(Event event, Object... args) {
 			if(this.event == event || this.event == null) {
+				/* a once filter fires for whichever emit claims it first,
+				 * even if emitted concurrently on multiple threads */
+				if(once && !fired.compareAndSet(false, true))
+					return false;
 				EventEmitter.this.apply(listener, event, args);
 				return once;
 			}
@@ -96,6 +106,46 @@ public abstract class EventEmitter<Event, Listener> {
 		}
 	}
 
-	Map<Listener, Filter> filters = new HashMap<Listener, Filter>();
-	Set<Listener> listeners = new HashSet<Listener>();
+	/**
+	 * Add a filter, replacing any existing filter for the same listener
+	 */
+	private void putFilter(Filter filter) {
+		int idx = indexOfFilter(filter.listener);
+		if(idx == -1) {
+			filters = Multicaster.append(filters, filter);
+		} else {
+			Object[] result = filters.clone();
+			result[idx] = filter;
+			filters = result;
+		}
+	}
+
+	/**
+	 * Remove a filter that has fired, if it is still registered
+	 */
+	private synchronized void removeFilter(Filter filter) {
+		filters = Multicaster.remove(filters, filter);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Filter filterAt(int idx) {
+		return (Filter)filters[idx];
+	}
+
+	private int indexOfFilter(Listener listener) {
+		for(int i = 0; i < filters.length; i++)
+			if(filterAt(i).listener.equals(listener))
+				return i;
+		return -1;
+	}
+
+	private static int indexOf(Object[] array, Object element) {
+		for(int i = 0; i < array.length; i++)
+			if(array[i].equals(element))
+				return i;
+		return -1;
+	}
+
+	volatile Object[] filters = Multicaster.EMPTY;
+	volatile Object[] listeners = Multicaster.EMPTY;
 }
@@ -0,0 +1,326 @@
+package io.ably.util;
+
+import java.io.IOException;
+
+/**
+ * JsonReader: internal
+ * A pull-based JSON tokenizer that reads values directly from the
+ * text, without constructing an intermediate object tree.
+ * Objects are read by calling beginObject() and then nextField()
+ * until it returns false; the name of the current field may be
+ * matched with fieldIs(), without allocating a String.
+ * Arrays are read by calling beginArray() and then nextElement()
+ * until it returns false.
+ */
+public class JsonReader {
+
+	public JsonReader(String text) {
+		this.text = text;
+		this.limit = text.length();
+	}
+
+	/****************************
+	 * type inspection
+	 ****************************/
+
+	/**
+	 * Consume the next value if it is null
+	 * @return true if a null was read
+	 * @throws IOException
+	 */
+	public boolean tryReadNull() throws IOException {
+		if(peek() == 'n') {
+			expectLiteral("null");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether or not the next value is a string
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean nextIsString() throws IOException {
+		return peek() == '"';
+	}
+
+	/****************************
+	 * containers
+	 ****************************/
+
+	public void beginObject() throws IOException {
+		expect('{');
+		first = true;
+	}
+
+	/**
+	 * Advance to the next field of the current object, reading its name
+	 * @return false if the end of the object has been reached
+	 * @throws IOException
+	 */
+	public boolean nextField() throws IOException {
+		int c = peek();
+		if(c == '}') {
+			++pos;
+			first = false;
+			return false;
+		}
+		if(!first) {
+			expect(',');
+			c = peek();
+		}
+		first = false;
+		if(c != '"') throw unexpected("field name");
+		++pos;
+		keyStart = pos;
+		keyEscaped = false;
+		while(true) {
+			if(pos >= limit) throw endOfInput();
+			char ch = text.charAt(pos);
+			if(ch == '"') break;
+			if(ch == '\\') {
+				keyEscaped = true;
+				++pos;
+			}
+			++pos;
+		}
+		keyEnd = pos++;
+		if(keyEscaped)
+			key = unescape(keyStart, keyEnd);
+		expect(':');
+		return true;
+	}
+
+	/**
+	 * Determine whether or not the current field has the given name
+	 * @param name
+	 * @return
+	 */
+	public boolean fieldIs(String name) {
+		if(keyEscaped)
+			return name.equals(key);
+		int len = keyEnd - keyStart;
+		return len == name.length() && text.regionMatches(keyStart, name, 0, len);
+	}
+
+	/**
+	 * Get the name of the current field
+	 * @return
+	 */
+	public String getFieldName() {
+		return keyEscaped ? key : text.substring(keyStart, keyEnd);
+	}
+
+	public void beginArray() throws IOException {
+		expect('[');
+		first = true;
+	}
+
+	/**
+	 * Advance to the next element of the current array
+	 * @return false if the end of the array has been reached
+	 * @throws IOException
+	 */
+	public boolean nextElement() throws IOException {
+		int c = peek();
+		if(c == ']') {
+			++pos;
+			first = false;
+			return false;
+		}
+		if(!first)
+			expect(',');
+		first = false;
+		return true;
+	}
+
+	/****************************
+	 * values
+	 ****************************/
+
+	public boolean readBoolean() throws IOException {
+		if(peek() == 't') {
+			expectLiteral("true");
+			return true;
+		}
+		expectLiteral("false");
+		return false;
+	}
+
+	public int readInt() throws IOException {
+		return (int)readLong();
+	}
+
+	public long readLong() throws IOException {
+		int start = skipWhitespace();
+		boolean negative = false;
+		if(pos < limit && text.charAt(pos) == '-') {
+			negative = true;
+			++pos;
+		}
+		long result = 0;
+		int digitStart = pos;
+		while(pos < limit) {
+			char c = text.charAt(pos);
+			if(c < '0' || c > '9') break;
+			result = result * 10 + (c - '0');
+			++pos;
+		}
+		if(pos == digitStart) throw unexpected("number");
+		if(pos < limit) {
+			char c = text.charAt(pos);
+			if(c == '.' || c == 'e' || c == 'E') {
+				/* non-integer; uncommon so defer to the platform parser */
+				while(pos < limit && "+-.eE0123456789".indexOf(text.charAt(pos)) != -1) ++pos;
+				try {
+					return (long)Double.parseDouble(text.substring(start, pos));
+				} catch(NumberFormatException e) {
+					throw new IOException("Invalid number in JSON text at position " + start);
+				}
+			}
+		}
+		return negative ? -result : result;
+	}
+
+	public String readString() throws IOException {
+		if(peek() != '"') throw unexpected("string");
+		int start = ++pos;
+		boolean escaped = false;
+		while(true) {
+			if(pos >= limit) throw endOfInput();
+			char c = text.charAt(pos);
+			if(c == '"') break;
+			if(c == '\\') {
+				escaped = true;
+				++pos;
+			}
+			++pos;
+		}
+		int end = pos++;
+		return escaped ? unescape(start, end) : text.substring(start, end);
+	}
+
+	/**
+	 * Read the next value, of any type, returning its JSON text
+	 * @return
+	 * @throws IOException
+	 */
+	public String readRawValue() throws IOException {
+		int start = skipWhitespace();
+		skip();
+		return text.substring(start, pos);
+	}
+
+	/**
+	 * Skip the next value, including all members if it is a container
+	 * @throws IOException
+	 */
+	public void skip() throws IOException {
+		int depth = 0;
+		do {
+			int c = peek();
+			switch(c) {
+			case '{': case '[':
+				++depth; ++pos; break;
+			case '}': case ']':
+				--depth; ++pos; break;
+			case ',': case ':':
+				++pos; break;
+			case '"':
+				++pos;
+				while(true) {
+					if(pos >= limit) throw endOfInput();
+					char ch = text.charAt(pos++);
+					if(ch == '"') break;
+					if(ch == '\\') ++pos;
+				}
+				break;
+			default:
+				while(pos < limit && DELIMITERS.indexOf(text.charAt(pos)) == -1) ++pos;
+			}
+		} while(depth > 0);
+		first = false;
+	}
+
+	/****************************
+	 * internal
+	 ****************************/
+
+	private int skipWhitespace() {
+		while(pos < limit) {
+			char c = text.charAt(pos);
+			if(c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+			++pos;
+		}
+		return pos;
+	}
+
+	private int peek() throws IOException {
+		skipWhitespace();
+		if(pos >= limit) throw endOfInput();
+		return text.charAt(pos);
+	}
+
+	private void expect(char c) throws IOException {
+		if(peek() != c) throw unexpected("'" + c + "'");
+		++pos;
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		int len = literal.length();
+		if(!text.regionMatches(pos, literal, 0, len)) throw unexpected(literal);
+		pos += len;
+	}
+
+	private String unescape(int start, int end) throws IOException {
+		StringBuilder builder = scratch;
+		builder.setLength(0);
+		for(int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if(c != '\\') {
+				builder.append(c);
+				continue;
+			}
+			if(++i >= end) throw endOfInput();
+			c = text.charAt(i);
+			switch(c) {
+			case 'b': builder.append('\b'); break;
+			case 'f': builder.append('\f'); break;
+			case 'n': builder.append('\n'); break;
+			case 'r': builder.append('\r'); break;
+			case 't': builder.append('\t'); break;
+			case 'u':
+				if(i + 4 >= end) throw endOfInput();
+				try {
+					builder.append((char)Integer.parseInt(text.substring(i + 1, i + 5), 16));
+				} catch(NumberFormatException e) {
+					throw new IOException("Invalid escape in JSON text at position " + i);
+				}
+				i += 4;
+				break;
+			default: builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	private IOException unexpected(String expected) {
+		return new IOException("Unexpected JSON text at position " + pos + "; expected " + expected);
+	}
+
+	private static IOException endOfInput() {
+		return new IOException("Unexpected end of JSON text");
+	}
+
+	private final String text;
+	private final int limit;
+	private int pos;
+	private boolean first;
+	private int keyStart, keyEnd;
+	private boolean keyEscaped;
+	private String key;
+	private final StringBuilder scratch = new StringBuilder();
+
+	private static final String DELIMITERS = ",:]} \t\r\n";
+}
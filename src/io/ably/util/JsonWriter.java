@@ -0,0 +1,144 @@
+package io.ably.util;
+
+/**
+ * JsonWriter: internal
+ * A JSON encoder that writes in a single pass into a StringBuilder.
+ * A writer may be reset and reused for successive encodes so that
+ * the output buffer is not reallocated each time.
+ */
+public class JsonWriter {
+
+	public JsonWriter() { this(DEFAULT_CAPACITY); }
+
+	public JsonWriter(int capacity) {
+		out = new StringBuilder(capacity);
+	}
+
+	/**
+	 * Discard any content, retaining the allocated buffer
+	 */
+	public JsonWriter reset() {
+		out.setLength(0);
+		needComma = false;
+		return this;
+	}
+
+	/**
+	 * The capacity of the underlying buffer
+	 */
+	public int capacity() { return out.capacity(); }
+
+	public String toString() { return out.toString(); }
+
+	/****************************
+	 * containers
+	 ****************************/
+
+	public void beginObject() {
+		separate();
+		out.append('{');
+		needComma = false;
+	}
+
+	public void endObject() {
+		out.append('}');
+		needComma = true;
+	}
+
+	public void beginArray() {
+		separate();
+		out.append('[');
+		needComma = false;
+	}
+
+	public void endArray() {
+		out.append(']');
+		needComma = true;
+	}
+
+	/**
+	 * Write the name of a field of the current object
+	 * @param name: a name that does not require escaping
+	 */
+	public void writeFieldName(String name) {
+		separate();
+		out.append('"').append(name).append("\":");
+		needComma = false;
+	}
+
+	/****************************
+	 * values
+	 ****************************/
+
+	public void writeNull() {
+		separate();
+		out.append("null");
+		needComma = true;
+	}
+
+	public void writeBoolean(boolean value) {
+		separate();
+		out.append(value);
+		needComma = true;
+	}
+
+	public void writeLong(long value) {
+		separate();
+		out.append(value);
+		needComma = true;
+	}
+
+	public void writeString(String value) {
+		separate();
+		StringBuilder out = this.out;
+		out.append('"');
+		int len = value.length(), start = 0;
+		for(int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			if(c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+				continue;
+			out.append(value, start, i);
+			start = i + 1;
+			switch(c) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\b': out.append("\\b"); break;
+			case '\f': out.append("\\f"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				out.append("\\u");
+				String hex = Integer.toHexString(c);
+				for(int j = hex.length(); j < 4; j++) out.append('0');
+				out.append(hex);
+			}
+		}
+		out.append(value, start, len);
+		out.append('"');
+		needComma = true;
+	}
+
+	/**
+	 * Write a value that is already JSON-encoded
+	 * @param json
+	 */
+	public void writeRawValue(String json) {
+		separate();
+		out.append(json);
+		needComma = true;
+	}
+
+	/****************************
+	 * internal
+	 ****************************/
+
+	private void separate() {
+		if(needComma) out.append(',');
+	}
+
+	private final StringBuilder out;
+	private boolean needComma;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+}
@@ -0,0 +1,450 @@
+package io.ably.util;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * MsgpackReader: internal
+ * A streaming msgpack decoder that reads values directly from the
+ * position..limit window of a ByteBuffer, without intermediate copies.
+ * Map keys are read with readFieldName() and may then be matched
+ * against field name constants with fieldIs(), without allocating a String.
+ * The position of the underlying buffer is not modified.
+ */
+public class MsgpackReader {
+
+	/**
+	 * Construct a reader for the remaining bytes of the given buffer
+	 * @param buf
+	 */
+	public MsgpackReader(ByteBuffer buf) {
+		this(buf, false);
+	}
+
+	/**
+	 * Construct a reader for the remaining bytes of the given buffer
+	 * @param buf
+	 * @param sliceBinary: if true, binary values are to be read as
+	 * read-only slices of buf (see slicesBinary()). The caller must not
+	 * subsequently modify or reuse the content of buf.
+	 */
+	public MsgpackReader(ByteBuffer buf, boolean sliceBinary) {
+		this.buf = buf;
+		this.pos = buf.position();
+		this.limit = buf.limit();
+		this.sliceBinary = sliceBinary;
+	}
+
+	/**
+	 * Construct a reader for the given array
+	 * @param packed
+	 */
+	public MsgpackReader(byte[] packed) {
+		this(ByteBuffer.wrap(packed));
+	}
+
+	/**
+	 * Get the UTF-8 representation of a field name, for use with fieldIs()
+	 * and MsgpackWriter.writeFieldName()
+	 * @param name
+	 * @return
+	 */
+	public static byte[] fieldName(String name) {
+		try {
+			return name.getBytes("UTF-8");
+		} catch(java.io.UnsupportedEncodingException e) { return null; }
+	}
+
+	/****************************
+	 * type inspection
+	 ****************************/
+
+	/**
+	 * Consume the next value if it is nil
+	 * @return true if a nil was read
+	 * @throws IOException
+	 */
+	public boolean tryReadNil() throws IOException {
+		if(peek() == NIL) {
+			++pos;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether or not the next value is a bin value
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean nextIsBinary() throws IOException {
+		int b = peek();
+		return b == BIN8 || b == BIN16 || b == BIN32;
+	}
+
+	/**
+	 * Determine whether or not the next value is a str value
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean nextIsString() throws IOException {
+		int b = peek();
+		return (b & 0xe0) == FIXSTR || b == STR8 || b == STR16 || b == STR32;
+	}
+
+	/****************************
+	 * containers
+	 ****************************/
+
+	public int readMapHeader() throws IOException {
+		int b = next();
+		if((b & 0xf0) == FIXMAP) return b & 0x0f;
+		if(b == MAP16) return readUint16();
+		if(b == MAP32) return readLength32();
+		throw unexpected("map", b);
+	}
+
+	public int readArrayHeader() throws IOException {
+		int b = next();
+		if((b & 0xf0) == FIXARRAY) return b & 0x0f;
+		if(b == ARRAY16) return readUint16();
+		if(b == ARRAY32) return readLength32();
+		throw unexpected("array", b);
+	}
+
+	/****************************
+	 * field names
+	 ****************************/
+
+	/**
+	 * Read a map key, which must be a str. The key is not decoded;
+	 * use fieldIs() to compare with known field names.
+	 * @throws IOException
+	 */
+	public void readFieldName() throws IOException {
+		int len = readStringHeader();
+		ensure(len);
+		keyPos = pos;
+		keyLen = len;
+		pos += len;
+	}
+
+	/**
+	 * Compare the last key read with readFieldName() with a given name
+	 * @param name: the UTF-8 bytes of the name
+	 * @return
+	 */
+	public boolean fieldIs(byte[] name) {
+		if(name.length != keyLen) return false;
+		for(int i = 0; i < keyLen; i++)
+			if(buf.get(keyPos + i) != name[i]) return false;
+		return true;
+	}
+
+	/**
+	 * Get the last key read with readFieldName() as a String,
+	 * eg for diagnostics relating to an unrecognised field
+	 * @return
+	 */
+	public String getFieldName() {
+		return decodeUtf8(keyPos, keyLen);
+	}
+
+	/****************************
+	 * scalar values
+	 ****************************/
+
+	public boolean readBoolean() throws IOException {
+		int b = next();
+		if(b == TRUE) return true;
+		if(b == FALSE) return false;
+		throw unexpected("boolean", b);
+	}
+
+	public int readInt() throws IOException {
+		long value = readLong();
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new IOException("Msgpack integer value out of range");
+		return (int)value;
+	}
+
+	public long readLong() throws IOException {
+		int b = next();
+		if(b <= 0x7f) return b;
+		if(b >= 0xe0) return (byte)b;
+		switch(b) {
+		case UINT8:
+			return next();
+		case UINT16:
+			return readUint16();
+		case UINT32:
+			return readInt32() & 0xffffffffL;
+		case UINT64:
+			long value = readInt64();
+			if(value < 0)
+				throw new IOException("Msgpack integer value out of range");
+			return value;
+		case INT8:
+			return (byte)next();
+		case INT16:
+			return (short)readUint16();
+		case INT32:
+			return readInt32();
+		case INT64:
+			return readInt64();
+		case FLOAT32:
+			return (long)Float.intBitsToFloat(readInt32());
+		case FLOAT64:
+			return (long)Double.longBitsToDouble(readInt64());
+		default:
+			throw unexpected("integer", b);
+		}
+	}
+
+	public String readString() throws IOException {
+		int len = readStringHeader();
+		ensure(len);
+		String result = decodeUtf8(pos, len);
+		pos += len;
+		return result;
+	}
+
+	/**
+	 * Determine whether or not binary values should be read with
+	 * readBinaryBuffer() in preference to readBinary()
+	 * @return
+	 */
+	public boolean slicesBinary() { return sliceBinary; }
+
+	/**
+	 * Read a binary value as a read-only view of the underlying
+	 * buffer, without copying
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer readBinaryBuffer() throws IOException {
+		int len = readBinaryHeader();
+		ensure(len);
+		ByteBuffer view = buf.asReadOnlyBuffer();
+		((Buffer)view).limit(pos + len);
+		((Buffer)view).position(pos);
+		pos += len;
+		return view.slice();
+	}
+
+	public byte[] readBinary() throws IOException {
+		int len = readBinaryHeader();
+		ensure(len);
+		byte[] result = new byte[len];
+		if(buf.hasArray()) {
+			System.arraycopy(buf.array(), buf.arrayOffset() + pos, result, 0, len);
+		} else {
+			for(int i = 0; i < len; i++)
+				result[i] = buf.get(pos + i);
+		}
+		pos += len;
+		return result;
+	}
+
+	/**
+	 * Skip the next value, including all members if it is a container
+	 * @throws IOException
+	 */
+	public void skip() throws IOException {
+		int remaining = 1;
+		while(remaining-- > 0) {
+			int b = next();
+			if(b <= 0x7f || b >= 0xe0) continue;
+			switch(b & 0xf0) {
+			case FIXMAP: remaining += 2 * (b & 0x0f); continue;
+			case FIXARRAY: remaining += (b & 0x0f); continue;
+			case FIXSTR: case FIXSTR + 0x10: skipBytes(b & 0x1f); continue;
+			}
+			switch(b) {
+			case NIL: case FALSE: case TRUE: break;
+			case UINT8: case INT8: skipBytes(1); break;
+			case UINT16: case INT16: skipBytes(2); break;
+			case UINT32: case INT32: case FLOAT32: skipBytes(4); break;
+			case UINT64: case INT64: case FLOAT64: skipBytes(8); break;
+			case STR8: case BIN8: skipBytes(next()); break;
+			case STR16: case BIN16: skipBytes(readUint16()); break;
+			case STR32: case BIN32: skipBytes(readLength32()); break;
+			case FIXEXT1: skipBytes(2); break;
+			case FIXEXT2: skipBytes(3); break;
+			case FIXEXT4: skipBytes(5); break;
+			case FIXEXT8: skipBytes(9); break;
+			case FIXEXT16: skipBytes(17); break;
+			case EXT8: skipBytes(next() + 1); break;
+			case EXT16: skipBytes(readUint16() + 1); break;
+			case EXT32: skipBytes(readLength32() + 1); break;
+			case ARRAY16: remaining += readUint16(); break;
+			case ARRAY32: remaining += readLength32(); break;
+			case MAP16: remaining += 2 * readUint16(); break;
+			case MAP32: remaining += 2 * readLength32(); break;
+			default: throw unexpected("value", b);
+			}
+		}
+	}
+
+	/****************************
+	 * internal
+	 ****************************/
+
+	private int readStringHeader() throws IOException {
+		int b = next();
+		if((b & 0xe0) == FIXSTR) return b & 0x1f;
+		if(b == STR8) return next();
+		if(b == STR16) return readUint16();
+		if(b == STR32) return readLength32();
+		throw unexpected("string", b);
+	}
+
+	private int readBinaryHeader() throws IOException {
+		int b = next();
+		if(b == BIN8) return next();
+		if(b == BIN16) return readUint16();
+		if(b == BIN32) return readLength32();
+		/* earlier protocol versions used the raw (str) type for binary */
+		if((b & 0xe0) == FIXSTR) return b & 0x1f;
+		if(b == STR8) return next();
+		if(b == STR16) return readUint16();
+		if(b == STR32) return readLength32();
+		throw unexpected("binary", b);
+	}
+
+	private int peek() throws IOException {
+		if(pos >= limit) throw new IOException("Unexpected end of msgpack data");
+		return buf.get(pos) & 0xff;
+	}
+
+	private int next() throws IOException {
+		if(pos >= limit) throw new IOException("Unexpected end of msgpack data");
+		return buf.get(pos++) & 0xff;
+	}
+
+	private void ensure(int len) throws IOException {
+		if(len < 0 || len > limit - pos) throw new IOException("Unexpected end of msgpack data");
+	}
+
+	private void skipBytes(int len) throws IOException {
+		ensure(len);
+		pos += len;
+	}
+
+	private int readUint16() throws IOException {
+		ensure(2);
+		int result = ((buf.get(pos) & 0xff) << 8) | (buf.get(pos + 1) & 0xff);
+		pos += 2;
+		return result;
+	}
+
+	private int readInt32() throws IOException {
+		ensure(4);
+		int result = ((buf.get(pos) & 0xff) << 24)
+				| ((buf.get(pos + 1) & 0xff) << 16)
+				| ((buf.get(pos + 2) & 0xff) << 8)
+				| (buf.get(pos + 3) & 0xff);
+		pos += 4;
+		return result;
+	}
+
+	private int readLength32() throws IOException {
+		int result = readInt32();
+		if(result < 0) throw new IOException("Msgpack length out of range");
+		return result;
+	}
+
+	private long readInt64() throws IOException {
+		long high = readInt32() & 0xffffffffL;
+		long low = readInt32() & 0xffffffffL;
+		return (high << 32) | low;
+	}
+
+	/**
+	 * Decode UTF-8 directly from the buffer into a reusable char buffer
+	 */
+	private String decodeUtf8(int start, int len) {
+		if(chars.length < len) chars = new char[Math.max(len, 2 * chars.length)];
+		char[] out = chars;
+		int end = start + len, count = 0, i = start;
+		while(i < end) {
+			int b = buf.get(i++);
+			if(b >= 0) {
+				out[count++] = (char)b;
+				continue;
+			}
+			int cp, extra;
+			if((b & 0xe0) == 0xc0) { cp = b & 0x1f; extra = 1; }
+			else if((b & 0xf0) == 0xe0) { cp = b & 0x0f; extra = 2; }
+			else if((b & 0xf8) == 0xf0) { cp = b & 0x07; extra = 3; }
+			else { out[count++] = REPLACEMENT; continue; }
+			if(i + extra > end) { out[count++] = REPLACEMENT; break; }
+			boolean valid = true;
+			for(int j = 0; j < extra; j++) {
+				int c = buf.get(i + j);
+				if((c & 0xc0) != 0x80) { valid = false; break; }
+				cp = (cp << 6) | (c & 0x3f);
+			}
+			if(!valid) { out[count++] = REPLACEMENT; continue; }
+			i += extra;
+			if(cp >= 0x10000) {
+				cp -= 0x10000;
+				out[count++] = (char)(0xd800 + (cp >> 10));
+				out[count++] = (char)(0xdc00 + (cp & 0x3ff));
+			} else {
+				out[count++] = (char)cp;
+			}
+		}
+		return new String(out, 0, count);
+	}
+
+	private static IOException unexpected(String expected, int b) {
+		return new IOException("Unexpected msgpack type; expected " + expected + ", found 0x" + Integer.toHexString(b));
+	}
+
+	private final ByteBuffer buf;
+	private final int limit;
+	private final boolean sliceBinary;
+	private int pos;
+	private int keyPos, keyLen;
+	private char[] chars = new char[64];
+
+	private static final char REPLACEMENT = '\ufffd';
+
+	/* format codes */
+	static final int FIXMAP   = 0x80;
+	static final int FIXARRAY = 0x90;
+	static final int FIXSTR   = 0xa0;
+	static final int NIL      = 0xc0;
+	static final int FALSE    = 0xc2;
+	static final int TRUE     = 0xc3;
+	static final int BIN8     = 0xc4;
+	static final int BIN16    = 0xc5;
+	static final int BIN32    = 0xc6;
+	static final int EXT8     = 0xc7;
+	static final int EXT16    = 0xc8;
+	static final int EXT32    = 0xc9;
+	static final int FLOAT32  = 0xca;
+	static final int FLOAT64  = 0xcb;
+	static final int UINT8    = 0xcc;
+	static final int UINT16   = 0xcd;
+	static final int UINT32   = 0xce;
+	static final int UINT64   = 0xcf;
+	static final int INT8     = 0xd0;
+	static final int INT16    = 0xd1;
+	static final int INT32    = 0xd2;
+	static final int INT64    = 0xd3;
+	static final int FIXEXT1  = 0xd4;
+	static final int FIXEXT2  = 0xd5;
+	static final int FIXEXT4  = 0xd6;
+	static final int FIXEXT8  = 0xd7;
+	static final int FIXEXT16 = 0xd8;
+	static final int STR8     = 0xd9;
+	static final int STR16    = 0xda;
+	static final int STR32    = 0xdb;
+	static final int ARRAY16  = 0xdc;
+	static final int ARRAY32  = 0xdd;
+	static final int MAP16    = 0xde;
+	static final int MAP32    = 0xdf;
+}
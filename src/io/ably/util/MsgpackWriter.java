@@ -0,0 +1,288 @@
+package io.ably.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MsgpackWriter: internal
+ * A msgpack encoder that writes in a single pass into a growable
+ * byte array. A writer may be reset and reused for successive
+ * encodes so that the output buffer is not reallocated each time.
+ */
+public class MsgpackWriter {
+
+	public MsgpackWriter() { this(DEFAULT_CAPACITY); }
+
+	public MsgpackWriter(int capacity) {
+		buf = new byte[capacity];
+	}
+
+	/**
+	 * Discard any content, retaining the allocated buffer
+	 */
+	public MsgpackWriter reset() {
+		pos = 0;
+		return this;
+	}
+
+	/**
+	 * The number of bytes written since the last reset
+	 */
+	public int size() { return pos; }
+
+	/**
+	 * The underlying buffer; valid content is in the range 0..size()
+	 */
+	public byte[] array() { return buf; }
+
+	/**
+	 * Get a copy of the content written since the last reset
+	 */
+	public byte[] toByteArray() {
+		byte[] result = new byte[pos];
+		System.arraycopy(buf, 0, result, 0, pos);
+		return result;
+	}
+
+	/****************************
+	 * containers
+	 ****************************/
+
+	public void writeMapHeader(int size) {
+		if(size < 16) {
+			ensure(1);
+			buf[pos++] = (byte)(MsgpackReader.FIXMAP | size);
+		} else if(size < 0x10000) {
+			ensure(3);
+			buf[pos++] = (byte)MsgpackReader.MAP16;
+			putShort(size);
+		} else {
+			ensure(5);
+			buf[pos++] = (byte)MsgpackReader.MAP32;
+			putInt(size);
+		}
+	}
+
+	public void writeArrayHeader(int size) {
+		if(size < 16) {
+			ensure(1);
+			buf[pos++] = (byte)(MsgpackReader.FIXARRAY | size);
+		} else if(size < 0x10000) {
+			ensure(3);
+			buf[pos++] = (byte)MsgpackReader.ARRAY16;
+			putShort(size);
+		} else {
+			ensure(5);
+			buf[pos++] = (byte)MsgpackReader.ARRAY32;
+			putInt(size);
+		}
+	}
+
+	/****************************
+	 * values
+	 ****************************/
+
+	/**
+	 * Write a map key whose UTF-8 representation has been precomputed
+	 * (see MsgpackReader.fieldName())
+	 * @param name
+	 */
+	public void writeFieldName(byte[] name) {
+		writeStringHeader(name.length);
+		ensure(name.length);
+		System.arraycopy(name, 0, buf, pos, name.length);
+		pos += name.length;
+	}
+
+	public void writeNil() {
+		ensure(1);
+		buf[pos++] = (byte)MsgpackReader.NIL;
+	}
+
+	public void writeBoolean(boolean value) {
+		ensure(1);
+		buf[pos++] = (byte)(value ? MsgpackReader.TRUE : MsgpackReader.FALSE);
+	}
+
+	public void writeLong(long value) {
+		ensure(9);
+		if(value >= 0) {
+			if(value < 0x80) {
+				buf[pos++] = (byte)value;
+			} else if(value < 0x100) {
+				buf[pos++] = (byte)MsgpackReader.UINT8;
+				buf[pos++] = (byte)value;
+			} else if(value < 0x10000) {
+				buf[pos++] = (byte)MsgpackReader.UINT16;
+				putShort((int)value);
+			} else if(value < 0x100000000L) {
+				buf[pos++] = (byte)MsgpackReader.UINT32;
+				putInt((int)value);
+			} else {
+				buf[pos++] = (byte)MsgpackReader.UINT64;
+				putLong(value);
+			}
+		} else {
+			if(value >= -32) {
+				buf[pos++] = (byte)value;
+			} else if(value >= Byte.MIN_VALUE) {
+				buf[pos++] = (byte)MsgpackReader.INT8;
+				buf[pos++] = (byte)value;
+			} else if(value >= Short.MIN_VALUE) {
+				buf[pos++] = (byte)MsgpackReader.INT16;
+				putShort((int)value);
+			} else if(value >= Integer.MIN_VALUE) {
+				buf[pos++] = (byte)MsgpackReader.INT32;
+				putInt((int)value);
+			} else {
+				buf[pos++] = (byte)MsgpackReader.INT64;
+				putLong(value);
+			}
+		}
+	}
+
+	/**
+	 * Write a String, encoding UTF-8 directly into the output buffer
+	 * @param value
+	 */
+	public void writeString(String value) {
+		int charCount = value.length();
+		int len = utf8Length(value, charCount);
+		writeStringHeader(len);
+		ensure(len);
+		byte[] out = buf;
+		int p = pos;
+		for(int i = 0; i < charCount; i++) {
+			char c = value.charAt(i);
+			if(c < 0x80) {
+				out[p++] = (byte)c;
+			} else if(c < 0x800) {
+				out[p++] = (byte)(0xc0 | (c >> 6));
+				out[p++] = (byte)(0x80 | (c & 0x3f));
+			} else if(Character.isHighSurrogate(c) && i + 1 < charCount && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				out[p++] = (byte)(0xf0 | (cp >> 18));
+				out[p++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+				out[p++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+				out[p++] = (byte)(0x80 | (cp & 0x3f));
+			} else {
+				if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) c = '\ufffd';
+				out[p++] = (byte)(0xe0 | (c >> 12));
+				out[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				out[p++] = (byte)(0x80 | (c & 0x3f));
+			}
+		}
+		pos = p;
+	}
+
+	public void writeBinary(byte[] value) {
+		writeBinary(value, 0, value.length);
+	}
+
+	public void writeBinary(byte[] value, int offset, int len) {
+		writeBinaryHeader(len);
+		ensure(len);
+		System.arraycopy(value, offset, buf, pos, len);
+		pos += len;
+	}
+
+	/**
+	 * Write the remaining content of a ByteBuffer as a binary value;
+	 * the position of the buffer is not modified
+	 * @param value
+	 */
+	public void writeBinary(ByteBuffer value) {
+		int len = value.remaining();
+		if(value.hasArray()) {
+			writeBinary(value.array(), value.arrayOffset() + value.position(), len);
+			return;
+		}
+		writeBinaryHeader(len);
+		ensure(len);
+		for(int i = 0, start = value.position(); i < len; i++)
+			buf[pos++] = value.get(start + i);
+	}
+
+	/****************************
+	 * internal
+	 ****************************/
+
+	private void writeStringHeader(int len) {
+		ensure(5);
+		if(len < 32) {
+			buf[pos++] = (byte)(MsgpackReader.FIXSTR | len);
+		} else if(len < 0x100) {
+			buf[pos++] = (byte)MsgpackReader.STR8;
+			buf[pos++] = (byte)len;
+		} else if(len < 0x10000) {
+			buf[pos++] = (byte)MsgpackReader.STR16;
+			putShort(len);
+		} else {
+			buf[pos++] = (byte)MsgpackReader.STR32;
+			putInt(len);
+		}
+	}
+
+	private void writeBinaryHeader(int len) {
+		ensure(5);
+		if(len < 0x100) {
+			buf[pos++] = (byte)MsgpackReader.BIN8;
+			buf[pos++] = (byte)len;
+		} else if(len < 0x10000) {
+			buf[pos++] = (byte)MsgpackReader.BIN16;
+			putShort(len);
+		} else {
+			buf[pos++] = (byte)MsgpackReader.BIN32;
+			putInt(len);
+		}
+	}
+
+	private static int utf8Length(String value, int charCount) {
+		int len = charCount;
+		for(int i = 0; i < charCount; i++) {
+			char c = value.charAt(i);
+			if(c >= 0x80) {
+				if(c < 0x800) {
+					++len;
+				} else if(Character.isHighSurrogate(c) && i + 1 < charCount && Character.isLowSurrogate(value.charAt(i + 1))) {
+					/* 4 bytes for the pair of chars */
+					len += 2;
+					++i;
+				} else {
+					len += 2;
+				}
+			}
+		}
+		return len;
+	}
+
+	private void ensure(int count) {
+		int required = pos + count;
+		if(required > buf.length) {
+			byte[] newBuf = new byte[Math.max(required, buf.length * 2)];
+			System.arraycopy(buf, 0, newBuf, 0, pos);
+			buf = newBuf;
+		}
+	}
+
+	private void putShort(int value) {
+		buf[pos++] = (byte)(value >> 8);
+		buf[pos++] = (byte)value;
+	}
+
+	private void putInt(int value) {
+		buf[pos++] = (byte)(value >> 24);
+		buf[pos++] = (byte)(value >> 16);
+		buf[pos++] = (byte)(value >> 8);
+		buf[pos++] = (byte)value;
+	}
+
+	private void putLong(long value) {
+		putInt((int)(value >> 32));
+		putInt((int)value);
+	}
+
+	private byte[] buf;
+	private int pos;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+}
@@ -1,19 +1,58 @@
 package io.ably.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
+/**
+ * A set of listeners to which events are dispatched.
+ * The members are held in an array that is replaced, never modified,
+ * when a member is added or removed; so dispatch iterates a snapshot
+ * of the members without locking, and members may be added or removed
+ * concurrently with, or during, dispatch.
+ * Every members array is copied from the array passed to the constructor,
+ * so it has the runtime type of that array.
+ */
 public abstract class Multicaster<T> {
 
-	protected final List<T> members = new ArrayList<T>();
+	protected volatile T[] members;
 
-	public Multicaster(T... members) { for(T m : members) this.members.add(m); }
-	
-	public void add(T member) { members.add(member); }
-	public void remove(T member) { members.remove(member); }
-	public void clear() { members.clear(); }
-	public boolean isEmpty() { return members.isEmpty(); }
-	public int size() { return members.size(); }
-	public Iterator<T>  iterator() { return members.iterator(); }
+	public Multicaster(T... members) { this.members = Arrays.copyOf(members, members.length); }
+
+	public synchronized void add(T member) { members = append(members, member); }
+	public synchronized void remove(T member) { members = remove(members, member); }
+	public synchronized void clear() { members = Arrays.copyOf(members, 0); }
+	public boolean isEmpty() { return members.length == 0; }
+	public int size() { return members.length; }
+	public Iterator<T> iterator() { return Arrays.asList(members).iterator(); }
+
+	/**
+	 * Get a copy of the given array with an element appended
+	 */
+	static <E> E[] append(E[] array, E element) {
+		E[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = element;
+		return result;
+	}
+
+	/**
+	 * Get a copy of the given array with the first element equal
+	 * to the given element removed
+	 */
+	static <E> E[] remove(E[] array, Object element) {
+		for(int i = 0; i < array.length; i++)
+			if(array[i].equals(element))
+				return removeAt(array, i);
+		return array;
+	}
+
+	/**
+	 * Get a copy of the given array with the element at the given index removed
+	 */
+	static <E> E[] removeAt(E[] array, int index) {
+		E[] result = Arrays.copyOf(array, array.length - 1);
+		System.arraycopy(array, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	static final Object[] EMPTY = new Object[0];
 }
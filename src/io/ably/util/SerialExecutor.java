@@ -0,0 +1,270 @@
+package io.ably.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * SerialExecutor
+ * Runs tasks one at a time, in the order they were submitted, on an
+ * underlying Executor that may be shared with other SerialExecutors;
+ * so tasks for one channel are ordered, while the tasks of different
+ * channels may run in parallel.
+ *
+ * A submitter is never blocked, since tasks are submitted by library
+ * threads, often while holding locks. When more than the capacity of
+ * tasks are queued, the OverflowPolicy determines whether a discardable
+ * task is dropped; tasks that are not discardable, such as state changes,
+ * are always queued.
+ *
+ * If no underlying executor is specified, tasks are run by the submitting
+ * thread if nothing is queued or running; otherwise they are queued, and
+ * run by the thread already running tasks. A task submitted by a running
+ * task is queued, and runs after the tasks already queued.
+ */
+public class SerialExecutor implements Executor {
+
+	private static final String TAG = SerialExecutor.class.getName();
+
+	/**
+	 * The action taken when a discardable task is submitted while
+	 * the number of queued tasks is at the capacity
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The task is queued; the queue may exceed the capacity
+		 */
+		QUEUE,
+		/**
+		 * The oldest queued discardable task is dropped to make space;
+		 * if there is none, the task is queued
+		 */
+		DROP_OLDEST,
+		/**
+		 * The submitted task is dropped
+		 */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Create a SerialExecutor that queues tasks beyond its capacity
+	 * @param name: a name used in log messages
+	 * @param executor: the underlying executor, or null to run tasks inline
+	 * @param capacity: the number of tasks queued awaiting execution
+	 * beyond which the queue is reported as overflowing
+	 */
+	public SerialExecutor(String name, Executor executor, int capacity) {
+		this(name, executor, capacity, OverflowPolicy.QUEUE);
+	}
+
+	/**
+	 * Create a SerialExecutor
+	 * @param name: a name used in log messages
+	 * @param executor: the underlying executor, or null to run tasks inline
+	 * @param capacity: the number of tasks queued awaiting execution
+	 * beyond which the overflow policy applies
+	 * @param overflowPolicy: the action taken when a discardable task is
+	 * submitted while the queue is at capacity
+	 */
+	public SerialExecutor(String name, Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+		this.name = name;
+		this.executor = executor;
+		this.capacity = Math.max(1, capacity);
+		this.overflowPolicy = (overflowPolicy == null) ? OverflowPolicy.QUEUE : overflowPolicy;
+	}
+
+	/**
+	 * Change the underlying executor. Tasks already queued are run, in order,
+	 * before any subsequently submitted task.
+	 * @param executor: the underlying executor, or null to run tasks inline
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Submit a task that is not discardable; this never blocks
+	 */
+	@Override
+	public void execute(Runnable task) {
+		execute(task, false);
+	}
+
+	/**
+	 * Submit a task; this never blocks
+	 * @param task
+	 * @param discardable: whether or not the task may be dropped
+	 * in accordance with the overflow policy
+	 */
+	public void execute(Runnable task, boolean discardable) {
+		Executor submitTo;
+		synchronized(this) {
+			if(queue.size() >= capacity) {
+				++overflowCount;
+				if(discardable && !applyOverflowPolicy())
+					return;
+			}
+			queue.add(new Task(task, discardable));
+			if(queue.size() > maxQueued)
+				maxQueued = queue.size();
+			if(scheduled)
+				return;
+			scheduled = true;
+			submitTo = executor;
+		}
+		if(submitTo == null) {
+			/* nothing is queued ahead of this task, so run the queue inline */
+			drainer.run();
+			return;
+		}
+		try {
+			submitTo.execute(drainer);
+		} catch(RejectedExecutionException ree) {
+			Log.e(TAG, "execute(): executor rejected task; running inline; name = " + name, ree);
+			drainer.run();
+		}
+	}
+
+	/**
+	 * Apply the overflow policy to make space for a discardable task
+	 * @return true if the task is to be queued
+	 */
+	private boolean applyOverflowPolicy() {
+		switch(overflowPolicy) {
+		case DROP_NEWEST:
+			++droppedCount;
+			return false;
+		case DROP_OLDEST:
+			for(Iterator<Task> it = queue.iterator(); it.hasNext();) {
+				if(it.next().discardable) {
+					it.remove();
+					++droppedCount;
+					break;
+				}
+			}
+			return true;
+		case QUEUE:
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * The number of tasks queued awaiting execution
+	 */
+	public synchronized int getQueuedCount() { return queue.size(); }
+
+	/**
+	 * The greatest number of tasks that have been queued awaiting execution
+	 */
+	public synchronized int getMaxQueuedCount() { return maxQueued; }
+
+	/**
+	 * The number of tasks submitted while the queue was at capacity
+	 */
+	public synchronized long getOverflowCount() { return overflowCount; }
+
+	/**
+	 * The number of discardable tasks dropped in accordance with the overflow policy
+	 */
+	public synchronized long getDroppedCount() { return droppedCount; }
+
+	/**
+	 * The number of queued tasks that have been run
+	 */
+	public synchronized long getDispatchedCount() { return dispatchedCount; }
+
+	/**
+	 * The greatest time, in nanoseconds, between the submission of a queued task and its execution
+	 */
+	public synchronized long getMaxLagNanos() { return maxLagNanos; }
+
+	/**
+	 * The mean time, in nanoseconds, between the submission of a queued task and its execution
+	 */
+	public synchronized long getMeanLagNanos() { return (dispatchedCount == 0) ? 0 : totalLagNanos / dispatchedCount; }
+
+	/**
+	 * Reset the lag, queue length and overflow metrics
+	 */
+	public synchronized void resetMetrics() {
+		maxQueued = queue.size();
+		overflowCount = 0;
+		droppedCount = 0;
+		dispatchedCount = 0;
+		totalLagNanos = 0;
+		maxLagNanos = 0;
+	}
+
+	/**
+	 * Runs queued tasks. After a fixed number of tasks the drainer
+	 * resubmits itself, so a busy queue does not monopolise a thread
+	 * of an executor shared with other queues.
+	 */
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			while(true) {
+				for(int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+					Task next;
+					synchronized(SerialExecutor.this) {
+						next = queue.poll();
+						if(next == null) {
+							scheduled = false;
+							return;
+						}
+						long lag = System.nanoTime() - next.submitted;
+						totalLagNanos += lag;
+						if(lag > maxLagNanos)
+							maxLagNanos = lag;
+						++dispatchedCount;
+					}
+					runTask(next.task);
+				}
+				Executor resubmitTo;
+				synchronized(SerialExecutor.this) {
+					resubmitTo = executor;
+				}
+				if(resubmitTo != null) {
+					try {
+						resubmitTo.execute(this);
+						return;
+					} catch(RejectedExecutionException ree) {
+						Log.e(TAG, "drain: executor rejected task; continuing inline; name = " + name, ree);
+					}
+				}
+			}
+		}
+	};
+
+	private void runTask(Runnable task) {
+		try {
+			task.run();
+		} catch(Throwable t) {
+			Log.e(TAG, "Unexpected exception in dispatched task; name = " + name, t);
+		}
+	}
+
+	private static class Task {
+		Task(Runnable task, boolean discardable) { this.task = task; this.discardable = discardable; this.submitted = System.nanoTime(); }
+		private final Runnable task;
+		private final boolean discardable;
+		private final long submitted;
+	}
+
+	private static final int MAX_TASKS_PER_DRAIN = 64;
+
+	private final String name;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+	private Executor executor;
+	private boolean scheduled;
+	private int maxQueued;
+	private long overflowCount;
+	private long droppedCount;
+	private long dispatchedCount;
+	private long totalLagNanos;
+	private long maxLagNanos;
+}
@@ -4,7 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.ably.realtime.CompletionListener;
+import io.ably.types.ErrorInfo;
 import io.ably.util.EventEmitter;
 
 import org.junit.Test;
@@ -155,4 +159,96 @@ public class EventEmitterTest {
 		assertNull(listener.counts.get(MyEvents.EVENT_1));
 	}
 
+	/**
+	 * Register a listener that removes itself when called, and
+	 * verify that it and a subsequently registered listener are
+	 * called for the event being emitted, and only that event
+	 */
+	@Test
+	public void off_during_emit() {
+		final MyEmitter emitter = new MyEmitter();
+		CountingListener listener = new CountingListener() {
+			@Override
+			public void onMyThingHappened(MyEventPayload theThing) {
+				super.onMyThingHappened(theThing);
+				emitter.off(this);
+			}
+		};
+		CountingListener other = new CountingListener();
+		emitter.on(listener);
+		emitter.on(other);
+		emitter.emit(MyEvents.EVENT_0, "off_during_emit_0");
+		emitter.emit(MyEvents.EVENT_1, "off_during_emit_1");
+		assertEquals(listener.counts.get(MyEvents.EVENT_0), Integer.valueOf(1));
+		assertNull(listener.counts.get(MyEvents.EVENT_1));
+		assertEquals(other.counts.get(MyEvents.EVENT_1), Integer.valueOf(1));
+	}
+
+	/**
+	 * Register a "once" listener, emit the event concurrently
+	 * from multiple threads, and verify the listener is called once
+	 */
+	@Test
+	public void once_concurrent_emit() throws InterruptedException {
+		final MyEmitter emitter = new MyEmitter();
+		final AtomicInteger count = new AtomicInteger();
+		emitter.once(MyEvents.EVENT_0, new MyListener() {
+			@Override
+			public void onMyThingHappened(MyEventPayload theThing) {
+				count.incrementAndGet();
+			}
+		});
+		int threadCount = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		for(int i = 0; i < threadCount; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						emitter.emit(MyEvents.EVENT_0, "once_concurrent_emit");
+					} catch(InterruptedException e) {}
+					done.countDown();
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		assertEquals(count.get(), 1);
+	}
+
+	/**
+	 * Add listeners to a Multicaster, one of which removes itself when
+	 * called, and verify that all are called once for the first dispatch;
+	 * then clear it, add a listener, and verify that it is called
+	 */
+	@Test
+	public void multicaster_remove_during_dispatch() {
+		final AtomicInteger count = new AtomicInteger();
+		final CompletionListener.Multicaster multicaster = new CompletionListener.Multicaster();
+		CompletionListener counting = new CompletionListener() {
+			@Override
+			public void onSuccess() { count.incrementAndGet(); }
+			@Override
+			public void onError(ErrorInfo reason) {}
+		};
+		multicaster.add(new CompletionListener() {
+			@Override
+			public void onSuccess() { count.incrementAndGet(); multicaster.remove(this); }
+			@Override
+			public void onError(ErrorInfo reason) {}
+		});
+		multicaster.add(counting);
+		multicaster.onSuccess();
+		multicaster.onSuccess();
+		assertEquals(count.get(), 3);
+		assertEquals(multicaster.size(), 1);
+
+		multicaster.clear();
+		multicaster.add(counting);
+		multicaster.onSuccess();
+		assertEquals(count.get(), 4);
+	}
+
 }
@@ -0,0 +1,156 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.Channel;
+import io.ably.realtime.Channel.MessageListener;
+import io.ably.realtime.Channel.SingleMessageListener;
+import io.ably.realtime.ChannelState;
+import io.ably.test.util.MockTransport;
+import io.ably.types.Message;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the delivery of messages to channel subscribers, using
+ * a mock transport to deliver messages
+ */
+public class RealtimeChannelSubscribe {
+
+	private MockTransport.Factory factory;
+	private AblyRealtime ably;
+	private Channel channel;
+
+	@Before
+	public void setUp() throws Exception {
+		factory = new MockTransport.Factory();
+		ably = MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory);
+		channel = ably.channels.get("channel");
+		channel.attach();
+		assertTrue("Verify channel attached", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return channel.state == ChannelState.attached; }
+		}));
+	}
+
+	@After
+	public void tearDown() {
+		ably.close();
+		factory.shutdown();
+	}
+
+	/**
+	 * Deliver messages in a single ProtocolMessage, and wait
+	 * until they have been processed
+	 */
+	private ProtocolMessage receive(Message... messages) throws InterruptedException {
+		ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, channel.name);
+		msg.id = "protocolId";
+		msg.connectionId = "connection";
+		msg.timestamp = 1000;
+		msg.messages = messages;
+		factory.receive(msg);
+		factory.sync();
+		return msg;
+	}
+
+	/**
+	 * Verify that single and array listeners, for all messages and for
+	 * specific event names, receive the messages they subscribed for, with
+	 * the fields derived from the ProtocolMessage; and that ids are only
+	 * constructed when requested, or when delivered to an array listener
+	 */
+	@Test
+	public void subscribe_single_and_array() throws Exception {
+		final List<Message> single = Collections.synchronizedList(new ArrayList<Message>());
+		final List<Message> singleNamed = Collections.synchronizedList(new ArrayList<Message>());
+		final List<Message> arrayNamed = Collections.synchronizedList(new ArrayList<Message>());
+		SingleMessageListener singleListener = new SingleMessageListener() {
+			@Override
+			public void onMessage(Message message) { single.add(message); }
+		};
+		SingleMessageListener singleNamedListener = new SingleMessageListener() {
+			@Override
+			public void onMessage(Message message) { singleNamed.add(message); }
+		};
+		MessageListener arrayNamedListener = new MessageListener() {
+			@Override
+			public void onMessage(Message[] messages) { Collections.addAll(arrayNamed, messages); }
+		};
+		channel.subscribeSingle(singleListener);
+		channel.subscribeSingle("a", singleNamedListener);
+		channel.subscribe(new String[] { "a" }, arrayNamedListener);
+
+		ProtocolMessage msg = receive(new Message("a", "d0"), new Message("b", "d1"), new Message("a", "d2"));
+		assertEquals("Verify all messages delivered to single listener", 3, single.size());
+		assertEquals("Verify named messages delivered to single listener", 2, singleNamed.size());
+		assertEquals("Verify named messages delivered to array listener", 2, arrayNamed.size());
+		assertEquals("Verify derived connectionId", "connection", single.get(0).connectionId);
+		assertEquals("Verify derived timestamp", 1000, single.get(0).timestamp);
+		assertEquals("Verify id constructed for array listener", "protocolId:2", arrayNamed.get(1).id);
+		assertNull("Verify id not constructed until requested", msg.messages[1].id);
+		assertEquals("Verify id constructed on request", "protocolId:1", msg.messages[1].getId());
+
+		channel.unsubscribeSingle(singleListener);
+		channel.unsubscribeSingle("a", singleNamedListener);
+		channel.unsubscribe(new String[] { "a" }, arrayNamedListener);
+		receive(new Message("a", "d3"));
+		assertEquals("Verify no delivery after unsubscribe", 3, single.size());
+		assertEquals("Verify no delivery after unsubscribe", 2, singleNamed.size());
+		assertEquals("Verify no delivery after unsubscribe", 2, arrayNamed.size());
+	}
+
+	/**
+	 * Verify that listeners for event names may be subscribed and
+	 * unsubscribed while messages are being delivered
+	 */
+	@Test
+	public void subscribe_concurrent_with_delivery() throws Exception {
+		final AtomicInteger delivered = new AtomicInteger();
+		final SingleMessageListener listener = new SingleMessageListener() {
+			@Override
+			public void onMessage(Message message) { delivered.incrementAndGet(); }
+		};
+		channel.subscribeSingle("stable", listener);
+		final AtomicInteger errors = new AtomicInteger();
+		Thread subscriber = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int i = 0; i < 2000; i++) {
+						String name = "event" + (i % 50);
+						channel.subscribeSingle(name, listener);
+						channel.unsubscribeSingle(name, listener);
+					}
+				} catch(Throwable t) {
+					errors.incrementAndGet();
+				}
+			}
+		};
+		subscriber.start();
+		int sent = 0;
+		while(subscriber.isAlive()) {
+			Message[] messages = new Message[10];
+			for(int i = 0; i < messages.length; i++)
+				messages[i] = new Message((i == 0) ? "stable" : "event" + i, null);
+			receive(messages);
+			++sent;
+		}
+		subscriber.join();
+		assertEquals("Verify no errors subscribing", 0, errors.get());
+		assertTrue("Verify stable subscription received every message", delivered.get() >= sent);
+	}
+}
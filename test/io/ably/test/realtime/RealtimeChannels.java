@@ -0,0 +1,348 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.Channel;
+import io.ably.realtime.Channel.SingleMessageListener;
+import io.ably.realtime.ChannelProgressListener;
+import io.ably.realtime.ChannelState;
+import io.ably.test.util.MockTransport;
+import io.ably.types.ErrorInfo;
+import io.ably.types.Message;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the channel registry of a realtime client, and of bulk
+ * channel operations, using a mock transport
+ */
+public class RealtimeChannels {
+
+	private MockTransport.Factory factory;
+	private AblyRealtime ably;
+
+	@Before
+	public void setUp() throws Exception {
+		factory = new MockTransport.Factory();
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		factory.shutdown();
+	}
+
+	/**
+	 * A listener that records the progress of a bulk channel operation
+	 */
+	private static class ProgressRecorder implements ChannelProgressListener {
+		@Override
+		public void onChannelProgress(Channel channel, ErrorInfo reason, int completed, int total) {
+			progress.incrementAndGet();
+			if(reason != null)
+				failures.incrementAndGet();
+		}
+		@Override
+		public void onComplete(int succeeded, int failed) {
+			result[0] = succeeded;
+			result[1] = failed;
+			complete.countDown();
+		}
+		final AtomicInteger progress = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final int[] result = new int[2];
+		final CountDownLatch complete = new CountDownLatch(1);
+	}
+
+	/**
+	 * Respond, in the order sent, to the attach requests sent so far,
+	 * checking before each response that no more than the given number
+	 * of requests are awaiting a response
+	 * @return the number of requests responded to
+	 */
+	private int respondToAttaches(int responded, int expected, int window, String failChannel) throws InterruptedException {
+		while(responded < expected) {
+			final int handled = responded;
+			assertTrue("Verify attach request sent", MockTransport.waitFor(new MockTransport.Condition() {
+				@Override
+				public boolean isMet() { return factory.getSent(Action.ATTACH).size() > handled; }
+			}));
+			List<ProtocolMessage> attaches = factory.getSent(Action.ATTACH);
+			assertTrue("Verify window respected", attaches.size() - responded <= window);
+			String channelName = attaches.get(responded).channel;
+			ProtocolMessage response;
+			if(channelName.equals(failChannel)) {
+				response = new ProtocolMessage(Action.ERROR, channelName);
+				response.error = new ErrorInfo("Attach refused", 40160);
+			} else {
+				response = new ProtocolMessage(Action.ATTACHED, channelName);
+			}
+			factory.receive(response);
+			++responded;
+		}
+		return responded;
+	}
+
+	/**
+	 * Verify that when many threads get the same channels concurrently,
+	 * exactly one instance of each channel is created and returned to all
+	 */
+	@Test
+	public void get_concurrent_single_instance() throws Exception {
+		ably = MockTransport.create(new DebugOptions("appid.keyid:secret"), factory);
+		final int threadCount = 16, channelCount = 2000;
+		final ConcurrentHashMap<String, Channel> first = new ConcurrentHashMap<String, Channel>();
+		final AtomicInteger mismatches = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try { start.await(); } catch(InterruptedException e) {}
+					for(int i = 0; i < channelCount; i++) {
+						String name = "channel" + i;
+						Channel channel = ably.channels.get(name);
+						Channel existing = first.putIfAbsent(name, channel);
+						if(existing != null && existing != channel)
+							mismatches.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		assertEquals("Verify one instance per channel", 0, mismatches.get());
+		assertEquals("Verify channel count", channelCount, ably.channels.size());
+	}
+
+	/**
+	 * Verify that messages are delivered to a channel while other channels
+	 * are created and released concurrently, and that a message for a
+	 * channel that does not exist does not create it
+	 */
+	@Test
+	public void deliver_concurrent_with_registry_changes() throws Exception {
+		ably = MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory);
+		final Channel channel = ably.channels.get("stable");
+		final AtomicInteger delivered = new AtomicInteger();
+		channel.subscribeSingle(new SingleMessageListener() {
+			@Override
+			public void onMessage(Message message) { delivered.incrementAndGet(); }
+		});
+		assertTrue("Verify channel attached", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return channel.state == ChannelState.attached; }
+		}));
+
+		final AtomicInteger errors = new AtomicInteger();
+		Thread churn = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int i = 0; i < 2000; i++) {
+						ably.channels.get("churn" + (i % 100));
+						ably.channels.release("churn" + ((i + 50) % 100));
+					}
+				} catch(Throwable t) {
+					errors.incrementAndGet();
+				}
+			}
+		};
+		churn.start();
+		for(int i = 0; i < 500; i++) {
+			ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, "stable");
+			msg.messages = new Message[] { new Message("event", String.valueOf(i)) };
+			factory.receive(msg);
+		}
+		ProtocolMessage unknown = new ProtocolMessage(Action.MESSAGE, "unknown");
+		unknown.messages = new Message[] { new Message("event", "data") };
+		factory.receive(unknown);
+		factory.sync();
+		churn.join();
+
+		assertEquals("Verify no errors creating and releasing channels", 0, errors.get());
+		assertTrue("Verify all messages delivered", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return delivered.get() == 500; }
+		}));
+		assertFalse("Verify message does not create channel", ably.channels.containsKey("unknown"));
+	}
+
+	/**
+	 * Verify that a bulk attach sends no more than channelRequestWindow
+	 * attach requests at a time, sending the next as each completes, and
+	 * reports the outcome for each channel and on completion
+	 */
+	@Test
+	public void attach_bulk_windowed() throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.channelRequestWindow = 5;
+		ably = MockTransport.createConnected(opts, factory);
+		factory.autoAttach = false;
+		String[] names = new String[40];
+		for(int i = 0; i < names.length; i++)
+			names[i] = "bulk" + i;
+		ProgressRecorder recorder = new ProgressRecorder();
+		ably.channels.attach(names, recorder);
+
+		assertTrue("Verify window filled", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.ATTACH).size() == 5; }
+		}));
+		factory.sync();
+		assertEquals("Verify no request sent beyond window", 5, factory.getSent(Action.ATTACH).size());
+
+		respondToAttaches(0, names.length, 5, "bulk7");
+		assertTrue("Verify bulk attach complete", recorder.complete.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify progress reported for each channel", names.length, recorder.progress.get());
+		assertEquals("Verify succeeded count", names.length - 1, recorder.result[0]);
+		assertEquals("Verify failed count", 1, recorder.result[1]);
+		assertEquals("Verify failed channel state", ChannelState.failed, ably.channels.get("bulk7").state);
+		assertEquals("Verify attached channel state", ChannelState.attached, ably.channels.get("bulk8").state);
+	}
+
+	/**
+	 * Verify that on reconnection, attached channels are synced and
+	 * attaching channels have their attach requests resent, no more than
+	 * channelRequestWindow at a time, and that channelRecoveryListener is
+	 * notified when recovery of all channels is complete
+	 */
+	@Test
+	public void reattach_on_reconnect() throws Exception {
+		final ProgressRecorder initial = new ProgressRecorder();
+		final ProgressRecorder[] recovery = new ProgressRecorder[] { initial };
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.channelRequestWindow = 3;
+		opts.channelRecoveryListener = new ChannelProgressListener() {
+			@Override
+			public void onChannelProgress(Channel channel, ErrorInfo reason, int completed, int total) {
+				recovery[0].onChannelProgress(channel, reason, completed, total);
+			}
+			@Override
+			public void onComplete(int succeeded, int failed) {
+				recovery[0].onComplete(succeeded, failed);
+			}
+		};
+		ably = MockTransport.createConnected(opts, factory);
+		assertTrue("Verify initial recovery complete", initial.complete.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify no channels recovered initially", 0, initial.result[0]);
+
+		/* attached channels */
+		String[] attachedNames = new String[] { "attached0", "attached1", "attached2", "attached3" };
+		ProgressRecorder attach = new ProgressRecorder();
+		ably.channels.attach(attachedNames, attach);
+		assertTrue("Verify channels attached", attach.complete.await(5, TimeUnit.SECONDS));
+
+		/* attaching channels, whose requests are not responded to */
+		factory.autoAttach = false;
+		for(int i = 0; i < 8; i++)
+			ably.channels.get("attaching" + i).attach();
+		assertTrue("Verify attach requests sent", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.ATTACH).size() == 12; }
+		}));
+
+		ProgressRecorder reconnect = new ProgressRecorder();
+		recovery[0] = reconnect;
+		factory.clearSent();
+		factory.completeConnect("mock2");
+
+		respondToAttaches(0, 8, 3, null);
+		assertTrue("Verify recovery complete", reconnect.complete.await(5, TimeUnit.SECONDS));
+		assertTrue("Verify attached channels synced", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.SYNC).size() == 4; }
+		}));
+		assertEquals("Verify progress reported for each channel", 12, reconnect.progress.get());
+		assertEquals("Verify succeeded count", 12, reconnect.result[0]);
+		assertEquals("Verify failed count", 0, reconnect.result[1]);
+		assertEquals("Verify no further attach requests", 8, factory.getSent(Action.ATTACH).size());
+		for(int i = 0; i < 8; i++)
+			assertEquals("Verify channel attached", ChannelState.attached, ably.channels.get("attaching" + i).state);
+	}
+
+	/**
+	 * Verify that when the connection is lost while attach requests sent on
+	 * reconnection await a response, the recovery completes with a failure
+	 * for each channel, releasing the window; and that the channels are
+	 * attached on the next reconnection
+	 */
+	@Test
+	public void reattach_abandoned_on_disconnect() throws Exception {
+		final ProgressRecorder initial = new ProgressRecorder();
+		final ProgressRecorder[] recovery = new ProgressRecorder[] { initial };
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.channelRequestWindow = 3;
+		opts.channelRecoveryListener = new ChannelProgressListener() {
+			@Override
+			public void onChannelProgress(Channel channel, ErrorInfo reason, int completed, int total) {
+				recovery[0].onChannelProgress(channel, reason, completed, total);
+			}
+			@Override
+			public void onComplete(int succeeded, int failed) {
+				recovery[0].onComplete(succeeded, failed);
+			}
+		};
+		ably = MockTransport.createConnected(opts, factory);
+		assertTrue("Verify initial recovery complete", initial.complete.await(5, TimeUnit.SECONDS));
+
+		/* attaching channels, whose requests are not responded to */
+		factory.autoAttach = false;
+		for(int i = 0; i < 6; i++)
+			ably.channels.get("attaching" + i).attach();
+		assertTrue("Verify attach requests sent", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.ATTACH).size() == 6; }
+		}));
+
+		/* reconnect, and lose the connection while the window is full */
+		ProgressRecorder interrupted = new ProgressRecorder();
+		recovery[0] = interrupted;
+		factory.clearSent();
+		factory.completeConnect("mock2");
+		assertTrue("Verify window of attach requests sent", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.ATTACH).size() == 3; }
+		}));
+		factory.autoConnect = false;
+		factory.transport.disconnect(new ErrorInfo("Connection lost", 80003, 503));
+		assertTrue("Verify interrupted recovery complete", interrupted.complete.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify progress reported for each channel", 6, interrupted.progress.get());
+		assertEquals("Verify succeeded count", 0, interrupted.result[0]);
+		assertEquals("Verify failed count", 6, interrupted.result[1]);
+		assertEquals("Verify no further attach requests", 3, factory.getSent(Action.ATTACH).size());
+
+		/* reconnect, and respond to the attach requests */
+		ProgressRecorder reconnect = new ProgressRecorder();
+		recovery[0] = reconnect;
+		assertTrue("Verify connection retried", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.connects.get() == 2; }
+		}));
+		factory.clearSent();
+		factory.completeConnect("mock3");
+		respondToAttaches(0, 6, 3, null);
+		assertTrue("Verify recovery complete", reconnect.complete.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify succeeded count", 6, reconnect.result[0]);
+		for(int i = 0; i < 6; i++)
+			assertEquals("Verify channel attached", ChannelState.attached, ably.channels.get("attaching" + i).state);
+	}
+}
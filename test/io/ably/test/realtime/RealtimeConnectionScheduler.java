@@ -0,0 +1,222 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.debug.DebugOptions;
+import io.ably.http.HttpEngine;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.CompletionListener;
+import io.ably.realtime.ConnectionState;
+import io.ably.rest.Auth;
+import io.ably.test.util.MockTransport;
+import io.ably.types.ClientOptions;
+import io.ably.types.ErrorInfo;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the scheduling of connection state processing, using
+ * a mock transport
+ */
+public class RealtimeConnectionScheduler {
+
+	private MockTransport.Factory factory;
+	private List<AblyRealtime> clients;
+
+	@Before
+	public void setUp() {
+		factory = new MockTransport.Factory();
+		clients = new ArrayList<AblyRealtime>();
+	}
+
+	@After
+	public void tearDown() {
+		for(AblyRealtime ably : clients)
+			ably.close();
+		factory.shutdown();
+	}
+
+	/**
+	 * A scheduler that counts the tasks submitted to it
+	 */
+	private static class CountingScheduler extends ScheduledThreadPoolExecutor {
+		CountingScheduler() {
+			super(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "test-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		@Override
+		protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+			tasks.incrementAndGet();
+			return task;
+		}
+		final AtomicInteger tasks = new AtomicInteger();
+	}
+
+	private static class PingListener implements CompletionListener {
+		PingListener(int count) { latch = new CountDownLatch(count); }
+		@Override
+		public void onSuccess() { latch.countDown(); }
+		@Override
+		public void onError(ErrorInfo reason) { errors.incrementAndGet(); latch.countDown(); }
+		final CountDownLatch latch;
+		final AtomicInteger errors = new AtomicInteger();
+	}
+
+	/**
+	 * Verify that connection processing runs on the scheduler
+	 * given in ClientOptions
+	 */
+	@Test
+	public void connect_uses_scheduler() throws Exception {
+		CountingScheduler scheduler = new CountingScheduler();
+		try {
+			DebugOptions opts = new DebugOptions("appid.keyid:secret");
+			opts.scheduler = scheduler;
+			AblyRealtime ably = MockTransport.createConnected(opts, factory);
+			try {
+				assertEquals("Verify connected state reached", ConnectionState.connected, ably.connection.state);
+				assertTrue("Verify state processing scheduled on the given scheduler", scheduler.tasks.get() > 0);
+			} finally {
+				ably.close();
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Verify that the number of threads does not grow with the number
+	 * of connected clients, nor with the number of pings awaiting a response
+	 */
+	@Test
+	public void clients_share_threads() throws Exception {
+		clients.add(MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory));
+		int before = Thread.activeCount();
+		for(int i = 0; i < 100; i++)
+			clients.add(MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory));
+		assertTrue("Verify thread count constant when connecting clients", Thread.activeCount() - before < 5);
+
+		PingListener listener = new PingListener(clients.size() * 2);
+		for(AblyRealtime ably : clients) {
+			ably.connection.ping(listener);
+			ably.connection.ping(listener);
+		}
+		assertTrue("Verify pings answered", listener.latch.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify no ping errors", 0, listener.errors.get());
+		assertTrue("Verify thread count constant when pinging", Thread.activeCount() - before < 5);
+	}
+
+	/**
+	 * An engine that answers the connectivity check once released,
+	 * and fails all other requests
+	 */
+	private static class ConnectivityEngine implements HttpEngine {
+		@Override
+		public void setAuth(Auth auth, CredentialsProvider credentialsProvider) {}
+
+		@Override
+		public HttpResponse execute(HttpHost host, HttpUriRequest request, HttpContext context) throws IOException {
+			if(!request.getURI().toString().contains("is-the-internet-up"))
+				throw new ConnectException("Connection refused");
+			checking.countDown();
+			try {
+				release.await();
+			} catch(InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			BasicHttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "");
+			result.setEntity(new ByteArrayEntity("yes".getBytes()));
+			return result;
+		}
+
+		@Override
+		public PoolStats getPoolStats() { return null; }
+
+		@Override
+		public void close() {}
+
+		final CountDownLatch checking = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+	}
+
+	/**
+	 * Verify that, when a connection attempt fails, connectivity is checked
+	 * without occupying the scheduler or holding the connection's lock, and
+	 * that a fallback host is tried once connectivity is confirmed
+	 */
+	@Test
+	public void connectivity_check_async() throws Exception {
+		CountingScheduler scheduler = new CountingScheduler();
+		final ConnectivityEngine engine = new ConnectivityEngine();
+		try {
+			DebugOptions opts = new DebugOptions("appid.keyid:secret");
+			opts.scheduler = scheduler;
+			opts.httpEngineFactory = new HttpEngine.Factory() {
+				@Override
+				public HttpEngine getEngine(ClientOptions options) { return engine; }
+			};
+			factory.autoConnect = false;
+			AblyRealtime ably = MockTransport.create(opts, factory);
+			try {
+				ably.connection.connect();
+				assertTrue("Verify connection attempted", MockTransport.waitFor(new MockTransport.Condition() {
+					@Override
+					public boolean isMet() { return factory.transport != null; }
+				}));
+				factory.transport.failConnect(new ErrorInfo("Connection refused", 80000, 503));
+				assertTrue("Verify connectivity checked", engine.checking.await(5, TimeUnit.SECONDS));
+
+				final CountDownLatch ran = new CountDownLatch(1);
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() { ran.countDown(); }
+				});
+				assertTrue("Verify scheduler not blocked by connectivity check", ran.await(5, TimeUnit.SECONDS));
+				assertEquals("Verify connection state available, and still connecting", ConnectionState.connecting, ably.connection.connectionManager.getConnectionState().state);
+
+				engine.release.countDown();
+				assertTrue("Verify fallback host tried", MockTransport.waitFor(new MockTransport.Condition() {
+					@Override
+					public boolean isMet() { return factory.connects.get() == 2; }
+				}));
+				factory.completeConnect("fallback");
+				assertTrue("Verify connected state reached", MockTransport.waitFor(ably, ConnectionState.connected));
+			} finally {
+				engine.release.countDown();
+				ably.close();
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+}
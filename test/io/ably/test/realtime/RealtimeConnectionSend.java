@@ -0,0 +1,269 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.CompletionListener;
+import io.ably.test.util.MockTransport;
+import io.ably.transport.ConnectionManager;
+import io.ably.types.AblyException;
+import io.ably.types.ErrorInfo;
+import io.ably.types.Message;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the outbound message path of a realtime connection,
+ * using a mock transport
+ */
+public class RealtimeConnectionSend {
+
+	private MockTransport.Factory factory;
+	private AblyRealtime ably;
+
+	@Before
+	public void setUp() {
+		factory = new MockTransport.Factory();
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		factory.shutdown();
+	}
+
+	private static ProtocolMessage message(String channel, String data) {
+		ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, channel);
+		msg.messages = new Message[] { new Message("event", data) };
+		return msg;
+	}
+
+	private static class CountingListener implements CompletionListener {
+		CountingListener(int expected) { latch = new CountDownLatch(expected); }
+		@Override
+		public void onSuccess() { successes.incrementAndGet(); latch.countDown(); }
+		@Override
+		public void onError(ErrorInfo reason) { errors.incrementAndGet(); latch.countDown(); }
+		boolean await() throws InterruptedException { return latch.await(5, TimeUnit.SECONDS); }
+		final AtomicInteger successes = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch latch;
+	}
+
+	/**
+	 * Records the order in which messages are completed
+	 */
+	private static class OrderListener implements CompletionListener {
+		OrderListener(String data, List<String> completed) { this.data = data; this.completed = completed; }
+		@Override
+		public void onSuccess() { completed.add(data); }
+		@Override
+		public void onError(ErrorInfo reason) { completed.add("nack:" + data); }
+		private final String data;
+		private final List<String> completed;
+	}
+
+	private static MockTransport.Condition sizeIs(final List<?> list, final int size) {
+		return new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { synchronized(list) { return list.size() == size; } }
+		};
+	}
+
+	/**
+	 * Send messages concurrently from many threads, and verify that
+	 * every message is written once, that msgSerials are assigned in
+	 * the order messages are written to the transport, and that every
+	 * message is acknowledged
+	 */
+	@Test
+	public void send_concurrent_ordered() throws Exception {
+		ably = MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory);
+		final ConnectionManager connectionManager = ably.connection.connectionManager;
+		final int threadCount = 8, perThread = 250;
+		final CountingListener listener = new CountingListener(threadCount * perThread);
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++) {
+			final String channel = "channel" + t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i < perThread; i++) {
+						try {
+							connectionManager.send(message(channel, String.valueOf(i)), true, listener);
+						} catch(AblyException e) {
+							listener.onError(e.errorInfo);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+
+		assertTrue("Verify all messages acknowledged", listener.await());
+		assertEquals("Verify no errors", 0, listener.errors.get());
+		List<ProtocolMessage> sent = factory.getSent(Action.MESSAGE);
+		assertEquals("Verify each message written once", threadCount * perThread, sent.size());
+		int[] next = new int[threadCount];
+		for(int i = 0; i < sent.size(); i++) {
+			ProtocolMessage msg = sent.get(i);
+			assertEquals("Verify msgSerial matches write order", i, msg.msgSerial.longValue());
+			int t = Integer.parseInt(msg.channel.substring("channel".length()));
+			assertEquals("Verify per-thread order preserved", String.valueOf(next[t]++), msg.messages[0].data);
+		}
+	}
+
+	/**
+	 * Send messages on a single channel with publish batching enabled,
+	 * and verify that they are coalesced into batches of at most the
+	 * maximum size, in order, and that each publish is acknowledged
+	 */
+	@Test
+	public void send_batched() throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.publishBatchDelay = 50;
+		opts.publishBatchMaxMessages = 10;
+		ably = MockTransport.createConnected(opts, factory);
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		CountingListener listener = new CountingListener(25);
+		for(int i = 0; i < 25; i++)
+			connectionManager.send(message("channel", String.valueOf(i)), true, listener);
+
+		assertTrue("Verify all messages acknowledged", listener.await());
+		assertEquals("Verify each publish acknowledged", 25, listener.successes.get());
+		List<ProtocolMessage> sent = factory.getSent(Action.MESSAGE);
+		assertEquals("Verify messages coalesced into 3 batches", 3, sent.size());
+		int next = 0;
+		for(ProtocolMessage msg : sent) {
+			assertTrue("Verify batch size limit", msg.messages.length <= 10);
+			for(Message message : msg.messages)
+				assertEquals("Verify order preserved", String.valueOf(next++), message.data);
+		}
+		assertEquals("Verify all messages sent", 25, next);
+	}
+
+	/**
+	 * Verify that a batch is ended when a message for another channel is sent
+	 */
+	@Test
+	public void send_batched_channel_switch() throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.publishBatchDelay = 50;
+		ably = MockTransport.createConnected(opts, factory);
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		CountingListener listener = new CountingListener(4);
+		connectionManager.send(message("a", "0"), true, listener);
+		connectionManager.send(message("b", "1"), true, listener);
+		connectionManager.send(message("b", "2"), true, listener);
+		connectionManager.send(message("a", "3"), true, listener);
+
+		assertTrue("Verify all messages acknowledged", listener.await());
+		List<ProtocolMessage> sent = factory.getSent(Action.MESSAGE);
+		assertEquals("Verify channel switch splits batches", 3, sent.size());
+		assertEquals("Verify second batch merged", 2, sent.get(1).messages.length);
+	}
+
+	/**
+	 * Keep more messages awaiting acknowledgement than the initial
+	 * capacity of the pending queue, so that it grows, and acknowledge
+	 * them in ranges; verify that every message is completed once, in
+	 * msgSerial order, with an ack at a later serial implicitly nacking
+	 * the earlier messages
+	 */
+	@Test
+	public void pending_grows() throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.maxInFlightMessages = 0;
+		factory.autoAck = false;
+		ably = MockTransport.createConnected(opts, factory);
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+		for(int i = 0; i < 300; i++)
+			connectionManager.send(message("channel", String.valueOf(i)), true, new OrderListener(String.valueOf(i), completed));
+		assertTrue("Verify all messages sent", MockTransport.waitFor(sizeIs(factory.sent, 300)));
+
+		factory.ack(0, 100);
+		factory.ack(110, 190);
+		assertTrue("Verify all messages completed", MockTransport.waitFor(sizeIs(completed, 300)));
+		for(int i = 0; i < 300; i++) {
+			String expected = (i >= 100 && i < 110) ? "nack:" + i : String.valueOf(i);
+			assertEquals("Verify completion order", expected, completed.get(i));
+		}
+	}
+
+	/**
+	 * Acknowledge messages as more are sent, so that the pending queue
+	 * wraps around without growing; verify that messages are completed
+	 * in msgSerial order
+	 */
+	@Test
+	public void pending_wraps() throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.maxInFlightMessages = 0;
+		factory.autoAck = false;
+		ably = MockTransport.createConnected(opts, factory);
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+		int sent = 0, acked = 0;
+		for(int round = 0; round < 10; round++) {
+			for(int i = 0; i < 40; i++, sent++)
+				connectionManager.send(message("channel", String.valueOf(sent)), true, new OrderListener(String.valueOf(sent), completed));
+			assertTrue("Verify messages sent", MockTransport.waitFor(sizeIs(factory.sent, sent)));
+			/* leave 20 pending each round, so the head advances around the ring */
+			factory.ack(acked, sent - 20 - acked);
+			acked = sent - 20;
+			assertTrue("Verify messages completed", MockTransport.waitFor(sizeIs(completed, acked)));
+		}
+		factory.ack(acked, sent - acked);
+		assertTrue("Verify all messages completed", MockTransport.waitFor(sizeIs(completed, sent)));
+		for(int i = 0; i < sent; i++)
+			assertEquals("Verify completion order", String.valueOf(i), completed.get(i));
+	}
+
+	/**
+	 * Verify that messages not acknowledged when a new connection is
+	 * established are resent, in order, with msgSerials starting again
+	 * from 0, and are completed when the resent messages are acknowledged
+	 */
+	@Test
+	public void pending_resent_on_reconnect() throws Exception {
+		factory.autoAck = false;
+		ably = MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory);
+		ConnectionManager connectionManager = ably.connection.connectionManager;
+		List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+		for(int i = 0; i < 10; i++)
+			connectionManager.send(message("channel", String.valueOf(i)), true, new OrderListener(String.valueOf(i), completed));
+		assertTrue("Verify messages sent", MockTransport.waitFor(sizeIs(factory.sent, 10)));
+		factory.ack(0, 4);
+		assertTrue("Verify acked messages completed", MockTransport.waitFor(sizeIs(completed, 4)));
+
+		factory.clearSent();
+		factory.completeConnect("mock2");
+		assertTrue("Verify unacknowledged messages resent", MockTransport.waitFor(sizeIs(factory.sent, 6)));
+		List<ProtocolMessage> resent = factory.getSent(Action.MESSAGE);
+		for(int i = 0; i < 6; i++) {
+			assertEquals("Verify new msgSerial", i, resent.get(i).msgSerial.longValue());
+			assertEquals("Verify resend order", String.valueOf(i + 4), resent.get(i).messages[0].data);
+		}
+		factory.ack(0, 6);
+		assertTrue("Verify all messages completed", MockTransport.waitFor(sizeIs(completed, 10)));
+		for(int i = 0; i < 10; i++)
+			assertEquals("Verify completion order", String.valueOf(i), completed.get(i));
+	}
+}
@@ -0,0 +1,66 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import io.ably.types.Message;
+import io.ably.types.PresenceMessage;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+import io.ably.types.ProtocolSerializer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class RealtimeJsonCodec {
+
+	/**
+	 * Verify that encoded text is valid JSON with the expected content
+	 */
+	@Test
+	public void encode() throws Exception {
+		ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, "codec_test");
+		msg.msgSerial = 17L;
+		msg.messages = new Message[] {
+			new Message("event", "quote\" backslash\\ newline\n control\u0001 \u00e9\u2028"),
+			new Message("binary", new byte[] { 0, 1, 2, (byte)0xff })
+		};
+		msg.messages[0].connectionId = "connection";
+		JSONObject json = new JSONObject(ProtocolSerializer.toJSON(msg));
+		assertEquals("Verify action", Action.MESSAGE.getValue(), json.getInt("action"));
+		assertEquals("Verify msgSerial", 17L, json.getLong("msgSerial"));
+		JSONArray messages = json.getJSONArray("messages");
+		assertEquals("Verify string data", msg.messages[0].data, messages.getJSONObject(0).getString("data"));
+		assertEquals("Verify connectionId", "connection", messages.getJSONObject(0).getString("connectionId"));
+		assertEquals("Verify binary data", "AAEC/w==", messages.getJSONObject(1).getString("data"));
+		assertEquals("Verify binary encoding", "base64", messages.getJSONObject(1).getString("encoding"));
+		assertFalse("Verify message is unchanged", msg.messages[1].data instanceof String);
+	}
+
+	/**
+	 * Verify decode of a frame containing nulls, escapes and unrecognised fields
+	 */
+	@Test
+	public void decode() throws Exception {
+		String text = "{ \"action\" : 14, \"channel\":\"codec_test\", \"unknown\": {\"a\":[1,{\"b\":\"]}\"}],\"c\":null},"
+				+ "\"id\":null, \"timestamp\":1420000000000, \"connectionSerial\":-1,"
+				+ "\"error\":{\"message\":\"an error\",\"code\":40000,\"statusCode\":400},"
+				+ "\"connectionDetails\":{\"clientId\":\"client\",\"maxMessageSize\":65536},"
+				+ "\"presence\":[{\"action\":2,\"clientId\":\"member\",\"data\":\"tab\\there \\u00e9\\\"\"}],"
+				+ "\"messages\":[]}";
+		ProtocolMessage result = ProtocolSerializer.readJSON(text);
+		assertEquals("Verify action", Action.PRESENCE, result.action);
+		assertEquals("Verify channel", "codec_test", result.channel);
+		assertNull("Verify null field", result.id);
+		assertEquals("Verify timestamp", 1420000000000L, result.timestamp);
+		assertEquals("Verify negative number", Long.valueOf(-1), result.connectionSerial);
+		assertEquals("Verify error", 40000, result.error.code);
+		assertEquals("Verify raw error", "an error", result.error.getRawJSON().getString("message"));
+		assertEquals("Verify connectionDetails", "client", result.connectionDetails.clientId);
+		assertEquals("Verify connectionDetails", Long.valueOf(65536), result.connectionDetails.maxMessageSize);
+		assertEquals("Verify presence action", PresenceMessage.Action.ENTER, result.presence[0].action);
+		assertEquals("Verify escaped data", "tab\there \u00e9\"", result.presence[0].data);
+		assertEquals("Verify empty array", 0, result.messages.length);
+	}
+}
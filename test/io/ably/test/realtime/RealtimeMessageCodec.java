@@ -0,0 +1,143 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.types.AblyException;
+import io.ably.types.ChannelOptions;
+import io.ably.types.Codec;
+import io.ably.types.Codecs;
+import io.ably.types.Message;
+import io.ably.util.Base64Coder;
+import io.ably.util.Crypto;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests of the encoding and decoding of message payloads
+ */
+public class RealtimeMessageCodec {
+
+	/**
+	 * Verify that when the payload of a message whose decoding was deferred
+	 * is accessed by two threads at once, both see the decoded payload
+	 */
+	@Test
+	public void decode_on_access_concurrent() throws Exception {
+		final int count = 5000;
+		final Message[] messages = new Message[count];
+		for(int i = 0; i < count; i++) {
+			Message message = new Message("event", null);
+			/* {"index":i} as json/utf-8/base64 */
+			message.data = Base64Coder.encodeString("{\"index\":" + i + "}");
+			message.encoding = "json/utf-8/base64";
+			message.decodeOnAccess(null);
+			messages[i] = message;
+		}
+		final AtomicInteger undecoded = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[2];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try { start.await(); } catch(InterruptedException e) {}
+					for(int i = 0; i < count; i++) {
+						Object data = messages[i].getData();
+						if(!(data instanceof JSONObject) || ((JSONObject)data).optInt("index", -1) != i)
+							undecoded.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		assertEquals("Verify decoded payload seen by both threads", 0, undecoded.get());
+		for(Message message : messages)
+			assertTrue("Verify encoding cleared", message.encoding == null);
+	}
+
+	/**
+	 * A codec that reverses a text payload
+	 */
+	private static class ReverseCodec implements Codec {
+		@Override
+		public boolean canDecode(Object data, ChannelOptions opts) { return data instanceof String; }
+		@Override
+		public Object decode(Object data, ChannelOptions opts) { return new StringBuilder((String)data).reverse().toString(); }
+		@Override
+		public boolean canEncode(Object data, ChannelOptions opts) { return data instanceof String; }
+		@Override
+		public Object encode(Object data, ChannelOptions opts) { return new StringBuilder((String)data).reverse().toString(); }
+		@Override
+		public String getTransform(ChannelOptions opts) { return "reverse"; }
+	}
+
+	private static ChannelOptions encrypted() throws AblyException {
+		ChannelOptions opts = new ChannelOptions();
+		opts.encrypted = true;
+		opts.cipherParams = Crypto.getDefaultParams();
+		return opts;
+	}
+
+	/**
+	 * Verify that the built-in transforms are applied to payloads that are
+	 * sent, appending to any existing encoding, and that encoded payloads
+	 * decode to the original
+	 */
+	@Test
+	public void encode_builtin() throws Exception {
+		ChannelOptions opts = encrypted();
+		Message json = new Message("event", new JSONObject("{\"a\":1}"));
+		json.encode(opts);
+		assertEquals("Verify json encoding", "json/utf-8/cipher+aes-128-cbc", json.encoding);
+		assertTrue("Verify encrypted payload", json.data instanceof byte[]);
+		json.decode(opts);
+		assertNull("Verify all transforms undone", json.encoding);
+		assertEquals("Verify decoded payload", 1, ((JSONObject)json.data).getInt("a"));
+
+		Message text = new Message("event", "text");
+		text.encode(null);
+		assertEquals("Verify text unchanged when not encrypted", "text", text.data);
+		assertNull("Verify no encoding when not encrypted", text.encoding);
+
+		Message existing = new Message("event", new JSONObject("{}"));
+		existing.encoding = "custom";
+		existing.encode(null);
+		assertEquals("Verify transform appended to existing encoding", "custom/json", existing.encoding);
+	}
+
+	/**
+	 * Verify that a registered codec named in the encode transforms is
+	 * applied to payloads that are sent, and undone on decode
+	 */
+	@Test
+	public void encode_registered_codec() throws Exception {
+		Codecs.register("reverse", new ReverseCodec());
+		Codecs.setEncodeTransforms("json", "reverse", "utf-8", "cipher");
+		try {
+			Message message = new Message("event", "hello");
+			message.encode(null);
+			assertEquals("Verify codec applied", "olleh", message.data);
+			assertEquals("Verify codec named in encoding", "reverse", message.encoding);
+
+			ChannelOptions opts = encrypted();
+			Message secret = new Message("event", "hello");
+			secret.encode(opts);
+			assertEquals("Verify codec applied in order", "reverse/utf-8/cipher+aes-128-cbc", secret.encoding);
+			secret.decode(opts);
+			assertEquals("Verify decoded payload", "hello", secret.data);
+			assertNull("Verify all transforms undone", secret.encoding);
+		} finally {
+			Codecs.setEncodeTransforms("json", "utf-8", "cipher");
+			Codecs.unregister("reverse");
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.ably.types.ChannelOptions;
+import io.ably.types.Message;
+import io.ably.types.PresenceMessage;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+import io.ably.types.ProtocolSerializer;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.msgpack.MessagePack;
+
+public class RealtimeMsgpackCodec {
+
+	private static ProtocolMessage sampleMessage() {
+		ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, "codec_test");
+		msg.msgSerial = 0x1234567890L;
+		msg.messages = new Message[] {
+			new Message("event", "a string with non-ascii: \u00e9\u4e2d\ud83d\ude00"),
+			new Message("binary", new byte[] { 0, 1, 2, (byte)0xff }),
+			new Message("long", new String(new char[300]).replace('\0', 'x'))
+		};
+		msg.messages[0].timestamp = 1420000000000L;
+		msg.messages[1].clientId = "client";
+		return msg;
+	}
+
+	/**
+	 * Verify that the encoding is identical to that produced by the msgpack library
+	 */
+	@Test
+	public void encode_matches_library() throws Exception {
+		ProtocolMessage msg = sampleMessage();
+		byte[] expected = new MessagePack().write(msg);
+		byte[] actual = ProtocolSerializer.toMsgpack(msg);
+		assertArrayEquals("Verify encoded bytes", expected, actual);
+	}
+
+	/**
+	 * Verify round trip of a message, including fields only sent by the server
+	 */
+	@Test
+	public void decode_roundtrip() throws Exception {
+		ProtocolMessage msg = sampleMessage();
+		msg.presence = new PresenceMessage[] { new PresenceMessage(PresenceMessage.Action.ENTER, "member") };
+		ProtocolMessage result = ProtocolSerializer.readMsgpack(ProtocolSerializer.toMsgpack(msg));
+		assertEquals("Verify action", Action.MESSAGE, result.action);
+		assertEquals("Verify channel", msg.channel, result.channel);
+		assertEquals("Verify msgSerial", msg.msgSerial, result.msgSerial);
+		assertEquals("Verify message count", 3, result.messages.length);
+		assertEquals("Verify string data", msg.messages[0].data, result.messages[0].data);
+		assertEquals("Verify timestamp", 1420000000000L, result.messages[0].timestamp);
+		assertArrayEquals("Verify binary data", (byte[])msg.messages[1].data, (byte[])result.messages[1].data);
+		assertEquals("Verify clientId", "client", result.messages[1].clientId);
+		assertEquals("Verify long data", msg.messages[2].data, result.messages[2].data);
+		assertEquals("Verify presence action", PresenceMessage.Action.ENTER, result.presence[0].action);
+		assertEquals("Verify presence clientId", "member", result.presence[0].clientId);
+		assertNull("Verify absent field", result.error);
+	}
+
+	/**
+	 * Verify decode from the position..limit window of a direct buffer,
+	 * and that binary data is only passed on as a buffer when requested
+	 */
+	@Test
+	public void decode_bytebuffer() throws Exception {
+		byte[] packed = ProtocolSerializer.toMsgpack(sampleMessage());
+		ByteBuffer buf = ByteBuffer.allocateDirect(packed.length + 8);
+		buf.position(4);
+		buf.put(packed);
+		buf.flip();
+		buf.position(4);
+
+		ProtocolMessage result = ProtocolSerializer.readMsgpack(buf);
+		assertEquals("Verify buffer position is unchanged", 4, buf.position());
+		assertEquals("Verify string data", "a string with non-ascii: \u00e9\u4e2d\ud83d\ude00", result.messages[0].data);
+		assertTrue("Verify binary data is a read-only buffer", ((ByteBuffer)result.messages[1].data).isReadOnly());
+
+		ChannelOptions opts = new ChannelOptions();
+		opts.binaryDataAsByteBuffer = true;
+		result.messages[1].decode(opts);
+		ByteBuffer data = (ByteBuffer)result.messages[1].data;
+		assertEquals("Verify binary data length", 4, data.remaining());
+		assertEquals("Verify binary data content", (byte)0xff, data.get(3));
+
+		result.messages[1].decode(null);
+		assertArrayEquals("Verify binary data is converted", new byte[] { 0, 1, 2, (byte)0xff }, (byte[])result.messages[1].data);
+	}
+}
@@ -0,0 +1,253 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.Channel;
+import io.ably.realtime.ChannelState;
+import io.ably.realtime.Presence;
+import io.ably.test.util.MockTransport;
+import io.ably.types.PresenceMessage;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the maintenance of the presence set of a channel, using
+ * a mock transport to deliver presence and sync messages
+ */
+public class RealtimePresenceMap {
+
+	private MockTransport.Factory factory;
+	private AblyRealtime ably;
+	private Channel channel;
+
+	@Before
+	public void setUp() throws Exception {
+		factory = new MockTransport.Factory();
+		ably = MockTransport.createConnected(new DebugOptions("appid.keyid:secret"), factory);
+		channel = ably.channels.get("presence");
+		channel.attach();
+		assertTrue("Verify channel attached", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return channel.state == ChannelState.attached; }
+		}));
+	}
+
+	@After
+	public void tearDown() {
+		ably.close();
+		factory.shutdown();
+	}
+
+	private static PresenceMessage member(PresenceMessage.Action action, String connectionId, String clientId, long timestamp) {
+		PresenceMessage msg = new PresenceMessage(action, clientId, null);
+		msg.connectionId = connectionId;
+		msg.timestamp = timestamp;
+		return msg;
+	}
+
+	/**
+	 * Deliver presence messages, and wait until they have been processed
+	 */
+	private void receive(PresenceMessage... members) throws InterruptedException {
+		ProtocolMessage msg = new ProtocolMessage(Action.PRESENCE, channel.name);
+		msg.presence = members;
+		factory.receive(msg);
+		factory.sync();
+	}
+
+	/**
+	 * Deliver a page of a sync, and wait until it has been processed
+	 * @param cursor: the sync cursor; empty for the last page
+	 */
+	private void sync(String cursor, PresenceMessage... members) throws InterruptedException {
+		ProtocolMessage msg = new ProtocolMessage(Action.SYNC, channel.name);
+		msg.channelSerial = "serial:" + cursor;
+		msg.presence = members;
+		factory.receive(msg);
+		factory.sync();
+	}
+
+	private static Set<String> clientIds(List<PresenceMessage> members) {
+		Set<String> result = new HashSet<String>();
+		for(PresenceMessage member : members)
+			result.add(member.connectionId + ':' + member.clientId);
+		return result;
+	}
+
+	/**
+	 * Verify that the whole-set snapshot is shared between reads until the
+	 * set changes, is immutable, and is unaffected by later changes; and that
+	 * the clientId index and snapshot remain consistent as members enter and
+	 * leave, across more members than fit in one chunk of the snapshot
+	 */
+	@Test
+	public void snapshot_incremental() throws Exception {
+		Presence presence = channel.presence;
+		PresenceMessage[] entered = new PresenceMessage[1000];
+		for(int i = 0; i < entered.length; i++)
+			entered[i] = member(PresenceMessage.Action.ENTER, "conn" + (i % 10), "client" + (i / 10), 1);
+		receive(entered);
+
+		List<PresenceMessage> first = presence.getMembers(false);
+		assertEquals("Verify all members present", 1000, first.size());
+		assertSame("Verify snapshot shared until the set changes", first, presence.getMembers(false));
+		try {
+			first.set(0, null);
+			fail("Verify snapshot immutable");
+		} catch(UnsupportedOperationException e) {}
+
+		/* leave every third member, and update the rest of the first 100 */
+		Set<String> expected = clientIds(first);
+		PresenceMessage[] changes = new PresenceMessage[1000];
+		int count = 0;
+		for(int i = 0; i < entered.length; i += 3) {
+			changes[count++] = member(PresenceMessage.Action.LEAVE, entered[i].connectionId, entered[i].clientId, 2);
+			expected.remove(entered[i].connectionId + ':' + entered[i].clientId);
+		}
+		for(int i = 1; i < 100; i += 3) {
+			PresenceMessage update = member(PresenceMessage.Action.UPDATE, entered[i].connectionId, entered[i].clientId, 2);
+			update.data = "updated";
+			changes[count++] = update;
+		}
+		PresenceMessage[] batch = new PresenceMessage[count];
+		System.arraycopy(changes, 0, batch, 0, count);
+		receive(batch);
+
+		List<PresenceMessage> second = presence.getMembers(false);
+		assertEquals("Verify earlier snapshot unchanged", 1000, first.size());
+		assertEquals("Verify earlier snapshot unchanged", 1000, clientIds(first).size());
+		assertEquals("Verify members after leave", expected, clientIds(second));
+		assertEquals("Verify get() matches snapshot", second.size(), presence.get().length);
+		for(PresenceMessage member : presence.get("client0", false))
+			if(member.connectionId.equals("conn1"))
+				assertEquals("Verify updated member data", "updated", member.data);
+		assertEquals("Verify clientId index after leave", 6, presence.get("client0", false).length);
+		assertEquals("Verify clientId index after leave", 7, presence.get("client1", false).length);
+
+		/* re-enter the members that left */
+		for(int i = 0; i < count; i++)
+			if(batch[i].action == PresenceMessage.Action.LEAVE)
+				batch[i] = member(PresenceMessage.Action.ENTER, batch[i].connectionId, batch[i].clientId, 3);
+		receive(batch);
+		assertEquals("Verify all members present after re-entering", clientIds(first), clientIds(presence.getMembers(false)));
+		assertEquals("Verify clientId index after re-entering", 10, presence.get("client1", false).length);
+	}
+
+	/**
+	 * Verify that, at the end of a sync, the members not seen during the
+	 * sync are removed, including those seen only in a superseded message;
+	 * that a leave received during the sync is not undone by an earlier
+	 * message later in the sync; and that the set is unchanged until the
+	 * sync ends
+	 */
+	@Test
+	public void sync_removes_unseen() throws Exception {
+		Presence presence = channel.presence;
+		PresenceMessage[] entered = new PresenceMessage[1000];
+		for(int i = 0; i < entered.length; i++)
+			entered[i] = member(PresenceMessage.Action.ENTER, "conn" + i, "client" + i, 10);
+		receive(entered);
+
+		/* first page: members 0-499, with member 0 superseded by the existing entry */
+		PresenceMessage[] page = new PresenceMessage[500];
+		for(int i = 0; i < page.length; i++)
+			page[i] = member(PresenceMessage.Action.PRESENT, "conn" + i, "client" + i, (i == 0) ? 5 : 10);
+		sync("cursor", page);
+		assertEquals("Verify set unchanged during sync", 1000, presence.get().length);
+
+		/* a leave during the sync does not end it */
+		receive(member(PresenceMessage.Action.LEAVE, "conn600", "client600", 20));
+		assertEquals("Verify leave applied during sync", 999, presence.get().length);
+
+		/* last page: an earlier PRESENT for the member that left, and one other member */
+		sync("", member(PresenceMessage.Action.PRESENT, "conn600", "client600", 15),
+				member(PresenceMessage.Action.PRESENT, "conn700", "client700", 10));
+		assertEquals("Verify unseen members removed at end of sync", 501, presence.get().length);
+		assertEquals("Verify member seen in superseded message retained", 1, presence.get("client0", false).length);
+		assertEquals("Verify leave not undone by earlier message", 0, presence.get("client600", false).length);
+		assertEquals("Verify member seen in last page retained", 1, presence.get("client700", false).length);
+		assertEquals("Verify unseen member removed from index", 0, presence.get("client800", false).length);
+
+		/* a second sync sweeps using the new epoch */
+		sync("cursor", member(PresenceMessage.Action.PRESENT, "conn1", "client1", 10));
+		sync("");
+		assertEquals("Verify second sync removes unseen members", 1, presence.get().length);
+		assertEquals("Verify second sync retains seen member", 1, presence.get("client1", false).length);
+	}
+
+	/**
+	 * Records the diffs delivered to a diff listener, as
+	 * "joined,updated,left" counts
+	 */
+	private static class DiffRecorder implements Presence.PresenceDiffListener {
+		@Override
+		public void onPresenceDiff(Presence.PresenceDiff diff) {
+			diffs.add(diff.joined.length + "," + diff.updated.length + "," + diff.left.length + (diff.syncComplete ? ",sync:" + diff.members.size() : ""));
+		}
+		final List<String> diffs = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	/**
+	 * Verify that diffs report joins, data changes and leaves; that
+	 * superseded messages and messages restating a member's existing data,
+	 * including JSON data, are not reported; and that the members not seen
+	 * in a sync are reported as leaving when it completes
+	 */
+	@Test
+	public void diffs() throws Exception {
+		Presence presence = channel.presence;
+		DiffRecorder recorder = new DiffRecorder();
+		presence.subscribeDiffs(recorder);
+
+		PresenceMessage a = member(PresenceMessage.Action.ENTER, "conn1", "a", 10);
+		a.data = new JSONObject("{\"status\":\"online\",\"tags\":[1,2]}");
+		PresenceMessage b = member(PresenceMessage.Action.ENTER, "conn2", "b", 10);
+		b.data = "here";
+		receive(a, b);
+		assertEquals("Verify joins reported", "2,0,0", recorder.diffs.get(0));
+
+		/* restated JSON data, a superseded update, and a restated string */
+		PresenceMessage restatedJson = member(PresenceMessage.Action.UPDATE, "conn1", "a", 11);
+		restatedJson.data = new JSONObject("{\"tags\":[1,2],\"status\":\"online\"}");
+		PresenceMessage superseded = member(PresenceMessage.Action.UPDATE, "conn2", "b", 5);
+		superseded.data = "old";
+		PresenceMessage restatedString = member(PresenceMessage.Action.UPDATE, "conn2", "b", 12);
+		restatedString.data = "here";
+		receive(restatedJson, superseded, restatedString);
+		assertEquals("Verify no diff for restated or superseded data", 1, recorder.diffs.size());
+
+		PresenceMessage changedJson = member(PresenceMessage.Action.UPDATE, "conn1", "a", 13);
+		changedJson.data = new JSONObject("{\"status\":\"online\",\"tags\":[1,3]}");
+		receive(changedJson);
+		assertEquals("Verify JSON data change reported", "0,1,0", recorder.diffs.get(1));
+
+		receive(member(PresenceMessage.Action.LEAVE, "conn2", "b", 14));
+		assertEquals("Verify leave reported", "0,0,1", recorder.diffs.get(2));
+
+		/* a sync that does not see member a */
+		sync("cursor", member(PresenceMessage.Action.PRESENT, "conn3", "c", 15));
+		sync("");
+		assertEquals("Verify join during sync reported", "1,0,0", recorder.diffs.get(3));
+		assertEquals("Verify unseen member reported as leaving at end of sync", "0,0,1,sync:1", recorder.diffs.get(4));
+
+		presence.unsubscribeDiffs(recorder);
+		receive(member(PresenceMessage.Action.ENTER, "conn4", "d", 16));
+		assertEquals("Verify no diffs after unsubscribe", 5, recorder.diffs.size());
+	}
+}
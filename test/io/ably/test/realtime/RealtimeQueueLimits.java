@@ -0,0 +1,243 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.Channel;
+import io.ably.realtime.ChannelState;
+import io.ably.realtime.CompletionListener;
+import io.ably.test.util.MockTransport;
+import io.ably.transport.ConnectionManager;
+import io.ably.types.AblyException;
+import io.ably.types.ErrorInfo;
+import io.ably.types.Message;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+import io.ably.types.QueueLimits;
+import io.ably.types.QueueLimits.OverflowPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the limits applied to messages queued on a connection,
+ * using a mock transport that does not acknowledge messages, so that
+ * a fixed number of messages remain in flight
+ */
+public class RealtimeQueueLimits {
+
+	private MockTransport.Factory factory;
+	private AblyRealtime ably;
+	private ConnectionManager connectionManager;
+
+	@Before
+	public void setUp() {
+		factory = new MockTransport.Factory();
+		factory.autoAck = false;
+	}
+
+	@After
+	public void tearDown() {
+		if(ably != null)
+			ably.close();
+		factory.shutdown();
+	}
+
+	private void connect(QueueLimits limits) throws Exception {
+		DebugOptions opts = new DebugOptions("appid.keyid:secret");
+		opts.maxInFlightMessages = 5;
+		opts.connectionQueueLimits = limits;
+		ably = MockTransport.createConnected(opts, factory);
+		connectionManager = ably.connection.connectionManager;
+	}
+
+	private static ProtocolMessage message(String data) {
+		ProtocolMessage msg = new ProtocolMessage(Action.MESSAGE, "channel");
+		msg.messages = new Message[] { new Message("event", data) };
+		return msg;
+	}
+
+	/**
+	 * Records the data of the messages whose publish failed
+	 */
+	private static class FailureListener implements CompletionListener {
+		FailureListener(String data, List<String> failed) { this.data = data; this.failed = failed; }
+		@Override
+		public void onSuccess() {}
+		@Override
+		public void onError(ErrorInfo reason) { failed.add(data + ":" + reason.code); }
+		private final String data;
+		private final List<String> failed;
+	}
+
+	/**
+	 * Fill the window of in-flight messages, so that subsequent
+	 * messages are held in the queue
+	 */
+	private void fillWindow(List<String> failed) throws Exception {
+		for(int i = 0; i < 5; i++)
+			connectionManager.send(message("inflight" + i), true, new FailureListener("inflight" + i, failed));
+		assertTrue("Verify in-flight messages sent", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.MESSAGE).size() == 5; }
+		}));
+	}
+
+	/**
+	 * Verify that, with OverflowPolicy.FAIL, a publish to a full queue
+	 * throws, the limit listener is called, and queued messages are
+	 * sent once the queue drains
+	 */
+	@Test
+	public void overflow_fail() throws Exception {
+		final AtomicInteger limitReached = new AtomicInteger();
+		QueueLimits limits = new QueueLimits(10, 0, OverflowPolicy.FAIL);
+		limits.listener = new QueueLimits.LimitListener() {
+			@Override
+			public void onLimitReached(String queue, int messages, long bytes) {
+				assertEquals("Verify queue name", "connection", queue);
+				limitReached.incrementAndGet();
+			}
+		};
+		connect(limits);
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		fillWindow(failed);
+
+		int thrown = 0;
+		for(int i = 0; i < 15; i++) {
+			try {
+				connectionManager.send(message("queued" + i), true, null);
+			} catch(AblyException e) {
+				assertEquals("Verify queue full error", 42910, e.errorInfo.code);
+				++thrown;
+			}
+		}
+		assertEquals("Verify publishes beyond the limit fail", 5, thrown);
+		assertEquals("Verify limit listener called", 5, limitReached.get());
+		assertEquals("Verify queue at limit", 10, connectionManager.getQueueLimiter().getQueuedMessages());
+
+		factory.ack(0, 5);
+		assertTrue("Verify queue drains after ack", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return connectionManager.getQueueLimiter().getQueuedMessages() == 5; }
+		}));
+		assertTrue("Verify no in-flight message failed", failed.isEmpty());
+	}
+
+	/**
+	 * Verify that, with OverflowPolicy.DROP_OLDEST, a publish to a full
+	 * queue discards the oldest queued messages, notifying their listeners,
+	 * and never the messages already in flight
+	 */
+	@Test
+	public void overflow_drop_oldest() throws Exception {
+		connect(new QueueLimits(10, 0, OverflowPolicy.DROP_OLDEST));
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		fillWindow(failed);
+
+		for(int i = 0; i < 15; i++)
+			connectionManager.send(message("queued" + i), true, new FailureListener("queued" + i, failed));
+		assertEquals("Verify queue at limit", 10, connectionManager.getQueueLimiter().getQueuedMessages());
+		assertEquals("Verify dropped count", 5, connectionManager.getQueueLimiter().getDroppedCount());
+		assertEquals("Verify oldest messages dropped", 5, failed.size());
+		for(int i = 0; i < 5; i++)
+			assertEquals("Verify dropped message", "queued" + i + ":42910", failed.get(i));
+
+		factory.ack(0, 5);
+		assertTrue("Verify remaining messages sent", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return factory.getSent(Action.MESSAGE).size() == 10; }
+		}));
+		assertEquals("Verify first message sent after drop", "queued5", factory.getSent(Action.MESSAGE).get(5).messages[0].data);
+	}
+
+	/**
+	 * Verify that, with OverflowPolicy.BLOCK, a publish to a full queue
+	 * waits until space is available, or fails after blockTimeout
+	 */
+	@Test
+	public void overflow_block() throws Exception {
+		QueueLimits limits = new QueueLimits(10, 0, OverflowPolicy.BLOCK);
+		limits.blockTimeout = 5000;
+		connect(limits);
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		fillWindow(failed);
+		for(int i = 0; i < 10; i++)
+			connectionManager.send(message("queued" + i), true, null);
+
+		/* acknowledge once the publisher is waiting for space */
+		final Thread publisher = Thread.currentThread();
+		final AtomicBoolean acked = new AtomicBoolean();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					MockTransport.waitFor(new MockTransport.Condition() {
+						@Override
+						public boolean isMet() { return publisher.getState() == Thread.State.TIMED_WAITING; }
+					});
+				} catch(InterruptedException e) {}
+				acked.set(true);
+				factory.ack(0, 5);
+			}
+		}.start();
+		connectionManager.send(message("blocked"), true, null);
+		assertTrue("Verify publish blocked until space available", acked.get());
+
+		limits.blockTimeout = 200;
+		while(connectionManager.getQueueLimiter().getQueuedMessages() < 10)
+			connectionManager.send(message("fill"), true, null);
+		long start = System.currentTimeMillis();
+		try {
+			connectionManager.send(message("timeout"), true, null);
+			fail("Verify publish fails after blockTimeout");
+		} catch(AblyException e) {
+			assertEquals("Verify queue full error", 42910, e.errorInfo.code);
+			assertTrue("Verify publish blocked for blockTimeout", System.currentTimeMillis() - start >= 150);
+		}
+	}
+
+	/**
+	 * Verify that, with OverflowPolicy.BLOCK, messages queued on a channel
+	 * while attaching are not blocked when the library sends them on
+	 * attachment; those that do not fit fail instead, and the library
+	 * thread continues to process the attachment
+	 */
+	@Test
+	public void overflow_block_not_applied_on_flush() throws Exception {
+		QueueLimits limits = new QueueLimits(2, 0, OverflowPolicy.BLOCK);
+		limits.blockTimeout = 10000;
+		connect(limits);
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		fillWindow(failed);
+
+		factory.autoAttach = false;
+		Channel channel = ably.channels.get("channel");
+		channel.attach();
+		for(int i = 0; i < 6; i++)
+			channel.publish(new Message("event", "queued" + i), new FailureListener("queued" + i, failed));
+
+		long start = System.currentTimeMillis();
+		factory.receive(new ProtocolMessage(Action.ATTACHED, "channel"));
+		factory.sync();
+		assertTrue("Verify overflowing messages failed", MockTransport.waitFor(new MockTransport.Condition() {
+			@Override
+			public boolean isMet() { return failed.size() == 4; }
+		}));
+		assertTrue("Verify library thread not blocked", System.currentTimeMillis() - start < 5000);
+		assertEquals("Verify channel attached", ChannelState.attached, channel.state);
+		assertEquals("Verify queue at limit", 2, connectionManager.getQueueLimiter().getQueuedMessages());
+		for(int i = 0; i < 4; i++)
+			assertEquals("Verify newest messages failed", "queued" + (i + 2) + ":42910", failed.get(i));
+	}
+}
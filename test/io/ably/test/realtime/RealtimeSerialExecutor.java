@@ -0,0 +1,205 @@
+package io.ably.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.ably.util.SerialExecutor;
+import io.ably.util.SerialExecutor.OverflowPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the ordered dispatch of tasks by SerialExecutor
+ */
+public class RealtimeSerialExecutor {
+
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() {
+		pool = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * A task that records a value, optionally waiting first for a latch
+	 */
+	private static class Record implements Runnable {
+		Record(List<String> log, String value) { this(log, value, null); }
+		Record(List<String> log, String value, CountDownLatch latch) { this.log = log; this.value = value; this.latch = latch; }
+		@Override
+		public void run() {
+			if(latch != null) {
+				try { latch.await(); } catch(InterruptedException e) {}
+			}
+			log.add(value);
+		}
+		private final List<String> log;
+		private final String value;
+		private final CountDownLatch latch;
+	}
+
+	private static boolean waitForSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(list.size() < size && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		return list.size() == size;
+	}
+
+	/**
+	 * Verify that the tasks of each executor run in order, and that a
+	 * slow task on one executor does not delay the tasks of another
+	 * sharing the same underlying executor
+	 */
+	@Test
+	public void ordered_and_independent() throws Exception {
+		SerialExecutor slow = new SerialExecutor("slow", pool, 16);
+		SerialExecutor fast = new SerialExecutor("fast", pool, 16);
+		List<String> slowLog = Collections.synchronizedList(new ArrayList<String>());
+		List<String> fastLog = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		slow.execute(new Record(slowLog, "0", release));
+		for(int i = 1; i < 10; i++)
+			slow.execute(new Record(slowLog, String.valueOf(i)));
+		for(int i = 0; i < 200; i++)
+			fast.execute(new Record(fastLog, String.valueOf(i)));
+
+		assertTrue("Verify fast executor not delayed by slow task", waitForSize(fastLog, 200));
+		for(int i = 0; i < 200; i++)
+			assertEquals("Verify fast executor order", String.valueOf(i), fastLog.get(i));
+		assertTrue("Verify slow executor tasks still queued", slow.getQueuedCount() >= 9);
+
+		release.countDown();
+		assertTrue("Verify slow executor tasks run", waitForSize(slowLog, 10));
+		for(int i = 0; i < 10; i++)
+			assertEquals("Verify slow executor order", String.valueOf(i), slowLog.get(i));
+		assertEquals("Verify dispatched count", 10, slow.getDispatchedCount());
+		assertTrue("Verify lag measured", slow.getMaxLagNanos() > 0);
+	}
+
+	/**
+	 * Verify that a submitter is not blocked when the queue is beyond
+	 * capacity, and that with OverflowPolicy.QUEUE every task runs in order
+	 */
+	@Test
+	public void overflow_queue_never_blocks() throws Exception {
+		SerialExecutor executor = new SerialExecutor("queue", pool, 4);
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(new Record(log, "0", release));
+		long start = System.currentTimeMillis();
+		for(int i = 1; i < 100; i++)
+			executor.execute(new Record(log, String.valueOf(i)), true);
+		assertTrue("Verify submitter not blocked", System.currentTimeMillis() - start < 1000);
+		assertTrue("Verify overflow counted", executor.getOverflowCount() > 0);
+		assertEquals("Verify nothing dropped", 0, executor.getDroppedCount());
+
+		release.countDown();
+		assertTrue("Verify all tasks run", waitForSize(log, 100));
+		for(int i = 0; i < 100; i++)
+			assertEquals("Verify order", String.valueOf(i), log.get(i));
+	}
+
+	/**
+	 * Verify that with OverflowPolicy.DROP_OLDEST, the oldest discardable
+	 * tasks are dropped, and tasks that are not discardable always run
+	 */
+	@Test
+	public void overflow_drop_oldest() throws Exception {
+		SerialExecutor executor = new SerialExecutor("dropOldest", pool, 4, OverflowPolicy.DROP_OLDEST);
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(new Record(log, "blocker", release));
+		assertTrue("Verify blocking task started", waitForQueued(executor, 0));
+		executor.execute(new Record(log, "state"));
+		for(int i = 0; i < 10; i++)
+			executor.execute(new Record(log, "m" + i), true);
+		executor.execute(new Record(log, "state2"));
+
+		release.countDown();
+		List<String> expected = Arrays.asList("blocker", "state", "m7", "m8", "m9", "state2");
+		assertTrue("Verify remaining tasks run", waitForSize(log, expected.size()));
+		assertEquals("Verify oldest discardable tasks dropped", expected, log);
+		assertEquals("Verify dropped count", 7, executor.getDroppedCount());
+	}
+
+	/**
+	 * Verify that with OverflowPolicy.DROP_NEWEST, discardable tasks
+	 * submitted while the queue is at capacity are dropped
+	 */
+	@Test
+	public void overflow_drop_newest() throws Exception {
+		SerialExecutor executor = new SerialExecutor("dropNewest", pool, 4, OverflowPolicy.DROP_NEWEST);
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(new Record(log, "blocker", release));
+		assertTrue("Verify blocking task started", waitForQueued(executor, 0));
+		for(int i = 0; i < 10; i++)
+			executor.execute(new Record(log, "m" + i), true);
+		executor.execute(new Record(log, "state"));
+
+		release.countDown();
+		List<String> expected = Arrays.asList("blocker", "m0", "m1", "m2", "m3", "state");
+		assertTrue("Verify remaining tasks run", waitForSize(log, expected.size()));
+		assertEquals("Verify newest discardable tasks dropped", expected, log);
+		assertEquals("Verify dropped count", 6, executor.getDroppedCount());
+	}
+
+	/**
+	 * Verify that a task submitted by a running task runs after the
+	 * tasks already queued, both with and without an underlying executor
+	 */
+	@Test
+	public void nested_submission_fifo() throws Exception {
+		for(ExecutorService underlying : new ExecutorService[] { pool, null }) {
+			final SerialExecutor executor = new SerialExecutor("nested", underlying, 16);
+			final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+			final CountDownLatch release = new CountDownLatch(1);
+			Thread first = new Thread() {
+				@Override
+				public void run() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							log.add("a-start");
+							try { release.await(); } catch(InterruptedException e) {}
+							executor.execute(new Record(log, "nested"));
+							log.add("a-end");
+						}
+					});
+				}
+			};
+			first.start();
+			assertTrue("Verify first task started", waitForSize(log, 1));
+			/* submitted while the first task runs; without an underlying
+			 * executor, this is run by the thread running the first task */
+			executor.execute(new Record(log, "b"));
+			release.countDown();
+			assertTrue("Verify all tasks run", waitForSize(log, 4));
+			assertEquals("Verify nested task runs after queued tasks", Arrays.asList("a-start", "a-end", "b", "nested"), log);
+			first.join();
+		}
+	}
+
+	private static boolean waitForQueued(SerialExecutor executor, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while((executor.getQueuedCount() != count || executor.getDispatchedCount() == 0) && System.currentTimeMillis() < deadline)
+			TimeUnit.MILLISECONDS.sleep(5);
+		return executor.getQueuedCount() == count;
+	}
+}
@@ -12,6 +12,16 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
 	EventEmitterTest.class,
+	RealtimeMsgpackCodec.class,
+	RealtimeJsonCodec.class,
+	RealtimeMessageCodec.class,
+	RealtimeConnectionSend.class,
+	RealtimeQueueLimits.class,
+	RealtimeConnectionScheduler.class,
+	RealtimePresenceMap.class,
+	RealtimeChannelSubscribe.class,
+	RealtimeSerialExecutor.class,
+	RealtimeChannels.class,
 	RealtimeInit.class,
 	RealtimeConnect.class,
 	RealtimeConnectFail.class,
@@ -0,0 +1,192 @@
+package io.ably.test.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.http.AsyncHttp;
+import io.ably.types.AblyException;
+import io.ably.types.Callback;
+import io.ably.types.ErrorInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the dispatch of asynchronous requests by AsyncHttp;
+ * these do not make HTTP requests
+ */
+public class RestAsyncHttp {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A callback that records the outcome of a request
+	 */
+	private static class ResultCallback<T> implements Callback<T> {
+		@Override
+		public void onSuccess(T result) { this.result = result; latch.countDown(); }
+		@Override
+		public void onError(ErrorInfo reason) { this.reason = reason; latch.countDown(); }
+		boolean await() throws InterruptedException { return latch.await(5, TimeUnit.SECONDS); }
+		volatile T result;
+		volatile ErrorInfo reason;
+		private final CountDownLatch latch = new CountDownLatch(1);
+	}
+
+	/**
+	 * Verify that no more than maxInFlight requests are in progress at
+	 * any time, that further requests are held without blocking the caller,
+	 * and that held requests are started as earlier requests complete
+	 */
+	@Test
+	public void in_flight_capped() throws Exception {
+		AsyncHttp http = new AsyncHttp(executor, 4);
+		final AtomicInteger current = new AtomicInteger(), max = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(4);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(50);
+		/* each request waits for release, so this loop only completes
+		 * if submission does not block */
+		for(int i = 0; i < 50; i++) {
+			http.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int now = current.incrementAndGet();
+					synchronized(max) {
+						if(now > max.get())
+							max.set(now);
+					}
+					started.countDown();
+					release.await();
+					current.decrementAndGet();
+					return now;
+				}
+			}, new Callback<Integer>() {
+				@Override
+				public void onSuccess(Integer result) { done.countDown(); }
+				@Override
+				public void onError(ErrorInfo reason) {}
+			});
+		}
+		assertTrue("Verify requests started", started.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify requests in progress", 4, http.getInFlightCount());
+		assertEquals("Verify requests held", 46, http.getPendingCount());
+
+		release.countDown();
+		assertTrue("Verify all requests complete", done.await(5, TimeUnit.SECONDS));
+		assertEquals("Verify in-flight limit respected", 4, max.get());
+		long deadline = System.currentTimeMillis() + 5000;
+		while(http.getInFlightCount() > 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		assertEquals("Verify no requests in progress", 0, http.getInFlightCount());
+		assertEquals("Verify no requests held", 0, http.getPendingCount());
+	}
+
+	/**
+	 * Verify that when a request fails, the callback is notified with the
+	 * error, and the Future reports the failure
+	 */
+	@Test
+	public void callback_on_failure() throws Exception {
+		AsyncHttp http = new AsyncHttp(executor, 2);
+		ResultCallback<String> ablyFailure = new ResultCallback<String>();
+		Future<String> future = http.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				throw new AblyException("Service unavailable", 503, 50300);
+			}
+		}, ablyFailure);
+		assertTrue("Verify callback called", ablyFailure.await());
+		assertNull("Verify no result", ablyFailure.result);
+		assertEquals("Verify error code", 50300, ablyFailure.reason.code);
+		assertEquals("Verify error status", 503, ablyFailure.reason.statusCode);
+		try {
+			future.get();
+			fail("Verify Future reports failure");
+		} catch(ExecutionException e) {
+			assertTrue("Verify Future reports cause", e.getCause() instanceof AblyException);
+		}
+
+		ResultCallback<String> unexpected = new ResultCallback<String>();
+		http.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				throw new IllegalStateException("unexpected");
+			}
+		}, unexpected);
+		assertTrue("Verify callback called for unexpected exception", unexpected.await());
+		assertTrue("Verify error reported", unexpected.reason != null);
+
+		ResultCallback<String> success = new ResultCallback<String>();
+		http.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "ok";
+			}
+		}, success);
+		assertTrue("Verify callback called", success.await());
+		assertEquals("Verify result after failures", "ok", success.result);
+		assertEquals("Verify no requests held after failures", 0, http.getPendingCount());
+	}
+
+	/**
+	 * Verify that when the executor rejects a request, the callback is
+	 * notified, and later requests are not held
+	 */
+	@Test
+	public void callback_on_rejection() throws Exception {
+		final AtomicInteger rejections = new AtomicInteger(1);
+		Executor rejecting = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				if(rejections.getAndDecrement() > 0)
+					throw new RejectedExecutionException("rejected");
+				executor.execute(command);
+			}
+		};
+		AsyncHttp http = new AsyncHttp(rejecting, 1);
+		ResultCallback<String> rejected = new ResultCallback<String>();
+		http.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "not run";
+			}
+		}, rejected);
+		assertTrue("Verify callback called", rejected.await());
+		assertTrue("Verify error reported", rejected.reason != null);
+
+		ResultCallback<String> accepted = new ResultCallback<String>();
+		http.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "ok";
+			}
+		}, accepted);
+		assertTrue("Verify later request not held", accepted.await());
+		assertEquals("Verify result", "ok", accepted.result);
+	}
+}
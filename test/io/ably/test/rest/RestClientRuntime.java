@@ -0,0 +1,96 @@
+package io.ably.test.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.ably.rest.AblyRest;
+import io.ably.rest.ClientRuntime;
+import io.ably.transport.Defaults;
+import io.ably.types.ClientOptions;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+/**
+ * Tests of the sharing of resources between clients via a ClientRuntime;
+ * these do not make requests
+ */
+public class RestClientRuntime {
+
+	private static AblyRest createClient(String key, ClientRuntime runtime) throws Exception {
+		ClientOptions opts = new ClientOptions(key);
+		opts.runtime = runtime;
+		return new AblyRest(opts);
+	}
+
+	/**
+	 * Verify that clients with different keys share the runtime's
+	 * connection pool, host health and scheduler
+	 */
+	@Test
+	public void clients_share_runtime() throws Exception {
+		ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+		ClientRuntime runtime = new ClientRuntime(10, 5, scheduler);
+		try {
+			AblyRest first = createClient("appid.first:secret", runtime);
+			AblyRest second = createClient("appid.second:secret", runtime);
+			assertSame("Verify host health shared", runtime.getHostHealth(), first.http.getHostHealth());
+			assertSame("Verify host health shared", runtime.getHostHealth(), second.http.getHostHealth());
+			assertEquals("Verify runtime pool used", 10, first.http.getPoolStats().getMax());
+			assertEquals("Verify runtime pool used", 10, second.http.getPoolStats().getMax());
+			assertSame("Verify runtime scheduler used", scheduler, Defaults.getScheduler(first.options));
+		} finally {
+			runtime.close();
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Verify that closing a client does not shut down a pool it
+	 * does not own
+	 */
+	@Test
+	public void client_close_keeps_runtime_pool() throws Exception {
+		ClientRuntime runtime = new ClientRuntime();
+		try {
+			AblyRest first = createClient("appid.first:secret", runtime);
+			createClient("appid.second:secret", runtime);
+			first.http.getEngine().close();
+
+			/* the pool throws if it has been shut down */
+			ManagedClientConnection connection = runtime.getHttpConnectionManager()
+				.requestConnection(new HttpRoute(new HttpHost("localhost", 80)), null)
+				.getConnection(1, TimeUnit.SECONDS);
+			assertEquals("Verify shared pool still in use", 1, runtime.getHttpPoolStats().getLeased());
+			runtime.getHttpConnectionManager().releaseConnection(connection, 0, TimeUnit.MILLISECONDS);
+		} finally {
+			runtime.close();
+		}
+	}
+
+	/**
+	 * Verify that clients without a runtime each have their own
+	 * pool and host health
+	 */
+	@Test
+	public void clients_without_runtime() throws Exception {
+		AblyRest first = createClient("appid.first:secret", null);
+		AblyRest second = createClient("appid.second:secret", null);
+		try {
+			assertNotSame("Verify host health not shared", first.http.getHostHealth(), second.http.getHostHealth());
+			assertEquals("Verify default pool size", Defaults.httpMaxConnections, first.http.getPoolStats().getMax());
+			assertTrue("Verify pools not shared", first.http.getEngine() != second.http.getEngine());
+		} finally {
+			first.http.getEngine().close();
+			second.http.getEngine().close();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package io.ably.test.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.ably.http.HostHealth;
+
+import org.junit.Test;
+
+/**
+ * Tests of the tracking of host health for REST requests;
+ * these do not make requests
+ */
+public class RestHostHealth {
+
+	private static final String[] FALLBACK_HOSTS = new String[] { "fallback1", "fallback2", "fallback3" };
+	private static final long MILLIS = 1000000L;
+
+	/**
+	 * Verify that hosts are ordered with the default host first, then fallback
+	 * hosts of known latency, fastest first, then those of unknown latency; and
+	 * that when the default host's circuit is open, the last known good host
+	 * is first and the default host is last
+	 */
+	@Test
+	public void order() {
+		HostHealth health = new HostHealth(2, 30000, 60000);
+		assertArrayEquals("Verify initial order",
+				new String[] { "main", "fallback1", "fallback2", "fallback3" },
+				health.order("main", FALLBACK_HOSTS));
+		assertArrayEquals("Verify order without fallback hosts",
+				new String[] { "main" },
+				health.order("main", null));
+
+		health.onSuccess("fallback3", 1 * MILLIS);
+		health.onSuccess("fallback2", 5 * MILLIS);
+		assertArrayEquals("Verify measured hosts ordered by latency",
+				new String[] { "main", "fallback3", "fallback2", "fallback1" },
+				health.order("main", FALLBACK_HOSTS));
+
+		health.onFailure("main");
+		health.onFailure("main");
+		assertEquals("Verify last good host", "fallback2", health.getLastGoodHost());
+		assertArrayEquals("Verify last good host first when default host unavailable",
+				new String[] { "fallback2", "fallback3", "fallback1", "main" },
+				health.order("main", FALLBACK_HOSTS));
+
+		health.onFailure("fallback3");
+		health.onFailure("fallback3");
+		assertArrayEquals("Verify unavailable hosts last",
+				new String[] { "fallback2", "fallback1", "main", "fallback3" },
+				health.order("main", FALLBACK_HOSTS));
+	}
+
+	/**
+	 * Verify that a host's circuit opens after the threshold number of
+	 * consecutive failures, that the host may be retried once the retry
+	 * timeout has elapsed, and that a success closes the circuit
+	 */
+	@Test
+	public void failure_threshold_and_retry() {
+		ManualClockHostHealth health = new ManualClockHostHealth(3, 100, 60000);
+		health.onFailure("host");
+		health.onFailure("host");
+		assertTrue("Verify host available below threshold", health.isAvailable("host"));
+		health.onFailure("host");
+		assertFalse("Verify host unavailable at threshold", health.isAvailable("host"));
+
+		health.time += 150;
+		assertTrue("Verify host available after retry timeout", health.isAvailable("host"));
+		health.onFailure("host");
+		assertFalse("Verify host unavailable after failed retry", health.isAvailable("host"));
+
+		health.time += 150;
+		health.onSuccess("host", 1 * MILLIS);
+		health.onFailure("host");
+		health.onFailure("host");
+		assertTrue("Verify failures counted afresh after success", health.isAvailable("host"));
+		assertEquals("Verify latency recorded", 1 * MILLIS, health.getLatency("host"));
+	}
+
+	/**
+	 * Verify that the hedge delay is the default until enough latencies are
+	 * sampled; is thereafter the 95th percentile of sampled latencies; and
+	 * is subject to a minimum
+	 */
+	@Test
+	public void hedge_delay() {
+		HostHealth health = new HostHealth();
+		for(int i = 0; i < 10; i++)
+			health.onSuccess("host", 10 * MILLIS);
+		assertEquals("Verify default delay with few samples", HostHealth.DEFAULT_HEDGE_DELAY, health.getHedgeDelay());
+
+		for(int i = 0; i < 87; i++)
+			health.onSuccess("host", 10 * MILLIS);
+		assertEquals("Verify minimum delay applied", 50, health.getHedgeDelay());
+
+		health.reset();
+		for(int i = 0; i < 10; i++)
+			health.onSuccess("host", 300 * MILLIS);
+		for(int i = 0; i < 87; i++)
+			health.onSuccess("host", 10 * MILLIS);
+		assertEquals("Verify 95th percentile delay", 300, health.getHedgeDelay());
+	}
+
+	/**
+	 * Verify that a fallback host made preferred is ordered and chosen first
+	 * until the preference timeout expires, that the preference is not
+	 * extended by setting it again, and that it is cleared if the host fails
+	 */
+	@Test
+	public void preferred_host_expiry() {
+		ManualClockHostHealth health = new ManualClockHostHealth(1, 30000, 200);
+		health.setPreferredHost("fallback2");
+		assertEquals("Verify preferred host", "fallback2", health.getPreferredHost(FALLBACK_HOSTS));
+		assertArrayEquals("Verify preferred host first",
+				new String[] { "fallback2", "main", "fallback1", "fallback3" },
+				health.order("main", FALLBACK_HOSTS));
+		assertEquals("Verify preferred host chosen", "fallback2", health.choose(FALLBACK_HOSTS));
+		assertNull("Verify preferred host only if one of the given hosts", health.getPreferredHost(new String[] { "other" }));
+
+		health.time += 120;
+		health.setPreferredHost("fallback2");
+		health.time += 120;
+		assertNull("Verify preference not extended, and expired", health.getPreferredHost(FALLBACK_HOSTS));
+		assertArrayEquals("Verify default host first after expiry",
+				new String[] { "main", "fallback1", "fallback2", "fallback3" },
+				health.order("main", FALLBACK_HOSTS));
+
+		health.setPreferredHost("fallback1");
+		assertEquals("Verify host preferred again after expiry", "fallback1", health.getPreferredHost(FALLBACK_HOSTS));
+		health.onFailure("fallback1");
+		assertNull("Verify preference cleared on failure", health.getPreferredHost(FALLBACK_HOSTS));
+	}
+
+	/**
+	 * A HostHealth whose clock is advanced by the test rather than by sleeping
+	 */
+	private static class ManualClockHostHealth extends HostHealth {
+		private ManualClockHostHealth(int failureThreshold, long retryTimeout, long preferenceTimeout) {
+			super(failureThreshold, retryTimeout, preferenceTimeout);
+		}
+
+		@Override
+		protected long now() {
+			return time;
+		}
+
+		private long time = 1000000L;
+	}
+}
@@ -0,0 +1,206 @@
+package io.ably.test.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.http.ApacheHttpEngine;
+import io.ably.http.HttpEngine;
+import io.ably.rest.AblyRest;
+import io.ably.rest.Auth;
+import io.ably.transport.Defaults;
+import io.ably.types.AblyException;
+import io.ably.types.ClientOptions;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Test;
+
+/**
+ * Tests of host fallback and request hedging, using an HttpEngine
+ * that responds without making requests
+ */
+public class RestHttpEngine {
+
+	private static final String HOST = Defaults.REST_HOST;
+	private static final String FALLBACK_A = Defaults.FALLBACK_HOSTS[0];
+	private static final String FALLBACK_B = Defaults.FALLBACK_HOSTS[1];
+
+	/**
+	 * The response of a host to a request
+	 */
+	private static class Response {
+		Response(long delay, int statusCode, String body) { this.delay = delay; this.statusCode = statusCode; this.body = body; }
+		final long delay;
+		final int statusCode;
+		final String body;
+	}
+
+	private static Response time(long delay, long time) {
+		return new Response(delay, 200, "[" + time + "]");
+	}
+
+	private static Response error(long delay, int statusCode, int code) {
+		return new Response(delay, statusCode, "{\"error\":{\"message\":\"error\",\"statusCode\":" + statusCode + ",\"code\":" + code + "}}");
+	}
+
+	/**
+	 * An engine that responds to each request as configured for its host;
+	 * hosts with no configured response are unreachable
+	 */
+	private static class StubEngine implements HttpEngine {
+		@Override
+		public void setAuth(Auth auth, CredentialsProvider credentialsProvider) {}
+
+		@Override
+		public HttpResponse execute(HttpHost host, HttpUriRequest request, HttpContext context) throws IOException {
+			requested.add(host.getHostName());
+			Response response = responses.get(host.getHostName());
+			if(response == null)
+				throw new ConnectException("Connection refused");
+			long deadline = System.currentTimeMillis() + response.delay;
+			while(System.currentTimeMillis() < deadline) {
+				if(request.isAborted()) {
+					aborted.incrementAndGet();
+					throw new IOException("Request aborted");
+				}
+				try { Thread.sleep(5); } catch(InterruptedException e) { throw new IOException("Interrupted"); }
+			}
+			BasicHttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, response.statusCode, "");
+			result.setEntity(new ByteArrayEntity(response.body.getBytes()));
+			result.setHeader("Content-Type", "application/json");
+			return result;
+		}
+
+		@Override
+		public PoolStats getPoolStats() { return null; }
+
+		@Override
+		public void close() {}
+
+		final Map<String, Response> responses = new ConcurrentHashMap<String, Response>();
+		final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger aborted = new AtomicInteger();
+	}
+
+	private static AblyRest createClient(final StubEngine engine, boolean hedge) throws AblyException {
+		ClientOptions opts = new ClientOptions("appid.keyid:secret");
+		opts.hedgeIdempotentRequests = hedge;
+		opts.httpEngineFactory = new HttpEngine.Factory() {
+			@Override
+			public HttpEngine getEngine(ClientOptions options) { return engine; }
+		};
+		AblyRest ably = new AblyRest(opts);
+		if(hedge) {
+			/* sample enough fast requests that requests are hedged after the minimum delay */
+			for(int i = 0; i < 20; i++)
+				ably.http.getHostHealth().onSuccess("sample", 1000000L);
+		}
+		return ably;
+	}
+
+	/**
+	 * Verify that the engine is obtained from ClientOptions.httpEngineFactory
+	 * if given, and is otherwise instanced from Defaults.httpEngine
+	 */
+	@Test
+	public void engine_factory() throws Exception {
+		StubEngine engine = new StubEngine();
+		assertSame("Verify engine from factory", engine, createClient(engine, false).http.getEngine());
+		AblyRest ably = new AblyRest(new ClientOptions("appid.keyid:secret"));
+		try {
+			assertTrue("Verify default engine", ably.http.getEngine() instanceof ApacheHttpEngine);
+		} finally {
+			ably.http.getEngine().close();
+		}
+	}
+
+	/**
+	 * Verify that a request falls back to each host in turn when a host
+	 * cannot be reached, and that the fallback host that succeeded is
+	 * then tried first
+	 */
+	@Test
+	public void fallback() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.responses.put(FALLBACK_B, time(0, 1234));
+		AblyRest ably = createClient(engine, false);
+		assertEquals("Verify result from fallback host", 1234, ably.time());
+		assertEquals("Verify hosts tried in turn", Arrays.asList(HOST, FALLBACK_A, FALLBACK_B), new ArrayList<String>(engine.requested));
+
+		engine.requested.clear();
+		assertEquals("Verify result", 1234, ably.time());
+		assertEquals("Verify successful fallback host tried first", FALLBACK_B, engine.requested.get(0));
+		assertEquals("Verify no other host tried", 1, engine.requested.size());
+	}
+
+	/**
+	 * Verify that a request that has received no response after the hedge
+	 * delay is repeated to the next host, that the first response is used,
+	 * and that the slower request is abandoned
+	 */
+	@Test
+	public void hedge() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.responses.put(HOST, time(3000, 1));
+		engine.responses.put(FALLBACK_A, time(0, 2));
+		AblyRest ably = createClient(engine, true);
+		long start = System.currentTimeMillis();
+		assertEquals("Verify result from hedged host", 2, ably.time());
+		assertTrue("Verify response not delayed by slow host", System.currentTimeMillis() - start < 1500);
+		long deadline = System.currentTimeMillis() + 5000;
+		while(engine.aborted.get() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		assertEquals("Verify slow request abandoned", 1, engine.aborted.get());
+	}
+
+	/**
+	 * Verify that when the hedged request receives an error response, the
+	 * result of the request still in progress is used
+	 */
+	@Test
+	public void hedge_error_awaits_twin() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.responses.put(HOST, time(300, 1));
+		engine.responses.put(FALLBACK_A, error(0, 503, 50300));
+		AblyRest ably = createClient(engine, true);
+		assertEquals("Verify result from slower host", 1, ably.time());
+	}
+
+	/**
+	 * Verify that when both requests receive error responses, the first
+	 * error is reported, and no further hosts are tried
+	 */
+	@Test
+	public void hedge_errors() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.responses.put(HOST, error(300, 500, 50000));
+		engine.responses.put(FALLBACK_A, error(0, 503, 50300));
+		AblyRest ably = createClient(engine, true);
+		try {
+			ably.time();
+			fail("Verify error reported");
+		} catch(AblyException e) {
+			assertEquals("Verify first error reported", 50300, e.errorInfo.code);
+		}
+		assertEquals("Verify no further hosts tried", 2, engine.requested.size());
+	}
+}
@@ -0,0 +1,51 @@
+package io.ably.test.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import io.ably.http.ApacheHttpEngine.KeepAliveStrategy;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+/**
+ * Tests of the time for which idle HTTP connections are kept alive;
+ * these do not make requests
+ */
+public class RestKeepAlive {
+
+	private static HttpResponse response(String keepAlive) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		if(keepAlive != null)
+			response.addHeader("Keep-Alive", keepAlive);
+		return response;
+	}
+
+	/**
+	 * Verify that the time indicated by the server is used when within
+	 * ClientOptions.httpKeepAliveTime, and is otherwise capped; and that
+	 * the cap applies when the server indicates no time
+	 */
+	@Test
+	public void keep_alive_capped() {
+		KeepAliveStrategy strategy = new KeepAliveStrategy(2000);
+		BasicHttpContext context = new BasicHttpContext();
+		assertEquals("Verify server time used within cap", 1000, strategy.getKeepAliveDuration(response("timeout=1"), context));
+		assertEquals("Verify server time capped", 2000, strategy.getKeepAliveDuration(response("timeout=5, max=100"), context));
+		assertEquals("Verify cap used when server indicates no time", 2000, strategy.getKeepAliveDuration(response(null), context));
+	}
+
+	/**
+	 * Verify that with no cap, the time indicated by the server is used,
+	 * and a connection is kept alive indefinitely if none is indicated
+	 */
+	@Test
+	public void keep_alive_uncapped() {
+		KeepAliveStrategy strategy = new KeepAliveStrategy(0);
+		BasicHttpContext context = new BasicHttpContext();
+		assertEquals("Verify server time used", 5000, strategy.getKeepAliveDuration(response("timeout=5"), context));
+		assertEquals("Verify indefinite when server indicates no time", -1, strategy.getKeepAliveDuration(response(null), context));
+	}
+}
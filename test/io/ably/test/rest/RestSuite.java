@@ -11,6 +11,11 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+	RestClientRuntime.class,
+	RestAsyncHttp.class,
+	RestHostHealth.class,
+	RestKeepAlive.class,
+	RestHttpEngine.class,
 	RestAppStats.class,
 	RestInit.class,
 	RestTime.class,
@@ -0,0 +1,280 @@
+package io.ably.test.util;
+
+import io.ably.debug.DebugOptions;
+import io.ably.realtime.AblyRealtime;
+import io.ably.realtime.ConnectionState;
+import io.ably.transport.ConnectionManager;
+import io.ably.transport.ITransport;
+import io.ably.types.AblyException;
+import io.ably.types.ErrorInfo;
+import io.ably.types.ProtocolMessage;
+import io.ably.types.ProtocolMessage.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transport, for use with DebugOptions.transportFactory, that records the
+ * messages sent by the library and responds as the service would, without
+ * a network connection. Responses are delivered in order on a single thread.
+ */
+public class MockTransport implements ITransport {
+
+	public static class Factory implements ITransport.Factory {
+		/* if false, connect() does not respond until completeConnect() is called */
+		public volatile boolean autoConnect = true;
+		/* if false, ACK is not sent for messages requiring acknowledgement */
+		public volatile boolean autoAck = true;
+		/* if false, ATTACH and DETACH are not responded to */
+		public volatile boolean autoAttach = true;
+
+		public final List<ProtocolMessage> sent = new ArrayList<ProtocolMessage>();
+		public volatile MockTransport transport;
+		/* the number of connection attempts */
+		public final AtomicInteger connects = new AtomicInteger();
+		private final ExecutorService responder = Executors.newSingleThreadExecutor();
+
+		@Override
+		public ITransport getTransport(TransportParams transportParams, ConnectionManager connectionManager) {
+			connects.incrementAndGet();
+			return transport = new MockTransport(this, transportParams, connectionManager);
+		}
+
+		/**
+		 * Get a copy of the messages sent, in the order written to the transport
+		 */
+		public List<ProtocolMessage> getSent() {
+			synchronized(sent) {
+				return new ArrayList<ProtocolMessage>(sent);
+			}
+		}
+
+		/**
+		 * Get a copy of the messages sent with the given action
+		 */
+		public List<ProtocolMessage> getSent(Action action) {
+			List<ProtocolMessage> result = new ArrayList<ProtocolMessage>();
+			synchronized(sent) {
+				for(ProtocolMessage msg : sent)
+					if(msg.action == action)
+						result.add(msg);
+			}
+			return result;
+		}
+
+		public void clearSent() {
+			synchronized(sent) {
+				sent.clear();
+			}
+		}
+
+		/**
+		 * Deliver a message to the library, as if received from the service,
+		 * on the most recently created transport
+		 */
+		public void receive(ProtocolMessage message) {
+			transport.receive(message);
+		}
+
+		public void ack(long msgSerial, int count) {
+			transport.ack(msgSerial, count);
+		}
+
+		public void nack(long msgSerial, int count, ErrorInfo reason) {
+			ProtocolMessage nack = new ProtocolMessage(Action.NACK);
+			nack.msgSerial = msgSerial;
+			nack.count = count;
+			nack.error = reason;
+			receive(nack);
+		}
+
+		/**
+		 * Respond to a connection attempt that was not responded to because
+		 * autoConnect was false; or, if already connected, indicate a new
+		 * connection as if the transport had been replaced
+		 */
+		public void completeConnect(String connectionId) {
+			transport.completeConnect(connectionId);
+		}
+
+		/**
+		 * Wait until all responses so far have been delivered
+		 */
+		public void sync() throws InterruptedException {
+			final Object done = new Object();
+			final boolean[] flag = new boolean[1];
+			responder.execute(new Runnable() {
+				@Override
+				public void run() {
+					synchronized(done) { flag[0] = true; done.notifyAll(); }
+				}
+			});
+			synchronized(done) {
+				while(!flag[0])
+					done.wait();
+			}
+		}
+
+		public void shutdown() {
+			responder.shutdown();
+		}
+	}
+
+	/**
+	 * Create a client using a mock transport, and wait for it to connect
+	 * @param opts: the options, to which the transport factory is assigned
+	 * @param factory: the transport factory
+	 */
+	public static AblyRealtime createConnected(DebugOptions opts, Factory factory) throws AblyException, InterruptedException {
+		AblyRealtime ably = create(opts, factory);
+		ably.connection.connect();
+		waitFor(ably, ConnectionState.connected);
+		return ably;
+	}
+
+	/**
+	 * Create a client using a mock transport, without connecting
+	 */
+	public static AblyRealtime create(DebugOptions opts, Factory factory) throws AblyException {
+		opts.autoConnect = false;
+		opts.transportFactory = factory;
+		return new AblyRealtime(opts);
+	}
+
+	/**
+	 * Wait, for up to 5s, for a client to reach a connection state
+	 * @return true if the state was reached
+	 */
+	public static boolean waitFor(AblyRealtime ably, ConnectionState state) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(ably.connection.state != state && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		return ably.connection.state == state;
+	}
+
+	/**
+	 * Wait, for up to 5s, for a condition to become true
+	 */
+	public static boolean waitFor(Condition condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.isMet() && System.currentTimeMillis() < deadline)
+			TimeUnit.MILLISECONDS.sleep(5);
+		return condition.isMet();
+	}
+
+	public interface Condition {
+		public boolean isMet();
+	}
+
+	private MockTransport(Factory factory, TransportParams params, ConnectionManager connectionManager) {
+		this.factory = factory;
+		this.params = params;
+		this.connectionManager = connectionManager;
+	}
+
+	/**
+	 * Deliver a message to the connection using this transport
+	 */
+	public void receive(final ProtocolMessage message) {
+		factory.responder.execute(new Runnable() {
+			@Override
+			public void run() {
+				connectionManager.onMessage(message);
+			}
+		});
+	}
+
+	/**
+	 * Respond to a connection attempt on this transport
+	 */
+	public synchronized void completeConnect(String connectionId) {
+		if(connectListener != null) {
+			connectListener.onTransportAvailable(this, params);
+			connectListener = null;
+		}
+		ProtocolMessage connected = new ProtocolMessage(Action.CONNECTED);
+		connected.connectionId = connectionId;
+		connected.connectionKey = connectionId + "-key";
+		receive(connected);
+	}
+
+	/**
+	 * Fail a connection attempt on this transport, as if the host
+	 * could not be reached
+	 */
+	public synchronized void failConnect(ErrorInfo reason) {
+		if(connectListener != null) {
+			connectListener.onTransportUnavailable(this, params, reason);
+			connectListener = null;
+		}
+	}
+
+	/**
+	 * Lose the connection on this transport, as if the network had failed
+	 */
+	public void disconnect(ErrorInfo reason) {
+		connectionManager.onTransportUnavailable(this, params, reason);
+	}
+
+	@Override
+	public void connect(ConnectListener connectListener) {
+		synchronized(this) {
+			this.connectListener = connectListener;
+		}
+		if(factory.autoConnect)
+			completeConnect("mock");
+	}
+
+	public void ack(long msgSerial, int count) {
+		ProtocolMessage ack = new ProtocolMessage(Action.ACK);
+		ack.msgSerial = msgSerial;
+		ack.count = count;
+		receive(ack);
+	}
+
+	@Override
+	public void close(boolean sendDisconnect) {}
+
+	@Override
+	public void abort(ErrorInfo reason) {}
+
+	@Override
+	public void send(ProtocolMessage msg) throws AblyException {
+		synchronized(factory.sent) {
+			factory.sent.add(msg);
+		}
+		switch(msg.action) {
+		case ATTACH:
+			if(factory.autoAttach)
+				receive(new ProtocolMessage(Action.ATTACHED, msg.channel));
+			break;
+		case DETACH:
+			if(factory.autoAttach)
+				receive(new ProtocolMessage(Action.DETACHED, msg.channel));
+			break;
+		case CLOSE:
+			receive(new ProtocolMessage(Action.CLOSED));
+			break;
+		case HEARTBEAT:
+			receive(new ProtocolMessage(Action.HEARTBEAT));
+			break;
+		default:
+			if(factory.autoAck && ProtocolMessage.ackRequired(msg))
+				ack(msg.msgSerial, 1);
+		}
+	}
+
+	@Override
+	public String getHost() {
+		return "mock";
+	}
+
+	private final Factory factory;
+	private final TransportParams params;
+	private final ConnectionManager connectionManager;
+	private ConnectListener connectListener;
+}